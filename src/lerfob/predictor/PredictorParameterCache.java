@@ -0,0 +1,156 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import repicea.math.Matrix;
+import repicea.math.SymmetricMatrix;
+
+/**
+ * The PredictorParameterCache class is a process-wide cache of the parameter files of the predictors.
+ * Each file is read by the PredictorParameterFile class the first time it is requested. The subsequent
+ * requests are served from the cache, so that the files are parsed only once. <br>
+ * <br>
+ * The vectors and matrices are always returned as copies. The symmetric matrices returned by the 
+ * loadSymmetricMatrix methods are expanded once and each call returns a new copy of the expanded matrix. 
+ * A predictor can therefore alter its parameter estimates without affecting the other predictors.
+ * @author agent - October 2026
+ */
+public final class PredictorParameterCache {
+
+	private static final ConcurrentHashMap<String, Object> Cache = new ConcurrentHashMap<String, Object>();
+	private static final ConcurrentHashMap<String, SymmetricMatrix> SymmetricMatrixCache = new ConcurrentHashMap<String, SymmetricMatrix>();
+
+	private static interface Loader {
+		public Object load() throws IOException;
+	}
+
+	private PredictorParameterCache() {}
+
+	private static Object get(String key, Loader loader) throws IOException {
+		try {
+			return Cache.computeIfAbsent(key, k -> {
+				try {
+					return loader.load();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * This method returns the parameter map of a file in which the first columns are keys.
+	 * @param nbKeys the number of key columns
+	 * @param path the path of the file
+	 * @return a shared PredictorParameterMap instance
+	 * @throws IOException if the file cannot be read
+	 */
+	public static PredictorParameterMap loadVectorFromFile(int nbKeys, String path) throws IOException {
+		return (PredictorParameterMap) get("vector" + nbKeys + ":" + path, () -> PredictorParameterFile.loadVectorFromFile(nbKeys, path));
+	}
+
+	/**
+	 * This method returns the parameter map of a file without keys.
+	 * @param path the path of the file
+	 * @return a shared PredictorParameterMap instance
+	 * @throws IOException if the file cannot be read
+	 */
+	public static PredictorParameterMap loadVectorFromFile(String path) throws IOException {
+		return loadVectorFromFile(0, path);
+	}
+
+	/**
+	 * This method returns the matrix stored in a file.
+	 * @param path the path of the file
+	 * @return a copy of the cached Matrix instance
+	 * @throws IOException if the file cannot be read
+	 */
+	public static Matrix loadMatrixFromFile(String path) throws IOException {
+		return getSharedMatrix(path).getDeepClone();
+	}
+
+	private static Matrix getSharedMatrix(String path) throws IOException {
+		return (Matrix) get("matrix:" + path, () -> PredictorParameterFile.loadMatrixFromFile(path));
+	}
+
+	/**
+	 * This method returns the symmetric matrix whose lower triangle is stored in a column vector
+	 * of a file. The vector is expanded only once.
+	 * @param nbKeys the number of key columns
+	 * @param path the path of the file
+	 * @param keys the values of the key columns (no argument if the file has no key column)
+	 * @return a copy of the cached SymmetricMatrix instance or null if there is no vector for these keys
+	 * @throws IOException if the file cannot be read
+	 */
+	public static SymmetricMatrix loadSymmetricMatrixFromVector(int nbKeys, String path, Integer... keys) throws IOException {
+		String key = "vector" + nbKeys + ":" + path + Arrays.toString(keys);
+		SymmetricMatrix matrix = SymmetricMatrixCache.get(key);
+		if (matrix == null) {
+			Matrix vector = loadVectorFromFile(nbKeys, path).getShared(keys);
+			if (vector == null) {
+				return null;
+			}
+			matrix = SymmetricMatrixCache.computeIfAbsent(key, k -> vector.squareSym());
+		}
+		return copy(matrix);
+	}
+
+	/**
+	 * This method returns the symmetric matrix stored in a file. The conversion is done only once.
+	 * @param path the path of the file
+	 * @return a copy of the cached SymmetricMatrix instance
+	 * @throws IOException if the file cannot be read
+	 */
+	public static SymmetricMatrix loadSymmetricMatrixFromFile(String path) throws IOException {
+		String key = "matrix:" + path;
+		SymmetricMatrix matrix = SymmetricMatrixCache.get(key);
+		if (matrix == null) {
+			Matrix m = getSharedMatrix(path);
+			matrix = SymmetricMatrixCache.computeIfAbsent(key, k -> SymmetricMatrix.convertToSymmetricIfPossible(m));
+		}
+		return copy(matrix);
+	}
+
+	private static SymmetricMatrix copy(SymmetricMatrix matrix) {
+		return SymmetricMatrix.convertToSymmetricIfPossible(matrix.getDeepClone());
+	}
+
+	/**
+	 * This method returns the number of files in the cache.
+	 * @return an integer
+	 */
+	public static int getNumberOfCachedFiles() {
+		return Cache.size();
+	}
+
+	/**
+	 * This method empties the cache. The instances that were already returned are not affected.
+	 */
+	public static void clear() {
+		Cache.clear();
+		SymmetricMatrixCache.clear();
+	}
+}
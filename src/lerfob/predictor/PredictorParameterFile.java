@@ -0,0 +1,387 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import repicea.math.Matrix;
+
+/**
+ * The PredictorParameterFile class reads the parameter files of the predictors. Each CSV file
+ * can be precompiled into a binary file with the same name and the extension .bin. This binary
+ * file contains little-endian integers and doubles:
+ * <ul>
+ * <li> a header: the magic number, the version, the kind of file (vectors or matrix) and the number of key columns;
+ * <li> for vectors: the number of vectors and then, for each vector, its keys, its length and its values;
+ * <li> for a matrix: the numbers of rows and columns and then the values row by row.
+ * </ul>
+ * When the binary file exists, it is memory-mapped instead of parsing the CSV file. Otherwise, the CSV file is read.
+ * A binary file whose header does not match the expected layout raises an IOException instead of falling back on 
+ * the CSV file, so that an outdated or corrupted binary file cannot go unnoticed. 
+ * Only the files of an exploded class directory are memory-mapped. The binary files packed in a jar are read into
+ * a buffer. <br>
+ * <br>
+ * The main method is the build step that precompiles the CSV files. The Gradle task compileParameters runs it
+ * before the jar and the test tasks. The binary files do not exist when the classes are compiled by an IDE, in which
+ * case the predictors fall back on the CSV files.
+ * @author agent - October 2026
+ */
+public final class PredictorParameterFile {
+
+	static final int MagicNumber = 0x4650424C;		// "LBPF" in little-endian
+	static final int Version = 1;
+	static final int VectorKind = 0;
+	static final int MatrixKind = 1;
+
+	static final String BinaryExtension = ".bin";
+
+	private PredictorParameterFile() {}
+
+	/**
+	 * This method loads a parameter file made of column vectors.
+	 * @param nbKeys the number of key columns
+	 * @param path the path of the CSV file
+	 * @return a PredictorParameterMap instance
+	 * @throws IOException if the file cannot be read
+	 */
+	static PredictorParameterMap loadVectorFromFile(int nbKeys, String path) throws IOException {
+		ByteBuffer buffer = mapResource(getBinaryPath(path));
+		if (buffer != null) {
+			checkHeader(buffer, VectorKind, nbKeys, path);
+			return readVectors(buffer, nbKeys);
+		} else {
+			return readVectorsFromCSV(nbKeys, path);
+		}
+	}
+
+	/**
+	 * This method loads a parameter file that contains a matrix.
+	 * @param path the path of the CSV file
+	 * @return a Matrix instance
+	 * @throws IOException if the file cannot be read
+	 */
+	static Matrix loadMatrixFromFile(String path) throws IOException {
+		ByteBuffer buffer = mapResource(getBinaryPath(path));
+		if (buffer != null) {
+			checkHeader(buffer, MatrixKind, 0, path);
+			return readMatrix(buffer);
+		} else {
+			return readMatrixFromCSV(path);
+		}
+	}
+
+	static String getBinaryPath(String csvPath) {
+		int index = csvPath.lastIndexOf('.');
+		return (index == -1 ? csvPath : csvPath.substring(0, index)) + BinaryExtension;
+	}
+
+	private static void checkHeader(ByteBuffer buffer, int kind, int nbKeys, String path) throws IOException {
+		if (buffer.remaining() < 16
+				|| buffer.getInt() != MagicNumber
+				|| buffer.getInt() != Version
+				|| buffer.getInt() != kind
+				|| buffer.getInt() != nbKeys) {
+			throw new IOException("The binary file of " + path + " is not compatible with the expected layout! Run the compileParameters task again.");
+		}
+	}
+
+	private static PredictorParameterMap readVectors(ByteBuffer buffer, int nbKeys) {
+		LinkedHashMap<List<Integer>, Matrix> vectors = new LinkedHashMap<List<Integer>, Matrix>();
+		int nbVectors = buffer.getInt();
+		for (int v = 0; v < nbVectors; v++) {
+			List<Integer> keys = new ArrayList<Integer>(nbKeys);
+			for (int k = 0; k < nbKeys; k++) {
+				keys.add(buffer.getInt());
+			}
+			int length = buffer.getInt();
+			Matrix vector = new Matrix(length, 1);
+			for (int i = 0; i < length; i++) {
+				vector.setValueAt(i, 0, buffer.getDouble());
+			}
+			vectors.put(keys, vector);
+		}
+		return new PredictorParameterMap(nbKeys, vectors);
+	}
+
+	private static Matrix readMatrix(ByteBuffer buffer) {
+		int nbRows = buffer.getInt();
+		int nbCols = buffer.getInt();
+		Matrix m = new Matrix(nbRows, nbCols);
+		for (int i = 0; i < nbRows; i++) {
+			for (int j = 0; j < nbCols; j++) {
+				m.setValueAt(i, j, buffer.getDouble());
+			}
+		}
+		return m;
+	}
+
+	/*
+	 * The first line is the header and the other lines contain the keys followed by the value.
+	 */
+	static PredictorParameterMap readVectorsFromCSV(int nbKeys, String path) throws IOException {
+		Map<List<Integer>, List<Double>> values = new LinkedHashMap<List<Integer>, List<Double>>();
+		for (String[] record : readCSVRecords(path)) {
+			if (record.length != nbKeys + 1) {
+				throw new IOException("The number of fields in file " + path + " is inconsistent with the number of keys!");
+			}
+			List<Integer> keys = new ArrayList<Integer>(nbKeys);
+			for (int k = 0; k < nbKeys; k++) {
+				keys.add((int) Double.parseDouble(record[k]));
+			}
+			if (!values.containsKey(keys)) {
+				values.put(keys, new ArrayList<Double>());
+			}
+			values.get(keys).add(Double.parseDouble(record[nbKeys]));
+		}
+		LinkedHashMap<List<Integer>, Matrix> vectors = new LinkedHashMap<List<Integer>, Matrix>();
+		for (List<Integer> keys : values.keySet()) {
+			List<Double> vectorValues = values.get(keys);
+			Matrix vector = new Matrix(vectorValues.size(), 1);
+			for (int i = 0; i < vectorValues.size(); i++) {
+				vector.setValueAt(i, 0, vectorValues.get(i));
+			}
+			vectors.put(keys, vector);
+		}
+		return new PredictorParameterMap(nbKeys, vectors);
+	}
+
+	/*
+	 * The first line is the header and each following line is a row of the matrix.
+	 */
+	static Matrix readMatrixFromCSV(String path) throws IOException {
+		List<String[]> records = readCSVRecords(path);
+		int nbCols = records.isEmpty() ? 0 : records.get(0).length;
+		Matrix m = new Matrix(records.size(), nbCols);
+		for (int i = 0; i < records.size(); i++) {
+			String[] record = records.get(i);
+			if (record.length != nbCols) {
+				throw new IOException("The number of fields in file " + path + " is not constant!");
+			}
+			for (int j = 0; j < nbCols; j++) {
+				m.setValueAt(i, j, Double.parseDouble(record[j]));
+			}
+		}
+		return m;
+	}
+
+	private static List<String[]> readCSVRecords(String path) throws IOException {
+		URL url = getResource(path);
+		if (url == null) {
+			throw new IOException("Unable to find file " + path);
+		}
+		List<String[]> records = new ArrayList<String[]>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();		// the header is skipped
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					String[] fields = line.split(",");
+					for (int i = 0; i < fields.length; i++) {
+						fields[i] = fields[i].trim().replace("\"", "");
+					}
+					records.add(fields);
+				}
+			}
+		}
+		return records;
+	}
+
+	/*
+	 * The resource is first searched in the class path and then in the file system.
+	 */
+	private static URL getResource(String path) throws IOException {
+		String resourcePath = path.replace('\\', '/');
+		while (resourcePath.startsWith("/")) {
+			resourcePath = resourcePath.substring(1);
+		}
+		URL url = PredictorParameterFile.class.getClassLoader().getResource(resourcePath);
+		if (url == null) {
+			File file = new File(path);
+			if (file.isFile()) {
+				url = file.toURI().toURL();
+			}
+		}
+		return url;
+	}
+
+	/*
+	 * A file is memory-mapped. A resource in a jar is read into a buffer.
+	 */
+	private static ByteBuffer mapResource(String path) throws IOException {
+		URL url = getResource(path);
+		if (url == null) {
+			return null;
+		}
+		ByteBuffer buffer;
+		if ("file".equals(url.getProtocol())) {
+			try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+				buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+		} else {
+			try (InputStream is = url.openStream()) {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				byte[] bytes = new byte[8192];
+				int nbBytes;
+				while ((nbBytes = is.read(bytes)) != -1) {
+					bos.write(bytes, 0, nbBytes);
+				}
+				buffer = ByteBuffer.wrap(bos.toByteArray());
+			}
+		}
+		return buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * This method writes the binary version of a parameter map.
+	 * @param map a PredictorParameterMap instance
+	 * @param binaryFile the output file
+	 * @throws IOException if the file cannot be written
+	 */
+	static void writeVectors(PredictorParameterMap map, File binaryFile) throws IOException {
+		int size = 20;
+		for (List<Integer> keys : map.getKeys()) {
+			size += 4 * keys.size() + 4 + 8 * map.get(keys.toArray(new Integer[keys.size()])).m_iRows;
+		}
+		ByteBuffer buffer = createHeader(size, VectorKind, map.getNumberOfKeys());
+		buffer.putInt(map.getKeys().size());
+		for (List<Integer> keys : map.getKeys()) {
+			for (Integer key : keys) {
+				buffer.putInt(key);
+			}
+			Matrix vector = map.get(keys.toArray(new Integer[keys.size()]));
+			buffer.putInt(vector.m_iRows);
+			for (int i = 0; i < vector.m_iRows; i++) {
+				buffer.putDouble(vector.getValueAt(i, 0));
+			}
+		}
+		Files.write(binaryFile.toPath(), buffer.array());
+	}
+
+	/**
+	 * This method writes the binary version of a matrix.
+	 * @param m a Matrix instance
+	 * @param binaryFile the output file
+	 * @throws IOException if the file cannot be written
+	 */
+	static void writeMatrix(Matrix m, File binaryFile) throws IOException {
+		ByteBuffer buffer = createHeader(24 + 8 * m.m_iRows * m.m_iCols, MatrixKind, 0);
+		buffer.putInt(m.m_iRows);
+		buffer.putInt(m.m_iCols);
+		for (int i = 0; i < m.m_iRows; i++) {
+			for (int j = 0; j < m.m_iCols; j++) {
+				buffer.putDouble(m.getValueAt(i, j));
+			}
+		}
+		Files.write(binaryFile.toPath(), buffer.array());
+	}
+
+	private static ByteBuffer createHeader(int size, int kind, int nbKeys) {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MagicNumber);
+		buffer.putInt(Version);
+		buffer.putInt(kind);
+		buffer.putInt(nbKeys);
+		return buffer;
+	}
+
+	/**
+	 * This method precompiles a CSV parameter file. The layout is inferred from the number of fields: one
+	 * field stands for a vector without key, two fields for vectors with one key and more fields
+	 * for a matrix.
+	 * @param csvFile the CSV file
+	 * @param binaryFile the binary file to be written
+	 * @return false if the CSV file does not contain numerical parameters
+	 * @throws IOException if the binary file cannot be written
+	 */
+	static boolean compile(File csvFile, File binaryFile) throws IOException {
+		String path = csvFile.getAbsolutePath();
+		try {
+			List<String[]> records = readCSVRecords(path);
+			if (records.isEmpty()) {
+				return false;
+			}
+			int nbFields = records.get(0).length;
+			if (nbFields <= 2) {
+				writeVectors(readVectorsFromCSV(nbFields - 1, path), binaryFile);
+			} else {
+				writeMatrix(readMatrixFromCSV(path), binaryFile);
+			}
+			return true;
+		} catch (NumberFormatException e) {		// this is not a parameter file
+			return false;
+		}
+	}
+
+	/**
+	 * The build step. It precompiles all the parameter files (0_*.csv) found under the source
+	 * directory into the output directory, keeping the package structure.
+	 * @param args the source directory and the output directory
+	 * @throws IOException if a file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: PredictorParameterFile sourceDirectory outputDirectory");
+			return;
+		}
+		File sourceDirectory = new File(args[0]).getAbsoluteFile();
+		File outputDirectory = new File(args[1]).getAbsoluteFile();
+		int nbFiles = compileDirectory(sourceDirectory, sourceDirectory, outputDirectory);
+		System.out.println("PredictorParameterFile: " + nbFiles + " parameter files precompiled.");
+	}
+
+	private static int compileDirectory(File directory, File sourceDirectory, File outputDirectory) throws IOException {
+		int nbFiles = 0;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					nbFiles += compileDirectory(file, sourceDirectory, outputDirectory);
+				} else if (file.getName().startsWith("0_") && file.getName().endsWith(".csv")) {
+					String relativePath = sourceDirectory.toPath().relativize(file.toPath()).toString();
+					File binaryFile = new File(outputDirectory, getBinaryPath(relativePath));
+					binaryFile.getParentFile().mkdirs();
+					if (compile(file, binaryFile)) {
+						nbFiles++;
+					}
+				}
+			}
+		}
+		return nbFiles;
+	}
+}
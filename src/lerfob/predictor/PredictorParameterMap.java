@@ -0,0 +1,83 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import repicea.math.Matrix;
+
+/**
+ * The PredictorParameterMap class contains the column vectors of a parameter file. Each vector
+ * is identified by the values of the key columns. A file without key columns yields a single
+ * vector that is returned by the get() method.
+ * @author agent - October 2026
+ */
+public final class PredictorParameterMap {
+
+	private final int nbKeys;
+	private final Map<List<Integer>, Matrix> vectors;
+
+	PredictorParameterMap(int nbKeys, LinkedHashMap<List<Integer>, Matrix> vectors) {
+		this.nbKeys = nbKeys;
+		this.vectors = vectors;
+	}
+
+	/**
+	 * This method returns the column vector associated with the keys.
+	 * @param keys the values of the key columns (no argument if the file has no key column)
+	 * @return a copy of the vector or null if there is no vector for these keys
+	 */
+	public Matrix get(Integer... keys) {
+		Matrix vector = getShared(keys);
+		return vector == null ? null : vector.getDeepClone();
+	}
+
+	/**
+	 * This method checks if there is a vector associated with the keys.
+	 * @param keys the values of the key columns (no argument if the file has no key column)
+	 * @return a boolean
+	 */
+	public boolean contains(Integer... keys) {
+		return vectors.containsKey(Arrays.asList(keys));
+	}
+
+	Matrix getShared(Integer... keys) {
+		return vectors.get(Arrays.asList(keys));
+	}
+
+	/**
+	 * This method returns the number of key columns.
+	 * @return an integer
+	 */
+	public int getNumberOfKeys() {return nbKeys;}
+
+	/**
+	 * This method returns the keys in the order in which they appear in the file.
+	 * @return an unmodifiable Set of lists of integers
+	 */
+	public Set<List<Integer>> getKeys() {
+		return Collections.unmodifiableSet(vectors.keySet());
+	}
+
+}
@@ -20,12 +20,12 @@ package lerfob.predictor.dopalep;
 
 import java.io.IOException;
 
+import lerfob.predictor.PredictorParameterCache;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.GrowthModel;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
 import repicea.simulation.REpiceaPredictor;
 import repicea.stats.estimates.GaussianErrorTermEstimate;
 import repicea.stats.estimates.GaussianEstimate;
@@ -47,13 +47,12 @@ public class DopalepDbhIncrementPredictor extends REpiceaPredictor implements Gr
 		String covParmsFilename = ObjectUtility.getRelativePackagePath(getClass()) + "0_DopalepDbhIncCovParms.csv";
 		
 		try {
-			Matrix beta = ParameterLoader.loadVectorFromFile(betaFilename).get();
-			SymmetricMatrix omega = SymmetricMatrix.convertToSymmetricIfPossible(
-					ParameterLoader.loadMatrixFromFile(omegaFilename));
+			Matrix beta = PredictorParameterCache.loadVectorFromFile(betaFilename).get();
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromFile(omegaFilename);
 			setParameterEstimates(new ModelParameterEstimates(beta, omega));
 			oXVector = new Matrix(1, getParameterEstimates().getMean().m_iRows);
 			
-			Matrix covParms = ParameterLoader.loadVectorFromFile(covParmsFilename).get();
+			Matrix covParms = PredictorParameterCache.loadVectorFromFile(covParmsFilename).get();
 			SymmetricMatrix randomEffectVariance = SymmetricMatrix.convertToSymmetricIfPossible(
 					covParms.getSubMatrix(0, 0, 0, 0));
 			setDefaultRandomEffects(HierarchicalLevel.PLOT, new GaussianEstimate(new Matrix(1,1), randomEffectVariance));
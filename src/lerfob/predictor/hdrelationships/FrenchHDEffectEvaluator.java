@@ -0,0 +1,142 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.hdrelationships;
+
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.List;
+import java.util.Map;
+
+import repicea.math.Matrix;
+
+/**
+ * The FrenchHDEffectEvaluator class compiles the effect list of a species-specific height-diameter
+ * relationship. The effect indices are resolved once into an array of terms, so that the linear
+ * predictor is computed directly from the covariates of the tree and the plot.
+ * @author agent - October 2026
+ */
+@SuppressWarnings("serial")
+public final class FrenchHDEffectEvaluator implements Serializable {
+
+	/**
+	 * The covariates the terms of the French HD relationships are computed from.
+	 */
+	public static final class Covariates {
+		public double basalAreaMinusSubj;
+		public double lnDbh;
+		public double lnDbh2;
+		public double harvested;
+		public double slope;
+		public double socialIndex;
+		public double meanPrec;
+		public double meanTemp;
+	}
+
+	/**
+	 * A term of the linear predictor.
+	 */
+	public static interface Term extends Serializable {
+
+		/**
+		 * This method returns the value of the term.
+		 * @param c the covariates
+		 * @return a double
+		 */
+		public double getValue(Covariates c);
+	}
+
+	private final Term[] terms;
+
+	/**
+	 * Constructor.
+	 * @param effectList the list of effect indices
+	 * @param availableTerms a map of the terms that can be found in the effect list
+	 */
+	public FrenchHDEffectEvaluator(List<Integer> effectList, Map<Integer, Term> availableTerms) {
+		terms = new Term[effectList.size()];
+		for (int i = 0; i < terms.length; i++) {
+			Integer effect = effectList.get(i);
+			if (!availableTerms.containsKey(effect)) {
+				throw new InvalidParameterException("This effect index " + effect + " is not recognized!");
+			}
+			terms[i] = availableTerms.get(effect);
+		}
+	}
+
+	/**
+	 * This method returns the linear predictor, that is the product of the design vector and the parameters.
+	 * @param beta the column vector of parameters
+	 * @param c the covariates
+	 * @return a double
+	 */
+	public double getLinearPredictor(Matrix beta, Covariates c) {
+		double result = 0d;
+		for (int i = 0; i < terms.length; i++) {
+			result += terms[i].getValue(c) * beta.getValueAt(i, 0);
+		}
+		return result;
+	}
+
+	/**
+	 * This method returns the design vector.
+	 * @param c the covariates
+	 * @return an array of double
+	 */
+	public double[] getDesignVector(Covariates c) {
+		double[] x = new double[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			x[i] = terms[i].getValue(c);
+		}
+		return x;
+	}
+
+	/**
+	 * This method returns the variance of the linear predictor, that is x * omega * x' where x is the
+	 * design vector. Only the upper triangle of omega is read and the null terms of the design vector 
+	 * are skipped.
+	 * @param omega the variance-covariance of the parameters as a symmetric array
+	 * @param c the covariates
+	 * @return a double
+	 */
+	public double getVarianceOfLinearPredictor(double[][] omega, Covariates c) {
+		double[] x = getDesignVector(c);
+		double variance = 0d;
+		for (int i = 0; i < x.length; i++) {
+			double xi = x[i];
+			if (xi != 0d) {
+				double[] omega_i = omega[i];
+				double crossProducts = 0d;
+				for (int j = i + 1; j < x.length; j++) {
+					if (x[j] != 0d) {
+						crossProducts += omega_i[j] * x[j];
+					}
+				}
+				variance += xi * (xi * omega_i[i] + 2d * crossProducts);
+			}
+		}
+		return variance;
+	}
+
+	/**
+	 * This method returns the number of terms in the linear predictor.
+	 * @return an integer
+	 */
+	public int getNumberOfTerms() {return terms.length;}
+
+}
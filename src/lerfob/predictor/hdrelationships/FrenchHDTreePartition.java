@@ -0,0 +1,207 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.hdrelationships;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleBiFunction;
+
+import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
+
+/**
+ * The FrenchHDTreePartition class partitions the trees of a plot by species in a single pass.
+ * The position of each tree in the original collection is recorded so that the predictions can
+ * be returned in the same order. While a task runs through the runAsCurrentPartition method, the 
+ * species-specific predictors of the thread retrieve the trees of the plot from the partition 
+ * instead of scanning the plot again.
+ * @author agent - October 2026
+ */
+public final class FrenchHDTreePartition<T extends FrenchHDRelationshipTree> {
+
+	/*
+	 * The partition of the plot whose heights or blups are being computed by the current thread.
+	 */
+	private static final ThreadLocal<FrenchHDTreePartition<?>> CurrentPartition = new ThreadLocal<FrenchHDTreePartition<?>>();
+
+	private static class SpeciesGroup<T> {
+		private final List<T> trees = new ArrayList<T>();
+		private int[] indices = new int[8];
+
+		private void add(T tree, int index) {
+			if (trees.size() == indices.length) {
+				int[] newIndices = new int[indices.length * 2];
+				System.arraycopy(indices, 0, newIndices, 0, indices.length);
+				indices = newIndices;
+			}
+			indices[trees.size()] = index;
+			trees.add(tree);
+		}
+	}
+
+	private final Object stand;
+	private final Class<T> treeClass;
+	private final Map<FrenchHdSpecies, SpeciesGroup<T>> groups;
+	private final int nbObjects;
+
+	/**
+	 * Constructor.
+	 * @param stand the plot the objects belong to
+	 * @param objects the collection of objects returned by the plot (can be null)
+	 * @param treeClass the class of the trees to be retained. The other objects are ignored.
+	 */
+	public FrenchHDTreePartition(Object stand, Collection<?> objects, Class<T> treeClass) {
+		this.stand = stand;
+		this.treeClass = treeClass;
+		groups = new EnumMap<FrenchHdSpecies, SpeciesGroup<T>>(FrenchHdSpecies.class);
+		int index = 0;
+		if (objects != null) {
+			for (Object obj : objects) {
+				if (treeClass.isInstance(obj)) {
+					T tree = treeClass.cast(obj);
+					FrenchHdSpecies species = tree.getFrenchHDTreeSpecies();
+					SpeciesGroup<T> group = groups.get(species);
+					if (group == null) {
+						group = new SpeciesGroup<T>();
+						groups.put(species, group);
+					}
+					group.add(tree, index);
+				}
+				index++;
+			}
+		}
+		nbObjects = index;
+	}
+
+	/**
+	 * This method checks if the partition was built from the trees of this plot.
+	 * @param stand a plot
+	 * @return a boolean
+	 */
+	public boolean isPartitionOf(Object stand) {
+		return this.stand == stand;
+	}
+
+	/**
+	 * This method returns the species found in the plot.
+	 * @return a Set of FrenchHdSpecies enums
+	 */
+	public Set<FrenchHdSpecies> getSpecies() {
+		return groups.keySet();
+	}
+
+	/**
+	 * This method returns the trees of a particular species.
+	 * @param species a FrenchHdSpecies enum
+	 * @return an unmodifiable List of trees, which is empty if there is no tree of this species
+	 */
+	public List<T> getTrees(FrenchHdSpecies species) {
+		SpeciesGroup<T> group = groups.get(species);
+		if (group == null) {
+			return Collections.emptyList();
+		} else {
+			return Collections.unmodifiableList(group.trees);
+		}
+	}
+
+	/**
+	 * This method returns the positions of the trees of a particular species in the original collection. The
+	 * i-th position corresponds to the i-th tree in the list returned by the getTrees method.
+	 * @param species a FrenchHdSpecies enum
+	 * @return an array of integers
+	 */
+	public int[] getIndices(FrenchHdSpecies species) {
+		SpeciesGroup<T> group = groups.get(species);
+		if (group == null) {
+			return new int[0];
+		} else {
+			int[] indices = new int[group.trees.size()];
+			System.arraycopy(group.indices, 0, indices, 0, indices.length);
+			return indices;
+		}
+	}
+
+	/**
+	 * This method returns the number of objects in the original collection, including those that are not trees.
+	 * @return an integer
+	 */
+	public int getNumberOfObjects() {return nbObjects;}
+
+	/**
+	 * This method runs a task with this partition as the current partition of the thread. The former
+	 * partition is restored once the task is completed.
+	 * @param task a Runnable instance
+	 */
+	public void runAsCurrentPartition(Runnable task) {
+		FrenchHDTreePartition<?> formerPartition = CurrentPartition.get();
+		CurrentPartition.set(this);
+		try {
+			task.run();
+		} finally {
+			CurrentPartition.set(formerPartition);
+		}
+	}
+
+	/**
+	 * This method imputes the heights of all the trees of the plot. The heights are predicted species by 
+	 * species with this partition as the current partition of the thread. 
+	 * @param heightPredictor a function that predicts the height (m) of a tree of a particular species
+	 * @return an array of double aligned with the original collection. The observed heights are kept for 
+	 * the trees whose height is known and the elements that are not trees are set to NaN.
+	 */
+	public double[] imputeHeightsM(ToDoubleBiFunction<FrenchHdSpecies, T> heightPredictor) {
+		double[] heights = new double[nbObjects];
+		Arrays.fill(heights, Double.NaN);
+		runAsCurrentPartition(() -> {
+			for (Map.Entry<FrenchHdSpecies, SpeciesGroup<T>> entry : groups.entrySet()) {
+				SpeciesGroup<T> group = entry.getValue();
+				for (int i = 0; i < group.trees.size(); i++) {
+					T tree = group.trees.get(i);
+					double observedHeight = tree.getHeightM();
+					heights[group.indices[i]] = observedHeight > 1.3 ? observedHeight : heightPredictor.applyAsDouble(entry.getKey(), tree);
+				}
+			}
+		});
+		return heights;
+	}
+
+	/**
+	 * This method returns the trees of a particular species if the trees of this plot are those of the 
+	 * current partition of the thread.
+	 * @param stand a plot
+	 * @param species a FrenchHdSpecies enum
+	 * @param treeClass the class of the trees
+	 * @return a List of trees or null if the plot is not the one of the current partition
+	 */
+	public static <T extends FrenchHDRelationshipTree> List<T> getCurrentlyPartitionedTrees(Object stand, FrenchHdSpecies species, Class<T> treeClass) {
+		FrenchHDTreePartition<?> partition = CurrentPartition.get();
+		if (partition != null && partition.isPartitionOf(stand) && partition.treeClass == treeClass) {
+			@SuppressWarnings("unchecked")
+			FrenchHDTreePartition<T> currentPartition = (FrenchHDTreePartition<T>) partition;
+			return currentPartition.getTrees(species);
+		} else {
+			return null;
+		}
+	}
+}
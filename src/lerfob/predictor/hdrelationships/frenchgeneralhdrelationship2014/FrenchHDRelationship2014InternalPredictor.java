@@ -26,12 +26,15 @@ import java.util.List;
 import java.util.Map;
 
 import lerfob.predictor.FertilityClassEmulator;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator.Covariates;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator.Term;
 import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
+import lerfob.predictor.hdrelationships.FrenchHDTreePartition;
 import lerfob.predictor.hdrelationships.FrenchHeightPredictor;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
-import repicea.simulation.ModelParameterEstimates;
 import repicea.simulation.covariateproviders.treelevel.SpeciesTypeProvider.SpeciesType;
 import repicea.simulation.hdrelationships.HDRelationshipPredictor;
 import repicea.stats.StatisticalUtility.TypeMatrixR;
@@ -51,9 +54,22 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 		PhiParameters.put(SpeciesType.BroadleavedSpecies, 0.04468342698978); // taken from Quebec HD relationships
 	}
 
+	private static final Map<Integer, Term> AvailableTerms = new HashMap<Integer, Term>();
+	static {
+		AvailableTerms.put(1, c -> c.basalAreaMinusSubj * c.lnDbh2);
+		AvailableTerms.put(2, c -> c.lnDbh);
+		AvailableTerms.put(3, c -> c.basalAreaMinusSubj * c.lnDbh);
+		AvailableTerms.put(4, c -> c.harvested * c.lnDbh);
+		AvailableTerms.put(5, c -> c.lnDbh * c.slope);
+		AvailableTerms.put(6, c -> c.socialIndex * c.lnDbh);
+		AvailableTerms.put(7, c -> c.socialIndex * c.socialIndex * c.lnDbh);
+		AvailableTerms.put(8, c -> c.lnDbh2);
+	}
+	
 	private static Map<FertilityClass, TruncatedGaussianEstimate> fertilityClassMap;
 
 	private List<Integer> effectList;
+	private FrenchHDEffectEvaluator effectEvaluator;
 	private final FrenchHdSpecies species;
 	private FertilityClass currentFertilityClass;
 	
@@ -110,12 +126,6 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 	}
 	
 	
-	@Override
-	protected void setParameterEstimates(ModelParameterEstimates defaultBeta) {
-		super.setParameterEstimates(defaultBeta);
-		oXVector = new Matrix(1, getParameterEstimates().getMean().m_iRows);
-	}
-	
 
 	/**
 	 * This method sets the fertility class. However, it must be set before estimating the random effects. 
@@ -143,6 +153,15 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 		}
 	}
 	
+	/*
+	 * Estimates the blups of the plot if this has not been done yet. 
+	 */
+	synchronized void registerBlups(FrenchHDRelationship2014Stand stand) {
+		if (!doBlupsExistForThisSubject(stand)) {
+			predictHeightRandomEffects(stand);
+		}
+	}
+	
 	protected void setResidualVariance(SymmetricMatrix sigma2) {
 		double correlationParameters = PhiParameters.get(species.getSpeciesType());
 		GaussianErrorTermEstimate estimate = new GaussianErrorTermEstimate(sigma2, correlationParameters, TypeMatrixR.LINEAR);
@@ -154,6 +173,7 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 		for (int i = 0; i < mat.m_iRows; i++) {
 			effectList.add((int) mat.getValueAt(i, 0)); 
 		}
+		effectEvaluator = new FrenchHDEffectEvaluator(effectList, AvailableTerms);
 	}
 	
 	/**
@@ -166,71 +186,11 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 	 */
 	@Override
 	protected synchronized RegressionElements fixedEffectsPrediction(FrenchHDRelationship2014Stand stand, FrenchHDRelationship2014Tree tree, Matrix beta) {
-//		Matrix modelParameters = getParametersForThisRealization(stand);
-		Matrix modelParameters = beta;
-		
-		double basalAreaMinusSubj = stand.getBasalAreaM2HaMinusThisSubject(tree);
-		if (basalAreaMinusSubj < 0d) {
-			System.out.println("Error in HD relationship: The basal area of the plot has not been calculated yet!");
-			throw new InvalidParameterException("The basal area of the plot has not been calculated yet!");
-		}
-		double slope = stand.getSlopeInclinationPercent();
-		
-		oXVector.resetMatrix();
-		int pointer = 0;
-		
-		double lnDbh = tree.getLnDbhCmPlus1();
-		double socialIndex = tree.getDbhCm() - stand.getMeanQuadraticDiameterCm();
-		double lnDbh2 = tree.getSquaredLnDbhCmPlus1();
-
-		double harvested = 0d;
-		if (stand.isInterventionResult()) {
-			harvested = 1d;
-		}
-		
-		for (Integer integer : effectList) {
-			switch(integer) {
-			case 1:
-				oXVector.setValueAt(0, pointer, basalAreaMinusSubj * lnDbh2);
-				pointer++;
-				break;
-			case 2:
-				oXVector.setValueAt(0, pointer, lnDbh);
-				pointer++;
-				break;
-			case 3:
-				oXVector.setValueAt(0, pointer, basalAreaMinusSubj * lnDbh);
-				pointer++;
-				break;
-			case 4:
-				oXVector.setValueAt(0, pointer, harvested * lnDbh);
-				pointer++;
-				break;
-			case 5:
-				oXVector.setValueAt(0, pointer, lnDbh * slope);
-				pointer++;
-				break;
-			case 6:
-				oXVector.setValueAt(0, pointer, socialIndex * lnDbh);
-				pointer++;
-				break;
-			case 7:
-				oXVector.setValueAt(0, pointer, socialIndex * socialIndex * lnDbh);
-				pointer++;
-				break;
-			case 8:
-				oXVector.setValueAt(0, pointer, lnDbh2);
-				pointer++;
-				break;
-			default:
-				throw new InvalidParameterException("This effect index " + integer + " is not recognized!");
-			}
-		}
-
-		double fResult = 1.3 + oXVector.multiply(modelParameters).getValueAt(0, 0);
+		Covariates covariates = getCovariates(stand, tree);
+		double fResult = 1.3 + effectEvaluator.getLinearPredictor(beta, covariates);
 		
 		Matrix Z_i = new Matrix(1,1);
-		Z_i.setValueAt(0, 0, lnDbh);	// design vector for the plot random effect
+		Z_i.setValueAt(0, 0, covariates.lnDbh);	// design vector for the plot random effect
 
 		RegressionElements regElements = new RegressionElements();
 		
@@ -240,6 +200,23 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 		return regElements;
 	}
 
+	private Covariates getCovariates(FrenchHDRelationship2014Stand stand, FrenchHDRelationship2014Tree tree) {
+		Covariates covariates = new Covariates();
+		double basalAreaMinusSubj = stand.getBasalAreaM2HaMinusThisSubject(tree);
+		if (basalAreaMinusSubj < 0d) {
+			System.out.println("Error in HD relationship: The basal area of the plot has not been calculated yet!");
+			throw new InvalidParameterException("The basal area of the plot has not been calculated yet!");
+		}
+		covariates.basalAreaMinusSubj = basalAreaMinusSubj;
+		covariates.slope = stand.getSlopeInclinationPercent();
+		covariates.lnDbh = tree.getLnDbhCmPlus1();
+		covariates.socialIndex = tree.getDbhCm() - stand.getMeanQuadraticDiameterCm();
+		covariates.lnDbh2 = tree.getSquaredLnDbhCmPlus1();
+		if (stand.isInterventionResult()) {
+			covariates.harvested = 1d;
+		}
+		return covariates;
+	}
 
 	@Override
 	public Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> getBlupsForThisSubject(FrenchHDRelationship2014Stand stand) {
@@ -249,6 +226,10 @@ public class FrenchHDRelationship2014InternalPredictor extends HDRelationshipPre
 
 	@Override
 	protected Collection<FrenchHDRelationship2014Tree> getTreesFromStand(FrenchHDRelationship2014Stand stand) {
+		List<FrenchHDRelationship2014Tree> partitionedTrees = FrenchHDTreePartition.getCurrentlyPartitionedTrees(stand, species, FrenchHDRelationship2014Tree.class);
+		if (partitionedTrees != null) {		// the plot has already been partitioned by species
+			return partitionedTrees;
+		}
 		Collection<FrenchHDRelationship2014Tree> treesToBeReturned = new ArrayList<FrenchHDRelationship2014Tree>();
 		Collection<?> trees = stand.getTreesForFrenchHDRelationship();
 		if (trees != null && !trees.isEmpty()) {
@@ -18,17 +18,23 @@
  */
 package lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2014;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import lerfob.predictor.FertilityClassEmulator;
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
+import lerfob.predictor.hdrelationships.FrenchHDTreePartition;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.simulation.REpiceaPredictorListener;
 import repicea.simulation.SASParameterEstimates;
@@ -89,10 +95,9 @@ public final class FrenchHDRelationship2014Predictor extends REpiceaPredictor im
 			String covparmsFilename = path + "0_covparms.csv";
 			String effectListFilename = path + "0_effectlist.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1, betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);
-			ParameterMap covparmMap = ParameterLoader.loadVectorFromFile(1, covparmsFilename);
-			ParameterMap effectList = ParameterLoader.loadVectorFromFile(1, effectListFilename);
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+			PredictorParameterMap covparmMap = PredictorParameterCache.loadVectorFromFile(1, covparmsFilename);
+			PredictorParameterMap effectList = PredictorParameterCache.loadVectorFromFile(1, effectListFilename);
 
 			for (FrenchHdSpecies species : FrenchHdSpecies.getSpeciesIn2014()) {
 				FrenchHDRelationship2014InternalPredictor internalPredictor = new FrenchHDRelationship2014InternalPredictor(isParametersVariabilityEnabled,
@@ -103,7 +108,7 @@ public final class FrenchHDRelationship2014Predictor extends REpiceaPredictor im
 				int index = species.getIndexIn2014();
 				
 				Matrix mean = betaMap.get(index);
-				SymmetricMatrix variance = omegaMap.get(index).squareSym();
+				SymmetricMatrix variance = PredictorParameterCache.loadSymmetricMatrixFromVector(1, omegaFilename, index);
 				ModelParameterEstimates defaultBeta = new SASParameterEstimates(mean, variance);
 				internalPredictor.setParameterEstimates(defaultBeta);
 				
@@ -133,6 +138,59 @@ public final class FrenchHDRelationship2014Predictor extends REpiceaPredictor im
 
 
 	
+	/**
+	 * This method imputes the heights of all the trees of a plot. The trees are partitioned by species once. 
+	 * For each species, the blups are estimated from the trees whose height is known and the heights of the 
+	 * other trees are then predicted.
+	 * @param stand a FrenchHDRelationship2014Stand instance
+	 * @return an array of double aligned with the collection returned by the getTreesForFrenchHDRelationship
+	 * method of the plot. The observed heights are kept for the trees whose height is known and the
+	 * elements that are not FrenchHDRelationship2014Tree instances are set to NaN.
+	 */
+	public double[] imputeHeightsM(FrenchHDRelationship2014Stand stand) {
+		FrenchHDTreePartition<FrenchHDRelationship2014Tree> partition = new FrenchHDTreePartition<FrenchHDRelationship2014Tree>(stand, 
+				stand.getTreesForFrenchHDRelationship(), 
+				FrenchHDRelationship2014Tree.class);
+		return partition.imputeHeightsM((species, tree) -> predictorMap.get(species).predictHeightM(stand, tree));
+	}
+
+	/**
+	 * This method estimates the blups of a collection of plots before any prediction is made. The
+	 * trees of the plots are partitioned by species in parallel. The random effects are then registered 
+	 * in parallel across species, each species-specific predictor processing its plots in sequence since 
+	 * the maps of random effects are not synchronized. <br>
+	 * <br>
+	 * For each plot and species, the blups are estimated from the trees whose height is known. No height 
+	 * is predicted, so that no deviate is drawn. In stochastic mode, the deviates of the random effects are 
+	 * drawn from the blups when the first height of a realization is predicted. Once this method returns, 
+	 * the subsequent height predictions no longer need to estimate the blups. 
+	 * @param stands a Collection of FrenchHDRelationship2014Stand instances
+	 */
+	public void estimateBlups(Collection<? extends FrenchHDRelationship2014Stand> stands) {
+		List<FrenchHDRelationship2014Stand> standList = new ArrayList<FrenchHDRelationship2014Stand>(stands);
+		List<FrenchHDTreePartition<FrenchHDRelationship2014Tree>> partitions = standList.parallelStream()
+				.map(s -> new FrenchHDTreePartition<FrenchHDRelationship2014Tree>(s, s.getTreesForFrenchHDRelationship(), FrenchHDRelationship2014Tree.class))
+				.collect(Collectors.toList());
+		
+		Map<FrenchHdSpecies, List<Integer>> standIndicesBySpecies = new EnumMap<FrenchHdSpecies, List<Integer>>(FrenchHdSpecies.class);
+		for (int i = 0; i < partitions.size(); i++) {
+			for (FrenchHdSpecies species : partitions.get(i).getSpecies()) {
+				if (!standIndicesBySpecies.containsKey(species)) {
+					standIndicesBySpecies.put(species, new ArrayList<Integer>());
+				}
+				standIndicesBySpecies.get(species).add(i);
+			}
+		}
+		
+		standIndicesBySpecies.entrySet().parallelStream().forEach(entry -> {
+			FrenchHDRelationship2014InternalPredictor internalPred = predictorMap.get(entry.getKey());
+			for (int i : entry.getValue()) {
+				FrenchHDRelationship2014Stand stand = standList.get(i);
+				partitions.get(i).runAsCurrentPartition(() -> internalPred.registerBlups(stand));
+			}
+		});
+	}
+	
 	/**
 	 * For testing purpose only
 	 * @param stand the Stand instance
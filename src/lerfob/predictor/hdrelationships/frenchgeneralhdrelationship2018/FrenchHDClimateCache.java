@@ -0,0 +1,90 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The FrenchHDClimateCache class is a size-bounded cache of climate variables. When the
+ * capacity is reached, the least recently used entry is evicted. The numbers of hits and
+ * misses are recorded.
+ * @author agent - October 2026
+ */
+@SuppressWarnings("serial")
+final class FrenchHDClimateCache<K, V> implements Serializable {
+
+	private static class LeastRecentlyUsedMap<K, V> extends LinkedHashMap<K, V> {
+
+		private final int capacity;
+
+		LeastRecentlyUsedMap(int capacity) {
+			super(16, .75f, true);		// access order
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	private final LeastRecentlyUsedMap<K, V> map;
+	private long nbHits;
+	private long nbMisses;
+
+	/**
+	 * Constructor.
+	 * @param capacity the maximum number of entries
+	 */
+	FrenchHDClimateCache(int capacity) {
+		map = new LeastRecentlyUsedMap<K, V>(capacity);
+	}
+
+	/**
+	 * This method returns the value associated with the key.
+	 * @param key the key
+	 * @return the value or null if the key is not in the cache
+	 */
+	synchronized V get(K key) {
+		V value = map.get(key);
+		if (value == null) {
+			nbMisses++;
+		} else {
+			nbHits++;
+		}
+		return value;
+	}
+
+	synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+
+	synchronized void clear() {
+		map.clear();
+	}
+
+	synchronized int size() {return map.size();}
+
+	synchronized long getNumberOfHits() {return nbHits;}
+
+	synchronized long getNumberOfMisses() {return nbMisses;}
+
+}
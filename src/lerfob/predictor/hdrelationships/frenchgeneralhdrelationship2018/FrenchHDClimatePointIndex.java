@@ -0,0 +1,128 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018.FrenchHDRelationship2018ClimateGenerator.FrenchHDClimateVariableMap;
+
+/**
+ * The FrenchHDClimatePointIndex class is a static two-dimensional tree of the climate points. The
+ * points are stored in arrays so that the nearest point is found in O(log n) on average. The instance
+ * is immutable and can be queried from several threads.
+ * @author agent - October 2026
+ */
+final class FrenchHDClimatePointIndex {
+
+	private static final Comparator<FrenchHDClimateVariableMap> XComparator = (p1, p2) -> Double.compare(p1.xCoord, p2.xCoord);
+	private static final Comparator<FrenchHDClimateVariableMap> YComparator = (p1, p2) -> Double.compare(p1.yCoord, p2.yCoord);
+
+	private final FrenchHDClimateVariableMap[] points;
+	private final double[] xCoords;
+	private final double[] yCoords;
+
+	/**
+	 * Constructor.
+	 * @param climatePoints the climate points to be indexed
+	 */
+	FrenchHDClimatePointIndex(List<FrenchHDClimateVariableMap> climatePoints) {
+		List<FrenchHDClimateVariableMap> sortedPoints = new ArrayList<FrenchHDClimateVariableMap>(climatePoints);
+		build(sortedPoints, 0, sortedPoints.size(), 0);
+		int nbPoints = sortedPoints.size();
+		points = sortedPoints.toArray(new FrenchHDClimateVariableMap[nbPoints]);
+		xCoords = new double[nbPoints];
+		yCoords = new double[nbPoints];
+		for (int i = 0; i < nbPoints; i++) {
+			xCoords[i] = points[i].xCoord;
+			yCoords[i] = points[i].yCoord;
+		}
+	}
+
+	/*
+	 * The median of the range is the node. The lower half is the left branch and the upper half is the right branch.
+	 */
+	private static void build(List<FrenchHDClimateVariableMap> points, int lo, int hi, int depth) {
+		if (hi - lo <= 1) {
+			return;
+		}
+		Collections.sort(points.subList(lo, hi), depth % 2 == 0 ? XComparator : YComparator);
+		int mid = (lo + hi) >>> 1;
+		build(points, lo, mid, depth + 1);
+		build(points, mid + 1, hi, depth + 1);
+	}
+
+	/**
+	 * This method returns the nearest climate point.
+	 * @param x the longitude
+	 * @param y the latitude
+	 * @param maximumDistance the maximum distance between the coordinates and the climate point
+	 * @return a FrenchHDClimateVariableMap instance or null if there is no point within the maximum distance
+	 */
+	FrenchHDClimateVariableMap getNearestClimatePoint(double x, double y, double maximumDistance) {
+		double[] bestSquaredDistance = new double[] {maximumDistance * maximumDistance};
+		int nearestIndex = search(x, y, 0, points.length, 0, -1, bestSquaredDistance);
+		return nearestIndex == -1 ? null : points[nearestIndex];
+	}
+
+	private int search(double x, double y, int lo, int hi, int depth, int bestIndex, double[] bestSquaredDistance) {
+		if (lo >= hi) {
+			return bestIndex;
+		}
+		int mid = (lo + hi) >>> 1;
+		double xDiff = x - xCoords[mid];
+		double yDiff = y - yCoords[mid];
+		double squaredDistance = xDiff * xDiff + yDiff * yDiff;
+		if (squaredDistance < bestSquaredDistance[0] || (bestIndex == -1 && squaredDistance == bestSquaredDistance[0])) {
+			bestSquaredDistance[0] = squaredDistance;
+			bestIndex = mid;
+		}
+		double diff = depth % 2 == 0 ? xDiff : yDiff;
+		int nearLo, nearHi, farLo, farHi;
+		if (diff < 0) {
+			nearLo = lo;
+			nearHi = mid;
+			farLo = mid + 1;
+			farHi = hi;
+		} else {
+			nearLo = mid + 1;
+			nearHi = hi;
+			farLo = lo;
+			farHi = mid;
+		}
+		bestIndex = search(x, y, nearLo, nearHi, depth + 1, bestIndex, bestSquaredDistance);
+		if (diff * diff <= bestSquaredDistance[0]) {		// the other branch may contain a nearer point
+			bestIndex = search(x, y, farLo, farHi, depth + 1, bestIndex, bestSquaredDistance);
+		}
+		return bestIndex;
+	}
+
+	/**
+	 * This method returns the indexed climate points.
+	 * @return a List of FrenchHDClimateVariableMap instances
+	 */
+	List<FrenchHDClimateVariableMap> getClimatePoints() {
+		List<FrenchHDClimateVariableMap> climatePoints = new ArrayList<FrenchHDClimateVariableMap>();
+		Collections.addAll(climatePoints, points);
+		return climatePoints;
+	}
+
+}
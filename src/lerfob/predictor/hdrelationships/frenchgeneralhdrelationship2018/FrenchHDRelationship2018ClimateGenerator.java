@@ -20,10 +20,10 @@ package lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.IntStream;
 
 import repicea.io.javacsv.CSVReader;
 import repicea.simulation.climate.REpiceaClimateChangeTrend;
@@ -87,83 +87,70 @@ public class FrenchHDRelationship2018ClimateGenerator implements REpiceaClimateG
 		}
 	}
 	
-	private final Map<Integer, Map<Integer, List<FrenchHDClimateVariableMap>>> zoneMap;
+	/**
+	 * The maximum distance (degrees) between the plot and the nearest climate point. Beyond this distance, the 
+	 * plot is considered to be located outside France. This distance is the diagonal of the one-degree cells 
+	 * that were formerly used to search for the nearest point.
+	 */
+	static final double MaximumDistanceDeg = Math.sqrt(2d);
 	
-	FrenchHDRelationship2018ClimateGenerator() {
-		zoneMap = new HashMap<Integer, Map<Integer, List<FrenchHDClimateVariableMap>>>();
+	/*
+	 * The index is built on the first request and shared by all the instances.
+	 */
+	private static class ClimatePointIndexHolder {
+		private static final FrenchHDClimatePointIndex Index = new FrenchHDClimatePointIndex(readClimatePoints());
+	}
+	
+	FrenchHDRelationship2018ClimateGenerator() {}
+
+	private static List<FrenchHDClimateVariableMap> readClimatePoints() {
+		List<FrenchHDClimateVariableMap> climatePoints = new ArrayList<FrenchHDClimateVariableMap>();
 		try {
-			init();
+			CSVReader reader = new CSVReader(ObjectUtility.getRelativePackagePath(FrenchHDRelationship2018ClimateGenerator.class) + "dataForClimateGeneratorHDRelationships.csv");
+			Object[] record;
+
+			while ((record = reader.nextRecord()) != null) {
+				double xCoord = Double.parseDouble(record[1].toString());
+				double yCoord = Double.parseDouble(record[2].toString());
+				String ser = record[3].toString().trim();
+				double meanSeasonalTemp = Double.parseDouble(record[4].toString());
+				double meanSeasonalPrec = Double.parseDouble(record[5].toString());
+				FrenchHDClimateVariableMap point = new FrenchHDClimateVariableMap(xCoord, yCoord, meanSeasonalTemp, meanSeasonalPrec, ser);
+				climatePoints.add(point);
+			}
+			reader.close();
 		} catch (IOException e) {
 			System.out.println("Unable to load the climate variable in the French HD relationships (version 2018)");			
 			e.printStackTrace();
 		}
+		return climatePoints;
 	}
 
-	private void init() throws IOException {
-		CSVReader reader = new CSVReader(ObjectUtility.getRelativePackagePath(getClass()) + "dataForClimateGeneratorHDRelationships.csv");
-		Object[] record;
-
-		while ((record = reader.nextRecord()) != null) {
-			double xCoord = Double.parseDouble(record[1].toString());
-			double yCoord = Double.parseDouble(record[2].toString());
-			String ser = record[3].toString().trim();
-			double meanSeasonalTemp = Double.parseDouble(record[4].toString());
-			double meanSeasonalPrec = Double.parseDouble(record[5].toString());
-			FrenchHDClimateVariableMap point = new FrenchHDClimateVariableMap(xCoord, yCoord, meanSeasonalTemp, meanSeasonalPrec, ser);
-			registerClimatePoint(point);
-		}
-		reader.close();
-	}
-
-	private void registerClimatePoint(FrenchHDClimateVariableMap point) {
-		int xKey = Math.round((float) point.xCoord);
-		int yKey = Math.round((float) point.yCoord); 
-		
-		if (!zoneMap.containsKey(xKey)) {
-			zoneMap.put(xKey, new HashMap<Integer, List<FrenchHDClimateVariableMap>>());
-		}
-		
-		Map<Integer, List<FrenchHDClimateVariableMap>> innerMap = zoneMap.get(xKey);
-		if (!innerMap.containsKey(yKey)) {
-			innerMap.put(yKey, new ArrayList<FrenchHDClimateVariableMap>());
-		}
-		
-		innerMap.get(yKey).add(point);
-	}
-	
 	private FrenchHDClimateVariableMap getNearestClimatePoint(double x, double y) {
-		FrenchHDClimateVariableMap nearestPoint = null;
-		int xKey = Math.round((float) x);
-		int yKey = Math.round((float) y); 
-		
-		if (zoneMap.containsKey(xKey)) {
-			Map<Integer, List<FrenchHDClimateVariableMap>> innerMap = zoneMap.get(xKey);
-			if (innerMap.containsKey(yKey)) {
-				List<FrenchHDClimateVariableMap> possibleClimatePoints = innerMap.get(yKey);
-				double minDistance = Double.MAX_VALUE;
-				double distanceToThisPoint;
-				for (FrenchHDClimateVariableMap cp : possibleClimatePoints) {
-					distanceToThisPoint = cp.getDistanceFromTheseCoordinates(x, y);
-					if (distanceToThisPoint < minDistance) {
-						nearestPoint = cp;
-						minDistance = distanceToThisPoint;
-					}
-				}
-			}
-		}
-		return nearestPoint;
+		return ClimatePointIndexHolder.Index.getNearestClimatePoint(x, y, MaximumDistanceDeg);
 	}
 	
 	List<FrenchHDClimateVariableMap> getClimatePoints() {
-		List<FrenchHDClimateVariableMap> points = new ArrayList<FrenchHDClimateVariableMap>();
-		for (Map<Integer, List<FrenchHDClimateVariableMap>> oMap : zoneMap.values()) {
-			for (List<FrenchHDClimateVariableMap> pp : oMap.values()) {
-				points.addAll(pp);
-			}
-		}
-		return points;
+		return ClimatePointIndexHolder.Index.getClimatePoints();
 	}
 
+	/**
+	 * This method returns the nearest climate point for each pair of coordinates. The index 
+	 * of climate points is thread safe and the search is carried out in parallel. 
+	 * @param longitudesDeg an array of longitudes
+	 * @param latitudesDeg an array of latitudes
+	 * @return an array of FrenchHDClimateVariableMap instances. An element is null if the 
+	 * coordinates are not located in France.
+	 */
+	FrenchHDClimateVariableMap[] getClimateVariables(double[] longitudesDeg, double[] latitudesDeg) {
+		if (longitudesDeg.length != latitudesDeg.length) {
+			throw new InvalidParameterException("The longitudesDeg and latitudesDeg arrays must have the same length!");
+		}
+		FrenchHDClimateVariableMap[] climatePoints = new FrenchHDClimateVariableMap[longitudesDeg.length];
+		IntStream.range(0, longitudesDeg.length).parallel().forEach(i -> climatePoints[i] = getNearestClimatePoint(longitudesDeg[i], latitudesDeg[i]));
+		return climatePoints;
+	}
+	
 	@Override
 	public FrenchHDClimateVariableMap getClimateVariables(GeographicalCoordinatesProvider plot) {
 		return getNearestClimatePoint(plot.getLongitudeDeg(), plot.getLatitudeDeg());
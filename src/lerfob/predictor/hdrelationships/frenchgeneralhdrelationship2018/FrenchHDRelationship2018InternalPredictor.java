@@ -24,14 +24,20 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import lerfob.predictor.FertilityClassEmulator;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator.Covariates;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator.Term;
 import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
+import lerfob.predictor.hdrelationships.FrenchHDTreePartition;
 import lerfob.predictor.hdrelationships.FrenchHeightPredictor;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
-import repicea.simulation.ModelParameterEstimates;
 import repicea.simulation.climate.REpiceaClimateVariableMap;
 import repicea.simulation.climate.REpiceaClimateVariableMap.ClimateVariable;
 import repicea.simulation.covariateproviders.treelevel.SpeciesTypeProvider.SpeciesType;
@@ -54,12 +60,56 @@ public class FrenchHDRelationship2018InternalPredictor extends HDRelationshipPre
 		PhiParameters.put(SpeciesType.BroadleavedSpecies, 0.04468342698978); // taken from Quebec HD relationships
 	}
 
+	private static final Map<Integer, Term> AvailableTerms = new HashMap<Integer, Term>();
+	static {
+		AvailableTerms.put(1, c -> c.basalAreaMinusSubj * c.lnDbh2);
+		AvailableTerms.put(2, c -> c.lnDbh);
+		AvailableTerms.put(3, c -> c.basalAreaMinusSubj * c.lnDbh);
+		AvailableTerms.put(4, c -> c.harvested * c.lnDbh);
+		AvailableTerms.put(5, c -> c.lnDbh * c.meanPrec);
+		AvailableTerms.put(6, c -> c.lnDbh * c.meanTemp * c.meanTemp);
+		AvailableTerms.put(7, c -> c.lnDbh * c.meanTemp);
+		AvailableTerms.put(8, c -> c.lnDbh * c.slope);
+		AvailableTerms.put(9, c -> c.socialIndex * c.lnDbh);
+		AvailableTerms.put(10, c -> c.socialIndex * c.socialIndex * c.lnDbh);
+		AvailableTerms.put(11, c -> c.lnDbh2);
+		AvailableTerms.put(12, c -> c.socialIndex * c.lnDbh2);
+	}
+	
+	/*
+	 * A copy of the variance-covariance of the parameters in a primitive array. The source matrix
+	 * is kept so that the copy is refreshed if the parameter estimates are changed.
+	 */
+	private static final class OmegaSnapshot {
+		private final Matrix source;
+		private final double[][] omega;
+		
+		private OmegaSnapshot(Matrix source) {
+			this.source = source;
+			omega = new double[source.m_iRows][source.m_iCols];
+			for (int i = 0; i < source.m_iRows; i++) {
+				for (int j = 0; j < source.m_iCols; j++) {
+					omega[i][j] = source.getValueAt(i, j);
+				}
+			}
+		}
+	}
+	
 	private static Map<FertilityClass, TruncatedGaussianEstimate> fertilityClassMap;
 
 	private List<Integer> effectList;
+	private FrenchHDEffectEvaluator effectEvaluator;
 	private final FrenchHdSpecies species;
-	private FertilityClass currentFertilityClass;
+	private volatile FertilityClass currentFertilityClass;
 	private final FrenchHDRelationship2018Predictor mainPredictor;
+	private transient volatile OmegaSnapshot omegaSnapshot;
+	
+	/*
+	 * The maps of random effects are not thread-safe. They are written under the write lock
+	 * and read under the read lock so that the predictions do not block each other.
+	 */
+	private final ReentrantReadWriteLock randomEffectsLock = new ReentrantReadWriteLock();
+	private final Set<String> plotsWithRandomEffects = ConcurrentHashMap.newKeySet();
 	
 	
 	protected FrenchHDRelationship2018InternalPredictor(boolean isParameterVariabilityEnabled, 
@@ -118,12 +168,6 @@ public class FrenchHDRelationship2018InternalPredictor extends HDRelationshipPre
 	}
 	
 	
-	@Override
-	protected void setParameterEstimates(ModelParameterEstimates defaultBeta) {
-		super.setParameterEstimates(defaultBeta);
-		oXVector = new Matrix(1, getParameterEstimates().getMean().m_iRows);
-	}
-	
 	/**
 	 * This method sets the fertility class. However, it must be set before estimating the random effects. 
 	 * Otherwise, it has no effect.
@@ -135,6 +179,40 @@ public class FrenchHDRelationship2018InternalPredictor extends HDRelationshipPre
 		}
 	}
 	
+	/**
+	 * This method predicts the height of a tree. The random effects of the plot are registered under
+	 * the write lock on the first request. The prediction itself is made under the read lock.
+	 */
+	@Override
+	public double predictHeightM(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree) {
+		if (!plotsWithRandomEffects.contains(stand.getSubjectId())) {
+			registerBlups(stand);
+		}
+		randomEffectsLock.readLock().lock();
+		try {
+			return super.predictHeightM(stand, tree);
+		} finally {
+			randomEffectsLock.readLock().unlock();
+		}
+	}
+	
+	/*
+	 * Estimates the blups of the plot if this has not been done yet. 
+	 */
+	void registerBlups(FrenchHDRelationship2018Plot stand) {
+		randomEffectsLock.writeLock().lock();
+		try {
+			if (!plotsWithRandomEffects.contains(stand.getSubjectId())) {
+				if (!doBlupsExistForThisSubject(stand)) {
+					predictHeightRandomEffects(stand);
+				}
+				plotsWithRandomEffects.add(stand.getSubjectId());
+			}
+		} finally {
+			randomEffectsLock.writeLock().unlock();
+		}
+	}
+	
 	@Override
 	protected synchronized void predictHeightRandomEffects(FrenchHDRelationship2018Plot stand) {
 		if (currentFertilityClass == FertilityClass.Unknown) {
@@ -156,20 +234,36 @@ public class FrenchHDRelationship2018InternalPredictor extends HDRelationshipPre
 		for (int i = 0; i < mat.m_iRows; i++) {
 			effectList.add((int) mat.getValueAt(i, 0)); 
 		}
+		effectEvaluator = new FrenchHDEffectEvaluator(effectList, AvailableTerms);
 	}
 	
 	/**
 	 * This method computes the fixed effect prediction and put the prediction, the Z vector,
 	 * and the species name into m_oRegressionOutput member. The method applies in any cases no matter
-	 * it is deterministic or stochastic.
+	 * it is deterministic or stochastic. It relies on local variables only and therefore it is not 
+	 * synchronized.
 	 * @param stand a HeightableStand instance
 	 * @param tree a HeightableTree instance
 	 * @return a RegressionElement instance
 	 */
 	@Override
-	protected synchronized RegressionElements fixedEffectsPrediction(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree, Matrix beta) {
-		Matrix modelParameters = beta;
+	protected RegressionElements fixedEffectsPrediction(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree, Matrix beta) {
+		Covariates covariates = getCovariates(stand, tree);
+		double fResult = 1.3 + effectEvaluator.getLinearPredictor(beta, covariates);
 		
+		Matrix Z_i = new Matrix(1,1);
+		Z_i.setValueAt(0, 0, covariates.lnDbh);	// design vector for the plot random effect
+
+		RegressionElements regElements = new RegressionElements();
+		
+		regElements.fixedPred = fResult;
+		regElements.vectorZ = Z_i;
+
+		return regElements;
+	}
+
+	Covariates getCovariates(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree) {
+		Covariates covariates = new Covariates();
 		double basalAreaMinusSubj = stand.getBasalAreaM2HaMinusThisSubject(tree);
 		if (basalAreaMinusSubj < 0d) {
 			if (basalAreaMinusSubj > -1E-8) {		// negative values only due to decimal rounding
@@ -179,109 +273,46 @@ public class FrenchHDRelationship2018InternalPredictor extends HDRelationshipPre
 				throw new InvalidParameterException("The basal area of the plot has not been calculated yet!");
 			}
 		}
-		double slope = stand.getSlopeInclinationPercent();
+		covariates.basalAreaMinusSubj = basalAreaMinusSubj;
+		covariates.slope = stand.getSlopeInclinationPercent();
 		
-		oXVector.resetMatrix();
-		int pointer = 0;
-		
-		double meanPrec;
-		double meanTemp;
 		if (stand instanceof FrenchHDRelationship2018ExtPlot) {
 			FrenchHDRelationship2018ExtPlot s = (FrenchHDRelationship2018ExtPlot) stand;
-			meanPrec = s.getMeanPrecipitationOfGrowingSeason();
-			meanTemp = s.getMeanTemperatureOfGrowingSeason();
+			covariates.meanPrec = s.getMeanPrecipitationOfGrowingSeason();
+			covariates.meanTemp = s.getMeanTemperatureOfGrowingSeason();
 		} else {
 			REpiceaClimateVariableMap cp = mainPredictor.getNearestClimatePoint(stand);
-			meanPrec = cp.get(ClimateVariable.MeanGrowingSeasonPrecMm);
-			meanTemp = cp.get(ClimateVariable.MeanGrowingSeasonTempC);
+			covariates.meanPrec = cp.get(ClimateVariable.MeanGrowingSeasonPrecMm);
+			covariates.meanTemp = cp.get(ClimateVariable.MeanGrowingSeasonTempC);
 		}
 		
-		double lnDbh = tree.getLnDbhCmPlus1();
-		double socialIndex = tree.getDbhCm() / stand.getMeanQuadraticDiameterCm(); // former version changed for next line MF2018-09-10
-		
-		double lnDbh2 = tree.getSquaredLnDbhCmPlus1();
+		covariates.lnDbh = tree.getLnDbhCmPlus1();
+		covariates.socialIndex = tree.getDbhCm() / stand.getMeanQuadraticDiameterCm(); // former version changed for next line MF2018-09-10
+		covariates.lnDbh2 = tree.getSquaredLnDbhCmPlus1();
 
-		double harvested = 0d;
 		if (stand.isInterventionResult()) {
-			harvested = 1d;
-		}
-		
-		for (Integer integer : effectList) {
-			switch(integer) {
-			case 1:
-				oXVector.setValueAt(0, pointer, basalAreaMinusSubj * lnDbh2);
-				pointer++;
-				break;
-			case 2:
-				oXVector.setValueAt(0, pointer, lnDbh);
-				pointer++;
-				break;
-			case 3:
-				oXVector.setValueAt(0, pointer, basalAreaMinusSubj * lnDbh);
-				pointer++;
-				break;
-			case 4:
-				oXVector.setValueAt(0, pointer, harvested * lnDbh);
-				pointer++;
-				break;
-			case 5:
-				oXVector.setValueAt(0, pointer, lnDbh * meanPrec);
-				pointer++;
-				break;
-			case 6:
-				oXVector.setValueAt(0, pointer, lnDbh * meanTemp * meanTemp);
-				pointer++;
-				break;
-			case 7:
-				oXVector.setValueAt(0, pointer, lnDbh * meanTemp);
-				pointer++;
-				break;
-			case 8:
-				oXVector.setValueAt(0, pointer, lnDbh * slope);
-				pointer++;
-				break;
-			case 9:
-				oXVector.setValueAt(0, pointer, socialIndex * lnDbh);
-				pointer++;
-				break;
-			case 10:
-				oXVector.setValueAt(0, pointer, socialIndex * socialIndex * lnDbh);
-				pointer++;
-				break;
-			case 11:
-				oXVector.setValueAt(0, pointer, lnDbh2);
-				pointer++;
-				break;
-			case 12:
-				oXVector.setValueAt(0, pointer, socialIndex * lnDbh2);
-				pointer++;
-				break;
-			default:
-				throw new InvalidParameterException("This effect index " + integer + " is not recognized!");
-			}
+			covariates.harvested = 1d;
 		}
-
-		double fResult = 1.3 + oXVector.multiply(modelParameters).getValueAt(0, 0);
-		
-		Matrix Z_i = new Matrix(1,1);
-		Z_i.setValueAt(0, 0, lnDbh);	// design vector for the plot random effect
-
-		RegressionElements regElements = new RegressionElements();
-		
-		regElements.fixedPred = fResult;
-		regElements.vectorZ = Z_i;
-
-		return regElements;
+		return covariates;
 	}
-
+	
 	@Override
 	public Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> getBlupsForThisSubject(FrenchHDRelationship2018Plot stand) {
-		return super.getBlupsForThisSubject(stand);
+		randomEffectsLock.readLock().lock();
+		try {
+			return super.getBlupsForThisSubject(stand);
+		} finally {
+			randomEffectsLock.readLock().unlock();
+		}
 	}
 
 
 	@Override
 	protected Collection<FrenchHDRelationship2018Tree> getTreesFromStand(FrenchHDRelationship2018Plot stand) {
+		List<FrenchHDRelationship2018Tree> partitionedTrees = FrenchHDTreePartition.getCurrentlyPartitionedTrees(stand, species, FrenchHDRelationship2018Tree.class);
+		if (partitionedTrees != null) {		// the plot has already been partitioned by species
+			return partitionedTrees;
+		}
 		Collection<FrenchHDRelationship2018Tree> treesToBeReturned = new ArrayList<FrenchHDRelationship2018Tree>();
 		Collection<?> trees = stand.getTreesForFrenchHDRelationship();
 		if (trees != null && !trees.isEmpty()) {
@@ -317,14 +348,66 @@ public class FrenchHDRelationship2018InternalPredictor extends HDRelationshipPre
 		return effectList.contains(5);
 	}
 
-	synchronized GaussianEstimate predictHeightAndVariance(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree) {
+	GaussianEstimate predictHeightAndVariance(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree) {
 		Matrix pred = new Matrix(1,1);
 		pred.setValueAt(0, 0, predictHeightM(stand, tree));
+		double[] x = effectEvaluator.getDesignVector(getCovariates(stand, tree));
+		Matrix xVector = new Matrix(1, x.length);
+		for (int i = 0; i < x.length; i++) {
+			xVector.setValueAt(0, i, x[i]);
+		}
 		SymmetricMatrix variance = SymmetricMatrix.convertToSymmetricIfPossible(
-				oXVector.multiply(this.getParameterEstimates().getVariance()).multiply(oXVector.transpose()));
+				xVector.multiply(this.getParameterEstimates().getVariance()).multiply(xVector.transpose()));
 		return new GaussianEstimate(pred, variance);
 	}
 	
+	/**
+	 * This method returns the variance of the height prediction due to the parameter estimates. It 
+	 * yields the same result as the variance in the estimate returned by the predictHeightAndVariance 
+	 * method but it is computed from the non-null terms of the design vector and the upper 
+	 * triangle of the variance-covariance of the parameters without any Matrix instance.
+	 * @param stand a FrenchHDRelationship2018Plot instance
+	 * @param tree a FrenchHDRelationship2018Tree instance
+	 * @return the variance (m2)
+	 */
+	double getHeightPredictionVariance(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree) {
+		return effectEvaluator.getVarianceOfLinearPredictor(getOmega(), getCovariates(stand, tree));
+	}
+	
+	private double[][] getOmega() {
+		Matrix currentOmega = getParameterEstimates().getVariance();
+		OmegaSnapshot snapshot = omegaSnapshot;
+		if (snapshot == null || snapshot.source != currentOmega) {
+			snapshot = new OmegaSnapshot(currentOmega);
+			omegaSnapshot = snapshot;
+		}
+		return snapshot.omega;
+	}
+
+	/*
+	 * For test purpose.
+	 */
+	Matrix getParameterVariance() {
+		return getParameterEstimates().getVariance();
+	}
+	
+	/*
+	 * For test purpose.
+	 */
+	Matrix getParameterMean() {
+		return getParameterEstimates().getMean();
+	}
+
+	/*
+	 * For test purpose.
+	 */
+	List<Integer> getEffectList() {return effectList;}
+	
+	/*
+	 * For test purpose.
+	 */
+	FrenchHDEffectEvaluator getEffectEvaluator() {return effectEvaluator;}
+	
 	
 	
 //	GaussianEstimate getGaussianEstimateFromTemperatureEffect() {
@@ -18,19 +18,27 @@
  */
 package lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018;
 
+import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import lerfob.predictor.FertilityClassEmulator;
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
+import lerfob.predictor.hdrelationships.FrenchHDTreePartition;
 import lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018.FrenchHDRelationship2018ClimateGenerator.FrenchHDClimateVariableMap;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.simulation.REpiceaPredictorListener;
 import repicea.simulation.SASParameterEstimates;
@@ -48,7 +56,11 @@ import repicea.util.ObjectUtility;
 /**
  * This class implements the general height-diameter relationships for the French National Forest Inventory. 
  * The 2018 version has been updated with climate variables. More specifically, the mean temperature and mean 
- * precipitation of the growth season are now explanatory variables for most species.
+ * precipitation of the growth season are now explanatory variables for most species. <br>
+ * <br>
+ * In deterministic mode, a single instance can serve several threads. In stochastic mode, the parameters, 
+ * random effects and residual errors of each realization are drawn and stored in maps that are not 
+ * synchronized. Each thread should then use its own instance.
  * @author Mathieu Fortin - December 2017
  * 
  * @see <a href=https://link.springer.com/article/10.1007/s13595-018-0784-9> Fortin, M., R. Van Couwenberghe, V. Perez 
@@ -61,13 +73,50 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 
 	private static final long serialVersionUID = -8769528746292724237L;
 	
+	/**
+	 * The maximum number of entries in the climate caches.
+	 */
+	static final int ClimateCacheCapacity = 50000;
+	
+	/*
+	 * The climate variables depend on the plot and, under climate change, on the realization and the date. 
+	 */
+	private static final class ClimateCacheKey implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final String subjectId;
+		private final int realizationId;
+		private final int dateYr;
+		
+		private ClimateCacheKey(FrenchHDRelationship2018Plot stand) {
+			subjectId = stand.getSubjectId();
+			realizationId = stand.getMonteCarloRealizationId();
+			dateYr = stand.getDateYr();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof ClimateCacheKey) {
+				ClimateCacheKey key = (ClimateCacheKey) obj;
+				return realizationId == key.realizationId && dateYr == key.dateYr && subjectId.equals(key.subjectId);
+			}
+			return false;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (subjectId.hashCode() * 31 + realizationId) * 31 + dateYr;
+		}
+	}
 	
 	private final Map<FrenchHdSpecies, FrenchHDRelationship2018InternalPredictor> predictorMap;
 		
-	private final Map<String, FrenchHDClimateVariableMap> originalClimateVariableMap;
+	private final FrenchHDClimateCache<String, FrenchHDClimateVariableMap> originalClimateVariableMap;
+	private final FrenchHDClimateCache<ClimateCacheKey, REpiceaClimateVariableMap> updatedClimateVariableMap;
 	private final FrenchHDRelationship2018ClimateGenerator climateGenerator;
-	private REpiceaClimateChangeGenerator<? extends GeographicalCoordinatesProvider> climateChangeGenerator; 
-	private Map<Integer, REpiceaClimateChangeTrend> climateTrendMap;
+	private volatile REpiceaClimateChangeGenerator<? extends GeographicalCoordinatesProvider> climateChangeGenerator;
+	private final ConcurrentHashMap<Integer, REpiceaClimateChangeTrend> climateTrendMap;
 
 	/**
 	 * General constructor for all combinations of uncertainty sources.
@@ -80,8 +129,10 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 	FrenchHDRelationship2018Predictor(boolean isParameterVariabilityEnabled, boolean isRandomEffectVariablityEnabled, boolean isResidualErrorVariabilityEnabled) {
 		super(isParameterVariabilityEnabled, isRandomEffectVariablityEnabled, isResidualErrorVariabilityEnabled);
 		predictorMap = new HashMap<FrenchHdSpecies, FrenchHDRelationship2018InternalPredictor>();
-		originalClimateVariableMap = new HashMap<String, FrenchHDClimateVariableMap>();
+		originalClimateVariableMap = new FrenchHDClimateCache<String, FrenchHDClimateVariableMap>(ClimateCacheCapacity);
+		updatedClimateVariableMap = new FrenchHDClimateCache<ClimateCacheKey, REpiceaClimateVariableMap>(ClimateCacheCapacity);
 		climateGenerator = new FrenchHDRelationship2018ClimateGenerator();
+		climateTrendMap = new ConcurrentHashMap<Integer, REpiceaClimateChangeTrend>();
 		init();
 	}
 	
@@ -94,10 +145,23 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 
 	
 	REpiceaClimateVariableMap getNearestClimatePoint(FrenchHDRelationship2018Plot stand) { 
-		FrenchHDClimateVariableMap cp;
-		if (originalClimateVariableMap.containsKey(stand.getSubjectId())) {
-			cp = originalClimateVariableMap.get(stand.getSubjectId());
+		if (climateChangeGenerator == null) {
+			return getOriginalClimatePoint(stand);
 		} else {
+			ClimateCacheKey key = new ClimateCacheKey(stand);
+			REpiceaClimateVariableMap updatedMap = updatedClimateVariableMap.get(key);
+			if (updatedMap == null) {
+				REpiceaClimateChangeTrend trend =  getClimateTrend(stand);
+				updatedMap = getOriginalClimatePoint(stand).getUpdatedClimateVariableMap(trend, stand.getDateYr());
+				updatedClimateVariableMap.put(key, updatedMap);
+			}
+			return updatedMap;
+		}
+	}
+	
+	private FrenchHDClimateVariableMap getOriginalClimatePoint(FrenchHDRelationship2018Plot stand) {
+		FrenchHDClimateVariableMap cp = originalClimateVariableMap.get(stand.getSubjectId());
+		if (cp == null) {
 			cp = climateGenerator.getClimateVariables(stand);
 			if (cp == null) {
 				throw new InvalidParameterException("The geographical coordinates are not located in France!");
@@ -105,30 +169,33 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 				originalClimateVariableMap.put(stand.getSubjectId(), cp);
 			}
 		}
-		if (climateChangeGenerator == null) {
-			return cp;
-		} else {
-			REpiceaClimateChangeTrend trend =  getClimateTrend(stand);
-			REpiceaClimateVariableMap updatedClimateVariableMap = cp.getUpdatedClimateVariableMap(trend, stand.getDateYr()); // TODO this object could be stored somewhere to avoid reconstructing it every time 
-			return updatedClimateVariableMap;
-		}
+		return cp;
 	}
 	
+	/**
+	 * This method returns the number of requests that were served by the climate caches.
+	 * @return a long
+	 */
+	public long getClimateCacheHits() {
+		return originalClimateVariableMap.getNumberOfHits() + updatedClimateVariableMap.getNumberOfHits();
+	}
 	
-	private synchronized REpiceaClimateChangeTrend getClimateTrend(FrenchHDRelationship2018Plot stand) {
-		int id = stand.getMonteCarloRealizationId();
-		Map<Integer, REpiceaClimateChangeTrend> oMap = getClimateTrendMap();
-		if (!oMap.containsKey(id)) {
-			oMap.put(id, climateChangeGenerator.getClimateTrendForThisStand(stand));
-		} 
-		return oMap.get(id);
+	/**
+	 * This method returns the number of requests that could not be served by the climate caches.
+	 * @return a long
+	 */
+	public long getClimateCacheMisses() {
+		return originalClimateVariableMap.getNumberOfMisses() + updatedClimateVariableMap.getNumberOfMisses();
 	}
-
-	private Map<Integer, REpiceaClimateChangeTrend> getClimateTrendMap() {
-		if (climateTrendMap == null) {
-			climateTrendMap = new HashMap<Integer, REpiceaClimateChangeTrend>();
-		}
-		return climateTrendMap;
+	
+	
+	/*
+	 * The trend is computed only once for each realization. The other threads requesting the 
+	 * same realization wait for this computation but not those requesting other realizations.
+	 */
+	private REpiceaClimateChangeTrend getClimateTrend(FrenchHDRelationship2018Plot stand) {
+		return climateTrendMap.computeIfAbsent(stand.getMonteCarloRealizationId(), 
+				id -> climateChangeGenerator.getClimateTrendForThisStand(stand));
 	}
 
 	@Override
@@ -147,10 +214,9 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 			String covparmsFilename = path + "0_covparms.csv";
 			String effectListFilename = path + "0_effectlist.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1, betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);
-			ParameterMap covparmMap = ParameterLoader.loadVectorFromFile(1, covparmsFilename);
-			ParameterMap effectList = ParameterLoader.loadVectorFromFile(1, effectListFilename);
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+			PredictorParameterMap covparmMap = PredictorParameterCache.loadVectorFromFile(1, covparmsFilename);
+			PredictorParameterMap effectList = PredictorParameterCache.loadVectorFromFile(1, effectListFilename);
 
 			for (FrenchHdSpecies species : FrenchHdSpecies.values()) {
 				FrenchHDRelationship2018InternalPredictor internalPredictor = new FrenchHDRelationship2018InternalPredictor(isParametersVariabilityEnabled,
@@ -161,7 +227,7 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 				int index = species.getIndex();
 				
 				Matrix mean = betaMap.get(index);
-				SymmetricMatrix variance = omegaMap.get(index).squareSym();
+				SymmetricMatrix variance = PredictorParameterCache.loadSymmetricMatrixFromVector(1, omegaFilename, index);
 				ModelParameterEstimates defaultBeta = new SASParameterEstimates(mean, variance);
 				internalPredictor.setParameterEstimates(defaultBeta);
 				
@@ -189,6 +255,90 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 		return prediction;
 	}	
 
+	/**
+	 * This method returns the variance of the height prediction that is due to the parameter estimates. 
+	 * It can be used to compute confidence intervals on the predicted heights.
+	 * @param stand a FrenchHDRelationship2018Plot instance
+	 * @param tree a FrenchHDRelationship2018Tree instance
+	 * @return the variance (m2)
+	 */
+	public double getHeightPredictionVariance(FrenchHDRelationship2018Plot stand, FrenchHDRelationship2018Tree tree) {
+		FrenchHDRelationship2018InternalPredictor internalPred = getInternalPredictorMap().get(tree.getFrenchHDTreeSpecies());
+		return internalPred.getHeightPredictionVariance(stand, tree);
+	}
+	
+	/**
+	 * This method imputes the heights of all the trees of a plot. The trees are partitioned by species once. 
+	 * For each species, the blups are estimated from the trees whose height is known and the heights of the 
+	 * other trees are then predicted.
+	 * @param stand a FrenchHDRelationship2018Plot instance
+	 * @return an array of double aligned with the collection returned by the getTreesForFrenchHDRelationship
+	 * method of the plot. The observed heights are kept for the trees whose height is known and the
+	 * elements that are not FrenchHDRelationship2018Tree instances are set to NaN.
+	 */
+	public double[] imputeHeightsM(FrenchHDRelationship2018Plot stand) {
+		FrenchHDTreePartition<FrenchHDRelationship2018Tree> partition = new FrenchHDTreePartition<FrenchHDRelationship2018Tree>(stand, 
+				stand.getTreesForFrenchHDRelationship(), 
+				FrenchHDRelationship2018Tree.class);
+		return partition.imputeHeightsM((species, tree) -> getInternalPredictorMap().get(species).predictHeightM(stand, tree));
+	}
+
+	/**
+	 * This method estimates the blups of a collection of plots before any prediction is made. The
+	 * plots are processed in parallel to partition their trees by species and to retrieve their climate
+	 * variables. The random effects are then registered in parallel across species, each species-specific 
+	 * predictor processing its plots in sequence since the maps of random effects are not synchronized. <br>
+	 * <br>
+	 * For each plot and species, the blups are estimated from the trees whose height is known. No height 
+	 * is predicted, so that no deviate is drawn. In stochastic mode, the deviates of the random effects are 
+	 * drawn from the blups when the first height of a realization is predicted. Once this method returns, 
+	 * the subsequent height predictions no longer need to estimate the blups. 
+	 * @param plots a Collection of FrenchHDRelationship2018Plot instances
+	 */
+	public void estimateBlups(Collection<? extends FrenchHDRelationship2018Plot> plots) {
+		List<FrenchHDRelationship2018Plot> plotList = new ArrayList<FrenchHDRelationship2018Plot>(plots);
+		List<FrenchHDTreePartition<FrenchHDRelationship2018Tree>> partitions = plotList.parallelStream()
+				.map(p -> {
+					FrenchHDTreePartition<FrenchHDRelationship2018Tree> partition = new FrenchHDTreePartition<FrenchHDRelationship2018Tree>(p, 
+							p.getTreesForFrenchHDRelationship(), 
+							FrenchHDRelationship2018Tree.class);
+					if (isClimateRequired(partition)) {
+						getNearestClimatePoint(p);		// the climate caches are filled in parallel
+					}
+					return partition;
+				})
+				.collect(Collectors.toList());
+		
+		Map<FrenchHdSpecies, List<Integer>> plotIndicesBySpecies = new EnumMap<FrenchHdSpecies, List<Integer>>(FrenchHdSpecies.class);
+		for (int i = 0; i < partitions.size(); i++) {
+			for (FrenchHdSpecies species : partitions.get(i).getSpecies()) {
+				if (!plotIndicesBySpecies.containsKey(species)) {
+					plotIndicesBySpecies.put(species, new ArrayList<Integer>());
+				}
+				plotIndicesBySpecies.get(species).add(i);
+			}
+		}
+		
+		plotIndicesBySpecies.entrySet().parallelStream().forEach(entry -> {
+			FrenchHdSpecies species = entry.getKey();
+			FrenchHDRelationship2018InternalPredictor internalPred = getInternalPredictorMap().get(species);
+			for (int i : entry.getValue()) {
+				FrenchHDRelationship2018Plot plot = plotList.get(i);
+				partitions.get(i).runAsCurrentPartition(() -> internalPred.registerBlups(plot));
+			}
+		});
+	}
+	
+	private boolean isClimateRequired(FrenchHDTreePartition<FrenchHDRelationship2018Tree> partition) {
+		for (FrenchHdSpecies species : partition.getSpecies()) {
+			FrenchHDRelationship2018InternalPredictor internalPred = getInternalPredictorMap().get(species);
+			if (internalPred.hasTemperatureEffect() || internalPred.hasPrecipitationEffect()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * For testing purpose only
 	 * @param stand the Stand instance
@@ -225,6 +375,7 @@ public final class FrenchHDRelationship2018Predictor extends REpiceaPredictor im
 	 */
 	public void setClimateChangeGenerator(REpiceaClimateChangeGenerator<? extends GeographicalCoordinatesProvider> generator) {
 		this.climateChangeGenerator = generator;
+		updatedClimateVariableMap.clear();
 	}
 	
 	
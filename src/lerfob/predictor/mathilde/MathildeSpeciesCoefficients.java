@@ -0,0 +1,103 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.mathilde;
+
+import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
+import repicea.math.Matrix;
+
+/**
+ * This class holds the coefficients of a Mathilde model once the species interactions
+ * have been collapsed. Since a tree activates a single species dummy variable, the model
+ * reduces to a small dense coefficient vector for each species. The instances are immutable
+ * and are cached by the MathildeSubModule class for each realization of the parameters.
+ * @author agent - October 2026
+ */
+public final class MathildeSpeciesCoefficients {
+
+	/**
+	 * This interface collapses the species interactions of a vector of parameters.
+	 */
+	public static interface Compiler {
+
+		/**
+		 * This method returns the collapsed coefficients.
+		 * @param beta the column vector of parameters
+		 * @return an array indexed by the ordinal of the MathildeTreeSpecies enum and then by covariate
+		 */
+		public double[][] compile(Matrix beta);
+	}
+
+	private final Matrix beta;
+	private final double[][] coefficients;
+
+	/**
+	 * Constructor.
+	 * @param beta the column vector of parameters
+	 * @param coefficients the coefficients collapsed from this vector
+	 */
+	public MathildeSpeciesCoefficients(Matrix beta, double[][] coefficients) {
+		this.beta = beta;
+		this.coefficients = coefficients;
+	}
+
+	/**
+	 * This method returns the vector of parameters these coefficients were derived from.
+	 * @return a Matrix instance
+	 */
+	public Matrix getBeta() {return beta;}
+
+	/*
+	 * Checks whether these coefficients were derived from this vector of parameters.
+	 */
+	boolean isDerivedFrom(Matrix otherBeta) {
+		if (otherBeta == beta) {
+			return true;
+		}
+		if (otherBeta.m_iRows != beta.m_iRows || otherBeta.m_iCols != beta.m_iCols) {
+			return false;
+		}
+		for (int i = 0; i < beta.m_iRows; i++) {
+			for (int j = 0; j < beta.m_iCols; j++) {
+				if (otherBeta.getValueAt(i, j) != beta.getValueAt(i, j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This method returns the coefficients of a particular species.
+	 * @param species a MathildeTreeSpecies enum
+	 * @return an array of double (must not be modified)
+	 */
+	public double[] getCoefficients(MathildeTreeSpecies species) {
+		return coefficients[species.ordinal()];
+	}
+
+	/**
+	 * This method returns the coefficients of a particular species.
+	 * @param speciesOrdinal the ordinal of the MathildeTreeSpecies enum
+	 * @return an array of double (must not be modified)
+	 */
+	public double[] getCoefficients(int speciesOrdinal) {
+		return coefficients[speciesOrdinal];
+	}
+
+}
@@ -1,5 +1,7 @@
 package lerfob.predictor.mathilde;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
@@ -15,6 +17,8 @@ public abstract class MathildeSubModule extends REpiceaPredictor {
 	
 	double errorTotalVariance;
 	
+	private transient volatile ConcurrentHashMap<Integer, MathildeSpeciesCoefficients> speciesCoefficientsMap;
+	
 	protected MathildeSubModule(boolean isParametersVariabilityEnabled, boolean isRandomEffectVariabilityEnabled, boolean isResidualVariabilityEnabled) {
 		super(isParametersVariabilityEnabled, isRandomEffectVariabilityEnabled, isResidualVariabilityEnabled);
 	}
@@ -45,6 +49,36 @@ public abstract class MathildeSubModule extends REpiceaPredictor {
 		return super.getParametersForThisRealization(stand);
 	}
 
+	private ConcurrentHashMap<Integer, MathildeSpeciesCoefficients> getSpeciesCoefficientsMap() {
+		if (speciesCoefficientsMap == null) {
+			synchronized(this) {
+				if (speciesCoefficientsMap == null) {
+					speciesCoefficientsMap = new ConcurrentHashMap<Integer, MathildeSpeciesCoefficients>();
+				}
+			}
+		}
+		return speciesCoefficientsMap;
+	}
+	
+	/**
+	 * This method returns the parameters of the current realization with the species interactions 
+	 * collapsed. The coefficients are compiled only once for each realization of the parameters.
+	 * @param subject a MonteCarloSimulationCompliantObject instance
+	 * @param compiler a MathildeSpeciesCoefficients.Compiler instance that collapses the species interactions 
+	 * @return a MathildeSpeciesCoefficients instance
+	 */
+	public MathildeSpeciesCoefficients getSpeciesCoefficients(MonteCarloSimulationCompliantObject subject, MathildeSpeciesCoefficients.Compiler compiler) {
+		Matrix beta = getParameters(subject);
+		ConcurrentHashMap<Integer, MathildeSpeciesCoefficients> map = getSpeciesCoefficientsMap();
+		int realizationId = subject.getMonteCarloRealizationId();
+		MathildeSpeciesCoefficients coefficients = map.get(realizationId);
+		if (coefficients == null || !coefficients.isDerivedFrom(beta)) {		// the parameters may have been redrawn or reset in the meantime
+			coefficients = new MathildeSpeciesCoefficients(beta, compiler.compile(beta));
+			map.put(realizationId, coefficients);
+		}
+		return coefficients;
+	}
+
 	/*
 	 * For extended visibility (non-Javadoc)
 	 * @see repicea.simulation.ModelBasedSimulator#setDefaultBeta(repicea.stats.estimates.GaussianEstimate)
@@ -0,0 +1,355 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.mathilde.climate;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import repicea.math.Matrix;
+import repicea.math.SymmetricMatrix;
+import repicea.stats.estimates.GaussianEstimate;
+
+/**
+ * The MathildeClimateKrigingEngine class predicts the spatially correlated plot random effects
+ * of the MathildeClimatePredictor class. The variance-covariance of the reference stands is
+ * factorized only once. Since the spherical covariance is null beyond the range rho, the covariances
+ * between a new plot and the reference plots are restricted to its neighbours, which are found through
+ * a grid whose cells are rho wide.
+ * @author agent - October 2026
+ */
+final class MathildeClimateKrigingEngine {
+
+	/*
+	 * The reference plots that have non null covariances with a particular plot.
+	 */
+	private static class Neighbourhood {
+		final int[] plotIndices;
+		final double[] covariances;
+
+		Neighbourhood(int[] plotIndices, double[] covariances) {
+			this.plotIndices = plotIndices;
+			this.covariances = covariances;
+		}
+	}
+
+	private final double variance;
+	private final double rho;
+
+	private final Map<String, Integer> referencePlotIndices;
+	private final double[] referenceLongitudes;
+	private final double[] referenceLatitudes;
+	private final Map<Long, List<Integer>> grid;
+
+	/*
+	 * Z'V^-1 r, that is the weights of the reference plots in the blups.
+	 */
+	private final double[] plotWeights;
+
+	/*
+	 * Z'V^-1 Z
+	 */
+	private final double[][] zViZ;
+
+	/*
+	 * Z'V^-1 X
+	 */
+	private final double[][] zViX;
+
+	/**
+	 * Constructor.
+	 * @param referenceStands the list of reference stands (one record per stand and date)
+	 * @param residuals the residuals of the reference stands
+	 * @param designMatrix the design matrix of the reference stands (one row per record)
+	 * @param variance the variance of the plot random effects
+	 * @param rho the range of the spherical covariance
+	 * @param residualVariance the residual variance for a one-year growth step
+	 */
+	MathildeClimateKrigingEngine(List<MathildeClimatePlot> referenceStands,
+			double[] residuals,
+			double[][] designMatrix,
+			double variance,
+			double rho,
+			double residualVariance) {
+		this.variance = variance;
+		this.rho = rho;
+
+		int nbRecords = referenceStands.size();
+		int[] recordPlotIndices = new int[nbRecords];
+		referencePlotIndices = new HashMap<String, Integer>();
+		List<MathildeClimatePlot> uniquePlots = new ArrayList<MathildeClimatePlot>();
+		for (int i = 0; i < nbRecords; i++) {
+			MathildeClimatePlot plot = referenceStands.get(i);
+			Integer index = referencePlotIndices.get(plot.getSubjectId());
+			if (index == null) {
+				index = uniquePlots.size();
+				referencePlotIndices.put(plot.getSubjectId(), index);
+				uniquePlots.add(plot);
+			}
+			recordPlotIndices[i] = index;
+		}
+
+		int nbPlots = uniquePlots.size();
+		referenceLongitudes = new double[nbPlots];
+		referenceLatitudes = new double[nbPlots];
+		grid = new HashMap<Long, List<Integer>>();
+		for (int q = 0; q < nbPlots; q++) {
+			referenceLongitudes[q] = uniquePlots.get(q).getLongitudeDeg();
+			referenceLatitudes[q] = uniquePlots.get(q).getLatitudeDeg();
+			Long key = getCellKey(getCell(referenceLongitudes[q]), getCell(referenceLatitudes[q]));
+			List<Integer> cell = grid.get(key);
+			if (cell == null) {
+				cell = new ArrayList<Integer>();
+				grid.put(key, cell);
+			}
+			cell.add(q);
+		}
+
+		double[][] plotCovariances = new double[nbPlots][nbPlots];
+		for (int q = 0; q < nbPlots; q++) {
+			plotCovariances[q][q] = variance;
+			for (int q2 = q + 1; q2 < nbPlots; q2++) {
+				double covariance = getCovariance(referenceLongitudes[q], referenceLatitudes[q], referenceLongitudes[q2], referenceLatitudes[q2]);
+				plotCovariances[q][q2] = covariance;
+				plotCovariances[q2][q] = covariance;
+			}
+		}
+
+		double[][] matV = new double[nbRecords][nbRecords];
+		for (int i = 0; i < nbRecords; i++) {
+			for (int j = 0; j < nbRecords; j++) {
+				matV[i][j] = plotCovariances[recordPlotIndices[i]][recordPlotIndices[j]];
+			}
+			matV[i][i] += residualVariance / referenceStands.get(i).getGrowthStepLengthYr();
+		}
+		double[][] lowerChol = getLowerCholeskyFactor(matV);
+
+		double[] alpha = solve(lowerChol, residuals);
+		plotWeights = new double[nbPlots];
+		for (int i = 0; i < nbRecords; i++) {
+			plotWeights[recordPlotIndices[i]] += alpha[i];
+		}
+
+		zViZ = new double[nbPlots][nbPlots];
+		double[] column = new double[nbRecords];
+		for (int q = 0; q < nbPlots; q++) {
+			for (int i = 0; i < nbRecords; i++) {
+				column[i] = recordPlotIndices[i] == q ? 1d : 0d;
+			}
+			double[] solution = solve(lowerChol, column);
+			for (int i = 0; i < nbRecords; i++) {
+				zViZ[recordPlotIndices[i]][q] += solution[i];
+			}
+		}
+
+		int nbColumns = designMatrix[0].length;
+		zViX = new double[nbPlots][nbColumns];
+		for (int c = 0; c < nbColumns; c++) {
+			for (int i = 0; i < nbRecords; i++) {
+				column[i] = designMatrix[i][c];
+			}
+			double[] solution = solve(lowerChol, column);
+			for (int i = 0; i < nbRecords; i++) {
+				zViX[recordPlotIndices[i]][c] += solution[i];
+			}
+		}
+	}
+
+	private int getCell(double coordinate) {
+		return (int) Math.floor(coordinate / rho);
+	}
+
+	private static Long getCellKey(int cellX, int cellY) {
+		return ((long) cellX << 32) ^ (cellY & 0xffffffffL);
+	}
+
+	private double getCovariance(double x1, double y1, double x2, double y2) {
+		double y_diff = y1 - y2;
+		double x_diff = x1 - x2;
+		double d = Math.sqrt(y_diff * y_diff + x_diff * x_diff);
+		if (d <= rho) {
+			return variance * (1 - 3*d/(2*rho) + d*d*d/(2*rho*rho*rho));
+		} else {
+			return 0d;
+		}
+	}
+
+	/*
+	 * Computes the lower triangular factor of a symmetric positive definite matrix.
+	 */
+	static double[][] getLowerCholeskyFactor(double[][] matrix) {
+		int n = matrix.length;
+		double[][] lower = new double[n][n];
+		for (int j = 0; j < n; j++) {
+			double sum = matrix[j][j];
+			for (int k = 0; k < j; k++) {
+				sum -= lower[j][k] * lower[j][k];
+			}
+			if (sum <= 0d) {
+				throw new InvalidParameterException("The variance-covariance matrix is not positive definite!");
+			}
+			lower[j][j] = Math.sqrt(sum);
+			for (int i = j + 1; i < n; i++) {
+				double value = matrix[i][j];
+				for (int k = 0; k < j; k++) {
+					value -= lower[i][k] * lower[j][k];
+				}
+				lower[i][j] = value / lower[j][j];
+			}
+		}
+		return lower;
+	}
+
+	/*
+	 * Solves LL'x = b through forward and backward substitutions.
+	 */
+	private static double[] solve(double[][] lower, double[] b) {
+		int n = b.length;
+		double[] x = new double[n];
+		for (int i = 0; i < n; i++) {
+			double value = b[i];
+			for (int k = 0; k < i; k++) {
+				value -= lower[i][k] * x[k];
+			}
+			x[i] = value / lower[i][i];
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			double value = x[i];
+			for (int k = i + 1; k < n; k++) {
+				value -= lower[k][i] * x[k];
+			}
+			x[i] = value / lower[i][i];
+		}
+		return x;
+	}
+
+	/*
+	 * Retrieves the reference plots within range rho. If the plot is a reference plot, then
+	 * its covariance with itself is the variance.
+	 */
+	private Neighbourhood getNeighbourhood(String plotId, double longitude, double latitude) {
+		Integer ownIndex = referencePlotIndices.get(plotId);
+		List<Integer> indices = new ArrayList<Integer>();
+		List<Double> covariances = new ArrayList<Double>();
+		int cellX = getCell(longitude);
+		int cellY = getCell(latitude);
+		for (int dx = -1; dx <= 1; dx++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				List<Integer> cell = grid.get(getCellKey(cellX + dx, cellY + dy));
+				if (cell != null) {
+					for (Integer q : cell) {
+						double covariance = q.equals(ownIndex) ?
+								variance :
+								getCovariance(longitude, latitude, referenceLongitudes[q], referenceLatitudes[q]);
+						if (covariance != 0d) {
+							indices.add(q);
+							covariances.add(covariance);
+						}
+					}
+				}
+			}
+		}
+		int[] plotIndices = new int[indices.size()];
+		double[] cov = new double[indices.size()];
+		for (int k = 0; k < plotIndices.length; k++) {
+			plotIndices[k] = indices.get(k);
+			cov[k] = covariances.get(k);
+		}
+		return new Neighbourhood(plotIndices, cov);
+	}
+
+	/**
+	 * This method predicts the blups of a list of plots.
+	 * @param plots a List of MathildeClimatePlot instances
+	 * @param omega the variance-covariance of the parameter estimates that correspond to the columns of the design matrix
+	 * @return a GaussianEstimate instance with one blup for each plot in the list
+	 */
+	GaussianEstimate predictBlups(List<MathildeClimatePlot> plots, Matrix omega) {
+		int nbPlots = plots.size();
+		String[] plotIds = new String[nbPlots];
+		double[] longitudes = new double[nbPlots];
+		double[] latitudes = new double[nbPlots];
+		Map<String, Integer> firstOccurrences = new HashMap<String, Integer>();
+		for (int t = 0; t < nbPlots; t++) {
+			MathildeClimatePlot plot = plots.get(t);
+			plotIds[t] = plot.getSubjectId();
+			Integer referenceIndex = referencePlotIndices.get(plotIds[t]);
+			Integer firstOccurrence = firstOccurrences.get(plotIds[t]);
+			if (referenceIndex != null) {			// the coordinates of the reference plot prevail
+				longitudes[t] = referenceLongitudes[referenceIndex];
+				latitudes[t] = referenceLatitudes[referenceIndex];
+			} else if (firstOccurrence != null) {
+				longitudes[t] = longitudes[firstOccurrence];
+				latitudes[t] = latitudes[firstOccurrence];
+			} else {
+				firstOccurrences.put(plotIds[t], t);
+				longitudes[t] = plot.getLongitudeDeg();
+				latitudes[t] = plot.getLatitudeDeg();
+			}
+		}
+
+		int nbColumns = zViX[0].length;
+		Matrix blups = new Matrix(nbPlots, 1);
+		Neighbourhood[] neighbourhoods = new Neighbourhood[nbPlots];
+		double[][] xViZg = new double[nbPlots][nbColumns];
+		for (int t = 0; t < nbPlots; t++) {
+			Neighbourhood neighbourhood = getNeighbourhood(plotIds[t], longitudes[t], latitudes[t]);
+			neighbourhoods[t] = neighbourhood;
+			double blup = 0d;
+			for (int k = 0; k < neighbourhood.plotIndices.length; k++) {
+				int q = neighbourhood.plotIndices[k];
+				double g = neighbourhood.covariances[k];
+				blup += g * plotWeights[q];
+				for (int c = 0; c < nbColumns; c++) {
+					xViZg[t][c] += g * zViX[q][c];
+				}
+			}
+			blups.setValueAt(t, 0, blup);
+		}
+
+		SymmetricMatrix varBlups = new SymmetricMatrix(nbPlots);
+		for (int t1 = 0; t1 < nbPlots; t1++) {
+			Neighbourhood n1 = neighbourhoods[t1];
+			for (int t2 = t1; t2 < nbPlots; t2++) {
+				Neighbourhood n2 = neighbourhoods[t2];
+				double value = plotIds[t1].equals(plotIds[t2]) ?
+						variance :
+						getCovariance(longitudes[t1], latitudes[t1], longitudes[t2], latitudes[t2]);
+				for (int k1 = 0; k1 < n1.plotIndices.length; k1++) {
+					double[] zViZRow = zViZ[n1.plotIndices[k1]];
+					double sum = 0d;
+					for (int k2 = 0; k2 < n2.plotIndices.length; k2++) {
+						sum += zViZRow[n2.plotIndices[k2]] * n2.covariances[k2];
+					}
+					value -= n1.covariances[k1] * sum;
+				}
+				for (int c1 = 0; c1 < nbColumns; c1++) {
+					for (int c2 = 0; c2 < nbColumns; c2++) {
+						value += xViZg[t1][c1] * omega.getValueAt(c1, c2) * xViZg[t2][c2];
+					}
+				}
+				varBlups.setValueAt(t1, t2, value);
+			}
+		}
+		return new GaussianEstimate(blups, varBlups);
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.mathilde.climate;
+
+import java.util.List;
+
+import repicea.simulation.HierarchicalLevel;
+
+/**
+ * This class wraps a MathildeClimatePlot instance in order to set the Monte Carlo
+ * realization to a particular id.
+ * @author agent - October 2026
+ */
+class MathildeClimatePlotRealization implements MathildeClimatePlot {
+
+	private final MathildeClimatePlot plot;
+	private final int realizationId;
+
+	MathildeClimatePlotRealization(MathildeClimatePlot plot, int realizationId) {
+		this.plot = plot;
+		this.realizationId = realizationId;
+	}
+
+	@Override
+	public String getSubjectId() {return plot.getSubjectId();}
+
+	@Override
+	public HierarchicalLevel getHierarchicalLevel() {return plot.getHierarchicalLevel();}
+
+	@Override
+	public int getMonteCarloRealizationId() {return realizationId;}
+
+	@Override
+	public int getDateYr() {return plot.getDateYr();}
+
+	@Override
+	public double getLatitudeDeg() {return plot.getLatitudeDeg();}
+
+	@Override
+	public double getLongitudeDeg() {return plot.getLongitudeDeg();}
+
+	@Override
+	public double getElevationM() {return plot.getElevationM();}
+
+	@Override
+	public int getGrowthStepLengthYr() {return plot.getGrowthStepLengthYr();}
+
+	@Override
+	public List<MathildeClimatePlot> getAllMathildeClimatePlots() {return plot.getAllMathildeClimatePlots();}
+
+	@Override
+	public int getNumberOfDroughtsDuringUpcomingGrowthStep() {return plot.getNumberOfDroughtsDuringUpcomingGrowthStep();}
+
+}
@@ -20,24 +20,28 @@ package lerfob.predictor.mathilde.climate;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
 import repicea.simulation.MonteCarloSimulationCompliantObject;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.simulation.climate.REpiceaClimateChangeGenerator;
 import repicea.simulation.climate.REpiceaClimateChangeTrend;
 import repicea.simulation.climate.REpiceaClimateVariableChangeMap;
 import repicea.simulation.climate.REpiceaClimateVariableMap;
 import repicea.simulation.climate.REpiceaClimateVariableMap.ClimateVariable;
+import repicea.stats.StatisticalUtility;
 import repicea.stats.distributions.StandardGaussianDistribution;
 import repicea.stats.estimates.Estimate;
 import repicea.stats.estimates.GaussianErrorTermEstimate;
@@ -66,7 +70,21 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 		ExpectedChangeByTheEndOfThe21stCentury.put(RepresentativeConcentrationPathway.RCP8_5, 6.0d);
 	}
 	
-	private static List<MathildeClimatePlot> referenceStands;
+	/*
+	 * The reference stands are read on the first call to the getReferenceStands method. The class
+	 * loader ensures that this is done only once. The file is not precompiled by the compileParameters 
+	 * task since its first field is the name of the experiment and the binary format of the 
+	 * PredictorParameterFile class only supports numerical values.
+	 */
+	private static class ReferenceStandsHolder {
+		private static final List<MathildeClimatePlot> ReferenceStands = Collections.unmodifiableList(readReferenceStands());
+	}
+	
+	/*
+	 * The kriging engines depend on the reference stands, the fixed effect parameters and the variance 
+	 * parameters. They are shared by the instances with the same parameters.
+	 */
+	private static final Map<List<Double>, MathildeClimateKrigingEngine> KrigingEngines = new ConcurrentHashMap<List<Double>, MathildeClimateKrigingEngine>();
 
 	private List<String> listStandID;
 	
@@ -76,6 +94,13 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 	
 	private RepresentativeConcentrationPathway rcp = RepresentativeConcentrationPathway.RCP2_6; // default rcp
 	
+	/*
+	 * The simulated parameters by realization id. They are drawn anew if the parameter estimates change.
+	 */
+	private final Map<Integer, double[]> simulatedParameters = new HashMap<Integer, double[]>();
+	private ModelParameterEstimates simulatedParametersSource;
+	private double[][] parametersLowerCholesky;
+	
 	
 	public MathildeClimatePredictor(boolean isVariabilityEnabled) {
 		this(isVariabilityEnabled, isVariabilityEnabled, isVariabilityEnabled);
@@ -102,12 +127,11 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 			String omegaFilename = path + "0_MathildeNewClimateOmega.csv";
 			String covparmsFilename = path + "0_MathildeNewClimateCovparms.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(betaFilename);
-			ParameterMap covparmsMap = ParameterLoader.loadVectorFromFile(covparmsFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(omegaFilename);	
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(betaFilename);
+			PredictorParameterMap covparmsMap = PredictorParameterCache.loadVectorFromFile(covparmsFilename);
 
 			Matrix defaultBetaMean = betaMap.get();
-			SymmetricMatrix omega = omegaMap.get().squareSym();
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(0, omegaFilename);
 			Matrix covparms = covparmsMap.get();
 
 			setDefaultResidualError(ErrorTermGroup.Default, new GaussianErrorTermEstimate(
@@ -127,51 +151,44 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 	}
 
 	/**
-	 * This method returns a copy of static member referenceStands.
+	 * This method returns the reference stands. The list is shared and cannot be modified.
 	 * @return a List of MathildeClimateStandImpl instances
 	 */
 	protected static List<MathildeClimatePlot> getReferenceStands() {
-		if (referenceStands == null) {
-			instantiateReferenceStands();
-		} 
-		List<MathildeClimatePlot> copyList = new ArrayList<MathildeClimatePlot>();
-		copyList.addAll(referenceStands);
-		return copyList;
+		return ReferenceStandsHolder.ReferenceStands;
 	}
 	
 	
-	private synchronized static void instantiateReferenceStands() {
+	private static List<MathildeClimatePlot> readReferenceStands() {
+		List<MathildeClimatePlot> referenceStands = new ArrayList<MathildeClimatePlot>();
 		CSVReader reader = null;
 		try {
-			if (referenceStands == null) {
-				referenceStands = new ArrayList<MathildeClimatePlot>();
-				String path = ObjectUtility.getRelativePackagePath(MathildeClimatePredictor.class);
-				String referenceStandsFilename = path + "dataBaseNewClimatePredictions.csv";
-				reader = new CSVReader(referenceStandsFilename);
-				Object[] record;
-	 			while ((record = reader.nextRecord()) != null) {
-	 				String experimentName = record[0].toString();
-	 				double xCoord = Double.parseDouble(record[1].toString());
-	 				double yCoord = Double.parseDouble(record[2].toString());
-	 				int dateYr = Integer.parseInt(record[3].toString());
-	 				int growthStepLengthYr = Integer.parseInt(record[4].toString());
-	 				int nbDroughtsInUpcomingGrowthStep = Integer.parseInt(record[5].toString());
-	 				double meanTempGrowthSeason = Double.parseDouble(record[6].toString());
-	 				double predicted = Double.parseDouble(record[7].toString());
-	 				double stdErrPred = Double.parseDouble(record[8].toString());
-	 				double scaledResid = Double.parseDouble(record[9].toString());
-	 				MathildeClimatePlotImpl stand = new MathildeClimatePlotImpl(experimentName, 
-	 						xCoord, 
-	 						yCoord, 
-	 						dateYr, 
-	 						growthStepLengthYr,
-	 						nbDroughtsInUpcomingGrowthStep,
-	 						meanTempGrowthSeason, 
-	 						predicted,
-	 						stdErrPred * stdErrPred,
-	 						scaledResid);
-	 				referenceStands.add(stand);
-	 			}
+			String path = ObjectUtility.getRelativePackagePath(MathildeClimatePredictor.class);
+			String referenceStandsFilename = path + "dataBaseNewClimatePredictions.csv";
+			reader = new CSVReader(referenceStandsFilename);
+			Object[] record;
+ 			while ((record = reader.nextRecord()) != null) {
+ 				String experimentName = record[0].toString();
+ 				double xCoord = Double.parseDouble(record[1].toString());
+ 				double yCoord = Double.parseDouble(record[2].toString());
+ 				int dateYr = Integer.parseInt(record[3].toString());
+ 				int growthStepLengthYr = Integer.parseInt(record[4].toString());
+ 				int nbDroughtsInUpcomingGrowthStep = Integer.parseInt(record[5].toString());
+ 				double meanTempGrowthSeason = Double.parseDouble(record[6].toString());
+ 				double predicted = Double.parseDouble(record[7].toString());
+ 				double stdErrPred = Double.parseDouble(record[8].toString());
+ 				double scaledResid = Double.parseDouble(record[9].toString());
+ 				MathildeClimatePlotImpl stand = new MathildeClimatePlotImpl(experimentName, 
+ 						xCoord, 
+ 						yCoord, 
+ 						dateYr, 
+ 						growthStepLengthYr,
+ 						nbDroughtsInUpcomingGrowthStep,
+ 						meanTempGrowthSeason, 
+ 						predicted,
+ 						stdErrPred * stdErrPred,
+ 						scaledResid);
+ 				referenceStands.add(stand);
 			}
 		} catch (Exception e) {
 			System.out.println("Unable to instantiate the reference stand list in MathildeClimatePredictor class!");
@@ -180,16 +197,30 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 				reader.close();
 			}
 		}
+		return referenceStands;
 	}
 
-	protected final synchronized double getFixedEffectPrediction(MathildeClimatePlot plot, Matrix currentBeta, Matrix rcpModifiedBeta) {
+	protected final double getFixedEffectPrediction(MathildeClimatePlot plot, Matrix currentBeta, Matrix rcpModifiedBeta) {
+		return getFixedEffectPrediction(plot, currentBeta, rcpModifiedBeta.getValueAt(1, 0));
+	}
+	
+	private synchronized double getFixedEffectPrediction(MathildeClimatePlot plot, Matrix currentBeta, double rcpModifiedTrend) {
 		oXVector.resetMatrix();
-		double dateMinus1950 = plot.getDateYr() > 2015 ? 2015 - 1950 : plot.getDateYr() - 1950; 
-		
-		double nbYearsAfter2015 = plot.getDateYr() > 2015 ? plot.getDateYr() - 2015 : 0d;
-		if (nbYearsAfter2015 > 85) {
-			nbYearsAfter2015 = 85;		// after 2100 the climate stabilizes
+		double[] design = getDesign(plot);
+		for (int i = 0; i < design.length; i++) {
+			oXVector.setValueAt(0, i, design[i]);
 		}
+		
+		double pred = oXVector.multiply(currentBeta).getValueAt(0, 0) + getNumberOfYearsAfter2015(plot) * rcpModifiedTrend;
+		
+		return pred;
+	}
+	
+	/*
+	 * Returns the design vector of the fixed effects, namely the intercept, the date and the frequency of droughts.
+	 */
+	private static double[] getDesign(MathildeClimatePlot plot) {
+		double dateMinus1950 = plot.getDateYr() > 2015 ? 2015 - 1950 : plot.getDateYr() - 1950; 
 //		double dateMinus1950 = plot.getDateYr() - 1950;
 
 		if (dateMinus1950 < 0d) {		// if the date is earlier than 1950 then we set it to 1950
@@ -199,18 +230,15 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 		double growthStepLength = plot.getGrowthStepLengthYr();
 		double nbDroughts = plot.getNumberOfDroughtsDuringUpcomingGrowthStep();
 		
-		
-		int pointer = 0;
-		oXVector.setValueAt(0, pointer, 1d);
-		pointer++;
-		oXVector.setValueAt(0, pointer, dateMinus1950);
-		pointer++;
-		oXVector.setValueAt(0, pointer, nbDroughts / growthStepLength);
-		pointer++;
-		
-		double pred = oXVector.multiply(currentBeta).getValueAt(0, 0) + nbYearsAfter2015 * rcpModifiedBeta.getValueAt(1, 0);
-		
-		return pred;
+		return new double[] {1d, dateMinus1950, nbDroughts / growthStepLength};
+	}
+	
+	private static double getNumberOfYearsAfter2015(MathildeClimatePlot plot) {
+		double nbYearsAfter2015 = plot.getDateYr() > 2015 ? plot.getDateYr() - 2015 : 0d;
+		if (nbYearsAfter2015 > 85) {
+			nbYearsAfter2015 = 85;		// after 2100 the climate stabilizes
+		}
+		return nbYearsAfter2015;
 	}
 	
 	/**
@@ -223,8 +251,7 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 			predictBlups(stand);
 		}
 		Matrix currentBeta = getParametersForThisRealization(stand);
-		Matrix rcpModifiedBeta = getParametersForThisRealization(stand, rcp);
-		double pred = getFixedEffectPrediction(stand, currentBeta, rcpModifiedBeta);
+		double pred = getFixedEffectPrediction(stand, currentBeta, currentBeta.getValueAt(1, 0) * getRCPFactor(rcp));
 		double randomEffect = getRandomEffectsForThisSubject(stand).getValueAt(0, 0);
 		pred += randomEffect;
 		double residualError = getResidualError().getValueAt(0, 0) / Math.sqrt(stand.getGrowthStepLengthYr());
@@ -232,11 +259,139 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 		return pred;
 	}
 	
+	/**
+	 * This method returns the mean temperature of the growth season for the upcoming growth interval and for 
+	 * a series of consecutive Monte Carlo realizations. The parameters of all the realizations are drawn in a 
+	 * single pass and so are the residual errors. The blups are predicted once and the deviates of the random 
+	 * effects are drawn jointly for all the plots returned by the getAllMathildeClimatePlots method. Consequently, 
+	 * the other plots can be processed in the same way without drawing new deviates. The realizations are 
+	 * consistent with those of the getClimateVariables method.
+	 * @param plot a MathildeClimatePlot instance
+	 * @param firstRealizationId the id of the first realization
+	 * @param nbRealizations the number of realizations
+	 * @return an array of double with the temperature of each realization
+	 */
+	public double[] getMeanGrowingSeasonTemperatures(MathildeClimatePlot plot, int firstRealizationId, int nbRealizations) {
+		if (nbRealizations < 1) {
+			throw new InvalidParameterException("The number of realizations must be strictly positive!");
+		}
+		if (!doBlupsExistForThisSubject(plot)) {
+			predictBlups(plot);
+		}
+		double rcpFactor = getRCPFactor(rcp);
+		double[] design = getDesign(plot);		// the realizations share the same covariates
+		double nbYearsAfter2015 = getNumberOfYearsAfter2015(plot);
+		double[] temperatures = new double[nbRealizations];
+		if (isParametersVariabilityEnabled) {
+			double[][] parameters = getSimulatedParameters(firstRealizationId, nbRealizations);
+			for (int k = 0; k < nbRealizations; k++) {
+				temperatures[k] = computeFixedEffectPrediction(design, nbYearsAfter2015, rcpFactor, parameters[k]);
+			}
+		} else {
+			Matrix mean = getParameterEstimates().getMean();
+			double[] beta = new double[mean.m_iRows];
+			for (int i = 0; i < beta.length; i++) {
+				beta[i] = mean.getValueAt(i, 0);
+			}
+			Arrays.fill(temperatures, computeFixedEffectPrediction(design, nbYearsAfter2015, rcpFactor, beta));
+		}
+		if (isRandomEffectsVariabilityEnabled) {
+			for (int k = 0; k < nbRealizations; k++) {
+				temperatures[k] += getRandomEffectsForThisSubject(new MathildeClimatePlotRealization(plot, firstRealizationId + k)).getValueAt(0, 0);
+			}
+		} else {
+			double blup = getRandomEffectsForThisSubject(plot).getValueAt(0, 0);
+			for (int k = 0; k < nbRealizations; k++) {
+				temperatures[k] += blup;
+			}
+		}
+		if (isResidualVariabilityEnabled) {
+			double residualStdDev = Math.sqrt(getDefaultResidualError(ErrorTermGroup.Default).getVariance().getValueAt(0, 0) / plot.getGrowthStepLengthYr());
+			for (int k = 0; k < nbRealizations; k++) {
+				temperatures[k] += StatisticalUtility.getRandom().nextGaussian() * residualStdDev;
+			}
+		}
+		return temperatures;
+	}
+	
+	private static double computeFixedEffectPrediction(double[] design, double nbYearsAfter2015, double rcpFactor, double[] beta) {
+		double pred = 0d;
+		for (int i = 0; i < design.length; i++) {
+			pred += design[i] * beta[i];
+		}
+		return pred + nbYearsAfter2015 * beta[1] * rcpFactor;
+	}
+	
+	/*
+	 * The parameters are simulated through the same map whether they are requested one realization at 
+	 * a time or for a series of realizations.
+	 */
+	@Override
+	protected Matrix getParametersForThisRealization(MonteCarloSimulationCompliantObject subject) {
+		if (isParametersVariabilityEnabled) {
+			double[] parameters = getSimulatedParameters(subject.getMonteCarloRealizationId(), 1)[0];
+			Matrix currentBeta = new Matrix(parameters.length, 1);
+			for (int i = 0; i < parameters.length; i++) {
+				currentBeta.setValueAt(i, 0, parameters[i]);
+			}
+			return currentBeta;
+		} else {
+			return super.getParametersForThisRealization(subject);
+		}
+	}
+
+	/*
+	 * Returns the parameters of a series of consecutive realizations. Those that have not been simulated 
+	 * yet are drawn in a single pass from the lower Cholesky factor of the variance of the parameter estimates. 
+	 * The arrays are shared and must not be modified.
+	 */
+	private synchronized double[][] getSimulatedParameters(int firstRealizationId, int nbRealizations) {
+		ModelParameterEstimates estimates = getParameterEstimates();
+		if (estimates != simulatedParametersSource) {		// the parameter estimates have changed since the last draws
+			Matrix variance = estimates.getVariance();
+			double[][] varianceArray = new double[variance.m_iRows][variance.m_iCols];
+			for (int i = 0; i < variance.m_iRows; i++) {
+				for (int j = 0; j < variance.m_iCols; j++) {
+					varianceArray[i][j] = variance.getValueAt(i, j);
+				}
+			}
+			parametersLowerCholesky = MathildeClimateKrigingEngine.getLowerCholeskyFactor(varianceArray);
+			simulatedParameters.clear();
+			simulatedParametersSource = estimates;
+		}
+		Matrix mean = estimates.getMean();
+		int nbParameters = mean.m_iRows;
+		double[] deviates = new double[nbParameters];
+		double[][] parameters = new double[nbRealizations][];
+		for (int k = 0; k < nbRealizations; k++) {
+			int realizationId = firstRealizationId + k;
+			double[] beta = simulatedParameters.get(realizationId);
+			if (beta == null) {
+				for (int i = 0; i < nbParameters; i++) {
+					deviates[i] = StatisticalUtility.getRandom().nextGaussian();
+				}
+				beta = new double[nbParameters];
+				for (int i = 0; i < nbParameters; i++) {
+					double value = mean.getValueAt(i, 0);
+					for (int j = 0; j <= i; j++) {
+						value += parametersLowerCholesky[i][j] * deviates[j];
+					}
+					beta[i] = value;
+				}
+				simulatedParameters.put(realizationId, beta);
+			}
+			parameters[k] = beta;
+		}
+		return parameters;
+	}
+	
+	private static double getRCPFactor(RepresentativeConcentrationPathway rcp) {
+		return MathildeClimatePredictor.ExpectedChangeByTheEndOfThe21stCentury.get(rcp) / MathildeClimatePredictor.ExpectedChangeByTheEndOfThe21stCentury.get(RepresentativeConcentrationPathway.RCP2_6);
+	}
+	
 	private Matrix getParametersForThisRealization(MathildeClimatePlot stand, RepresentativeConcentrationPathway rcp) {
 		Matrix currentBeta = getParametersForThisRealization(stand).getDeepClone();
-		double rcpFactor = MathildeClimatePredictor.ExpectedChangeByTheEndOfThe21stCentury.get(rcp) / MathildeClimatePredictor.ExpectedChangeByTheEndOfThe21stCentury.get(RepresentativeConcentrationPathway.RCP2_6);
-		
-		currentBeta.setValueAt(1, 0, currentBeta.getValueAt(1, 0) * rcpFactor);
+		currentBeta.setValueAt(1, 0, currentBeta.getValueAt(1, 0) * getRCPFactor(rcp));
 		return currentBeta;
 	}
 
@@ -276,92 +431,58 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 		return residualVariance;
 	}
 	
+	/*
+	 * The engine is retrieved from the parameters it depends on, so that a call to the 
+	 * setParameterEstimates method does not leave an outdated engine.
+	 */
+	final synchronized MathildeClimateKrigingEngine getKrigingEngine() {
+		return KrigingEngines.computeIfAbsent(getKrigingEngineKey(), k -> createKrigingEngine());
+	}
+	
+	private List<Double> getKrigingEngineKey() {
+		List<Double> key = new ArrayList<Double>();
+		Matrix defaultBeta = getParameterEstimates().getMean();
+		for (int i = 0; i < defaultBeta.m_iRows; i++) {
+			key.add(defaultBeta.getValueAt(i, 0));
+		}
+		key.add(getDefaultRandomEffects(HierarchicalLevel.PLOT).getVariance().getValueAt(0, 0));
+		key.add(rho);
+		key.add(getDefaultResidualError(ErrorTermGroup.Default).getVariance().getValueAt(0, 0));
+		return key;
+	}
+	
+	/*
+	 * For test purpose. The engines are created again on the next request.
+	 */
+	static void clearKrigingEngines() {
+		KrigingEngines.clear();
+	}
+	
+	private MathildeClimateKrigingEngine createKrigingEngine() {
+		List<MathildeClimatePlot> stands = getReferenceStands();
+		int knownStandIndex = stands.size();
+		Matrix defaultBeta = getParameterEstimates().getMean();
+		double[] residuals = new double[knownStandIndex];
+		double[][] designMatrix = new double[knownStandIndex][];
+		for (int i = 0; i < knownStandIndex; i++) {
+			MathildeClimatePlotImpl standImpl = (MathildeClimatePlotImpl) stands.get(i);
+			residuals[i] = standImpl.meanAnnualTempAbove6C - getFixedEffectPredictionWithoutRCP(standImpl, defaultBeta);
+			double[] design = getDesign(standImpl);
+			designMatrix[i] = new double[] {design[0], design[1]};	// only the intercept and the date enter the variance of the blups
+		}
+		double variance = getDefaultRandomEffects(HierarchicalLevel.PLOT).getVariance().getValueAt(0, 0);
+		double residualVariance = getDefaultResidualError(ErrorTermGroup.Default).getVariance().getValueAt(0, 0);
+		return new MathildeClimateKrigingEngine(stands, residuals, designMatrix, variance, rho, residualVariance);
+	}
+	
 	private synchronized void predictBlups(MathildeClimatePlot stand) {
 		if (!doBlupsExistForThisSubject(stand)) {
-			List<MathildeClimatePlot> stands = getReferenceStands();
-			int knownStandIndex = stands.size();
 			List<MathildeClimatePlot> standsForWhichBlupsWillBePredicted = stand.getAllMathildeClimatePlots();
-			stands.addAll(standsForWhichBlupsWillBePredicted);
-			
-			List<String> tempListStandID = new ArrayList<String>();
-			Map<String, MathildeClimatePlot> uniqueStandMap = new HashMap<String, MathildeClimatePlot>();
-			for (MathildeClimatePlot s : stands) {
-				if (!tempListStandID.contains(s.getSubjectId())) {
-					tempListStandID.add(s.getSubjectId());
-					uniqueStandMap.put(s.getSubjectId(), s);
-				}
-			}
-
-			Matrix defaultBeta = getParameterEstimates().getMean();
-			Matrix omega = getParameterEstimates().getVariance();
-			Matrix residuals = new Matrix(knownStandIndex,1);
-			
-			Matrix matX = new Matrix(stands.size(), oXVector.m_iCols);
-			Matrix matL = new Matrix(stands.size(),1);
-			
-			for (int i = 0; i < knownStandIndex; i++) {
-				MathildeClimatePlotImpl standImpl = (MathildeClimatePlotImpl) stands.get(i);
-				residuals.setValueAt(i, 0, standImpl.meanAnnualTempAbove6C - getFixedEffectPredictionWithoutRCP(standImpl, defaultBeta));
-			}
-
-			
-			Matrix matZ = new Matrix(stands.size(), tempListStandID.size());
-			for (int i = 0; i < stands.size(); i++) {
-				Matrix z_i = new Matrix(1, tempListStandID.size());
-				MathildeClimatePlot s = stands.get(i);
-				z_i.setValueAt(0, tempListStandID.indexOf(s.getSubjectId()), 1d);
-				matZ.setSubMatrix(z_i, i, 0);
-				getFixedEffectPredictionWithoutRCP(s, defaultBeta);
-				matX.setSubMatrix(oXVector.getSubMatrix(0, 0, 0, 1), i, 0);
-				matL.setValueAt(i, 0, 1d / s.getGrowthStepLengthYr());
-			}
-			
-			Matrix matG = new Matrix(tempListStandID.size(), tempListStandID.size());
-			
-			double variance = getDefaultRandomEffects(HierarchicalLevel.PLOT).getVariance().getValueAt(0, 0);
-			for (int i = 0; i < matG.m_iRows; i++) {
-				for (int j = i; j < matG.m_iRows; j++) {
-					if (i == j) {
-						matG.setValueAt(i, j, variance);
-					} else {
-						MathildeClimatePlot stand1 = uniqueStandMap.get(tempListStandID.get(i));
-						MathildeClimatePlot stand2 = uniqueStandMap.get(tempListStandID.get(j));
-						double y_resc1 = stand1.getLatitudeDeg();
-						double x_resc1 = stand1.getLongitudeDeg();
-						double y_resc2 = stand2.getLatitudeDeg();
-						double x_resc2 = stand2.getLongitudeDeg();
-						double y_diff = y_resc1 - y_resc2;
-						double x_diff = x_resc1 - x_resc2;
-						double d = Math.sqrt(y_diff * y_diff + x_diff * x_diff);
-						double correlation = 0d;
-						if (d <= rho) {
-							correlation = variance * (1 - 3*d/(2*rho) + d*d*d/(2*rho*rho*rho));
-						}
-						matG.setValueAt(i, j, correlation);
-						matG.setValueAt(j, i, correlation);
-					}
-				}
-			}
-			double residualVariance = getDefaultResidualError(ErrorTermGroup.Default).getVariance().getValueAt(0, 0);
-//			Matrix matR = Matrix.getIdentityMatrix(stands.size()).scalarMultiply(residualVariance);
-			Matrix matR = matL.matrixDiagonal().scalarMultiply(residualVariance);
-			Matrix matV = matZ.multiply(matG).multiply(matZ.transpose()).add(matR); 
-
-			Matrix invVk = matV.getSubMatrix(0, knownStandIndex - 1, 0, knownStandIndex-1).getInverseMatrix();
-			Matrix matXk = matX.getSubMatrix(0, knownStandIndex - 1, 0, matX.m_iCols - 1);
-			Matrix covV = matV.getSubMatrix(knownStandIndex, matV.m_iRows - 1, 0, knownStandIndex-1);
-			Matrix blups = covV.multiply(invVk).multiply(residuals);
-			
-			Matrix matVu = matV.getSubMatrix(knownStandIndex, matV.m_iRows - 1, knownStandIndex, matV.m_iCols - 1);
-			Matrix matRu = matR.getSubMatrix(knownStandIndex, matR.m_iRows - 1, knownStandIndex, matR.m_iCols - 1);
-			
-			Matrix varBlupsFirstTerm = matVu.subtract(covV.multiply(invVk).multiply(covV.transpose())).subtract(matRu);
-			Matrix covariance = covV.multiply(invVk).multiply(matXk).multiply(omega).scalarMultiply(-1d);
-			Matrix varBlupsSecondTerm = covariance.multiply(matXk.transpose()).multiply(invVk).multiply(covV.transpose());
-			SymmetricMatrix varBlups = SymmetricMatrix.convertToSymmetricIfPossible(
-					varBlupsFirstTerm.subtract(varBlupsSecondTerm));
+			GaussianEstimate blupEstimate = getKrigingEngine().predictBlups(standsForWhichBlupsWillBePredicted, getParameterEstimates().getVariance());
+			Matrix blups = blupEstimate.getMean();
+			SymmetricMatrix varBlups = blupEstimate.getVariance();
 			
-			this.blups = new GaussianEstimate(blups, varBlups);
+			this.blups = blupEstimate;
 			listStandID = new ArrayList<String>();
 			for (int index = 0; index < standsForWhichBlupsWillBePredicted.size(); index++) {
 				MathildeClimatePlot plot = standsForWhichBlupsWillBePredicted.get(index); 
@@ -379,9 +500,10 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 		if (listStandID.contains(subject.getSubjectId())) {
 			Matrix simulatedBlups = blups.getRandomDeviate();
 			List<MathildeClimatePlot> standList = ((MathildeClimatePlot) subject).getAllMathildeClimatePlots();
+			int realizationId = subject.getMonteCarloRealizationId();
 			for (MathildeClimatePlot s : standList) {
 				int index = listStandID.indexOf(s.getSubjectId());
-				setDeviatesForRandomEffectsOfThisSubject(s, simulatedBlups.getSubMatrix(index, index, 0, 0));
+				setDeviatesForRandomEffectsOfThisSubject(new MathildeClimatePlotRealization(s, realizationId), simulatedBlups.getSubMatrix(index, index, 0, 0));
 			}
 			return simulatedBlups.getDeepClone();
 		} else {
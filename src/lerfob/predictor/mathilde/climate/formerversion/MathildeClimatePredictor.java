@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.mathilde.climate.MathildeClimatePlot;
 import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
@@ -31,8 +33,6 @@ import repicea.math.SymmetricMatrix;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
 import repicea.simulation.MonteCarloSimulationCompliantObject;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.simulation.climate.REpiceaClimateChangeGenerator;
 import repicea.simulation.climate.REpiceaClimateChangeTrend;
@@ -80,12 +80,11 @@ public class MathildeClimatePredictor extends REpiceaPredictor implements REpice
 			String omegaFilename = path + "0_MathildeClimateOmega.csv";
 			String covparmsFilename = path + "0_MathildeClimateCovparms.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(betaFilename);
-			ParameterMap covparmsMap = ParameterLoader.loadVectorFromFile(covparmsFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(omegaFilename);	
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(betaFilename);
+			PredictorParameterMap covparmsMap = PredictorParameterCache.loadVectorFromFile(covparmsFilename);
 
 			Matrix defaultBetaMean = betaMap.get();
-			SymmetricMatrix omega = omegaMap.get().squareSym();
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(0, omegaFilename);
 			Matrix covparms = covparmsMap.get();
 
 			setDefaultResidualError(ErrorTermGroup.Default, new GaussianErrorTermEstimate(
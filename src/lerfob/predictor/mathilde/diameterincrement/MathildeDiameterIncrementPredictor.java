@@ -18,13 +18,21 @@
  */
 package lerfob.predictor.mathilde.diameterincrement;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
 import lerfob.predictor.hdrelationships.FrenchHeightPredictor;
 import lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2014.FrenchHDRelationship2014Stand;
+import lerfob.predictor.mathilde.MathildeSpeciesCoefficients;
 import lerfob.predictor.mathilde.MathildeTree;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.math.Matrix;
@@ -33,8 +41,6 @@ import repicea.simulation.GrowthModel;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
 import repicea.simulation.MonteCarloSimulationCompliantObject;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.simulation.REpiceaPredictorEvent;
 import repicea.simulation.REpiceaPredictorEvent.ModelBasedSimulatorEventProperty;
@@ -47,7 +53,11 @@ import repicea.stats.estimates.TruncatedGaussianEstimate;
 import repicea.util.ObjectUtility;
 
 /**
- * This class contains the diameter increment module of Mathilde growth simulator.
+ * This class contains the diameter increment module of Mathilde growth simulator.<br>
+ * <br>
+ * In deterministic mode, a single instance can serve several threads. In stochastic mode, the 
+ * parameters, the random effects and the residual errors are drawn and stored in maps that are
+ * not synchronized. Each thread should then use its own instance.
  * @see <a href=https://academic.oup.com/forestry/article/88/5/540/521744/Effect-of-climate-and-intra-and-inter-specific> 
 	 Manso, R., Morneau, F., Ningre, F., and Fortin, M. 2015. Effect of climate and intra- and inter-specific competition on diameter 
 	 increment in beech and oak stands. Forestry 88: 540-551</a>
@@ -69,8 +79,18 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 	
 	private static double CorrelationRandomEffectsHeightDiameterGrowth = 0.4;
 
+	private static final int NumberOfTreeLevelCovariates = 7;
+	private static final int NumberOfStandLevelParameters = 5;
+	
+	private static final MathildeSpeciesCoefficients.Compiler SpeciesCoefficientsCompiler = MathildeDiameterIncrementPredictor::compileSpeciesCoefficients;
+
 	protected final Map<Integer, MathildeDiameterIncrementSubModule> subModules;
 
+	private int numberOfParameters;
+	private int numberOfSubModules;
+	
+	private transient PredictorParameterMap betaMap;
+	private transient PredictorParameterMap covparmsMap;
 	
 	/**
 	 * The MathildeDiameterIncrementPredictor class implements the diameter increment model fitted with the
@@ -90,7 +110,7 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 	 */
 	MathildeDiameterIncrementPredictor(boolean isParameterVariabilityEnabled, boolean isRandomEffectVariabilityEnabled, boolean isResidualVariabilityEnabled) {
 		super(isParameterVariabilityEnabled, isRandomEffectVariabilityEnabled, isResidualVariabilityEnabled);
-		subModules = new HashMap<Integer, MathildeDiameterIncrementSubModule>();
+		subModules = new ConcurrentHashMap<Integer, MathildeDiameterIncrementSubModule>();
 		init();
 	}
 
@@ -98,53 +118,69 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 	@Override
 	protected final void init() {
 		try {
-			String path = ObjectUtility.getRelativePackagePath(getClass());
-			String betaFilename = path + "0_MathildeDbhIncBeta.csv";
-			String omegaFilename = path + "0_MathildeDbhIncOmega.csv";
-			String covparmsFilename = path + "0_MathildeDbhIncCovParms.csv";
-			
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1,betaFilename);
-			ParameterMap covparmsMap = ParameterLoader.loadVectorFromFile(1,covparmsFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);	
-			
-			int numberOfParameters = -1;
-			int numberOfExcludedGroups = 10;		
-			
-			for (int excludedGroup = 0; excludedGroup <= numberOfExcludedGroups; excludedGroup++) {			//
-				Matrix defaultBetaMean = betaMap.get(excludedGroup);
-				if (numberOfParameters == -1) {
-					numberOfParameters = defaultBetaMean.m_iRows;
-				}
-				SymmetricMatrix omega = omegaMap.get(excludedGroup).squareSym();
-
-				MathildeDiameterIncrementSubModule subModule = new MathildeDiameterIncrementSubModule(isParametersVariabilityEnabled, isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
-				subModules.put(excludedGroup, subModule);
-
-				subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, omega));
-	
-				Matrix covParms = covparmsMap.get(excludedGroup);
-				
-				Matrix meanPlotRandomEffect = new Matrix(1,1);
-				SymmetricMatrix varPlotRandomEffect = SymmetricMatrix.convertToSymmetricIfPossible(covParms.getSubMatrix(0, 0, 0, 0));
-				subModule.setDefaultRandomEffects(HierarchicalLevel.PLOT, new GaussianEstimate(meanPlotRandomEffect, varPlotRandomEffect));
-				
-				Matrix meanTreeRandomEffect = new Matrix(1,1);
-				SymmetricMatrix varTreeRandomEffect = SymmetricMatrix.convertToSymmetricIfPossible(covParms.getSubMatrix(1, 1, 0, 0));
-				subModule.setDefaultRandomEffects(HierarchicalLevel.TREE, new GaussianEstimate(meanTreeRandomEffect, varTreeRandomEffect));
-				
-				SymmetricMatrix varResidualError = SymmetricMatrix.convertToSymmetricIfPossible(covParms.getSubMatrix(2, 2, 0, 0));
-				
-				subModule.setDefaultResidualError(ErrorTermGroup.Default, new GaussianErrorTermEstimate(varResidualError));
-				
-				subModule.errorTotalVariance = covParms.getValueAt(0, 0) + covParms.getValueAt(1, 0) + covParms.getValueAt(2, 0);
+			loadParameterMaps();
+			numberOfParameters = betaMap.get(0).m_iRows;
+			numberOfSubModules = 0;
+			while (betaMap.contains(numberOfSubModules)) {
+				numberOfSubModules++;
 			}
-
-			oXVector = new Matrix(1, numberOfParameters);
+			getSubModule(0);		// the other submodules are created on demand
 		} catch (Exception e) {
 			System.out.println("MathildeDiameterIncrementPredictor.init() : Unable to initialize the MathildeDiameterIncrementPredictor module");
 		}
 	}
 
+	private void loadParameterMaps() throws IOException {
+		String path = ObjectUtility.getRelativePackagePath(getClass());
+		String betaFilename = path + "0_MathildeDbhIncBeta.csv";
+		String covparmsFilename = path + "0_MathildeDbhIncCovParms.csv";
+		
+		betaMap = PredictorParameterCache.loadVectorFromFile(1,betaFilename);
+		covparmsMap = PredictorParameterCache.loadVectorFromFile(1,covparmsFilename);
+	}
+	
+	/*
+	 * Creates the submodule of a particular excluded group of the cross validation. The omega matrix
+	 * is only expanded at this stage.
+	 */
+	private MathildeDiameterIncrementSubModule createSubModule(int excludedGroup) {
+		try {
+			if (betaMap == null) {		// after deserialization
+				loadParameterMaps();
+			}
+			Matrix defaultBetaMean = betaMap.get(excludedGroup);
+			if (defaultBetaMean == null) {
+				return null;
+			}
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(1, 
+					ObjectUtility.getRelativePackagePath(getClass()) + "0_MathildeDbhIncOmega.csv", 
+					excludedGroup);
+
+			MathildeDiameterIncrementSubModule subModule = new MathildeDiameterIncrementSubModule(isParametersVariabilityEnabled, isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
+
+			subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, omega));
+
+			Matrix covParms = covparmsMap.get(excludedGroup);
+			
+			Matrix meanPlotRandomEffect = new Matrix(1,1);
+			SymmetricMatrix varPlotRandomEffect = SymmetricMatrix.convertToSymmetricIfPossible(covParms.getSubMatrix(0, 0, 0, 0));
+			subModule.setDefaultRandomEffects(HierarchicalLevel.PLOT, new GaussianEstimate(meanPlotRandomEffect, varPlotRandomEffect));
+			
+			Matrix meanTreeRandomEffect = new Matrix(1,1);
+			SymmetricMatrix varTreeRandomEffect = SymmetricMatrix.convertToSymmetricIfPossible(covParms.getSubMatrix(1, 1, 0, 0));
+			subModule.setDefaultRandomEffects(HierarchicalLevel.TREE, new GaussianEstimate(meanTreeRandomEffect, varTreeRandomEffect));
+			
+			SymmetricMatrix varResidualError = SymmetricMatrix.convertToSymmetricIfPossible(covParms.getSubMatrix(2, 2, 0, 0));
+			
+			subModule.setDefaultResidualError(ErrorTermGroup.Default, new GaussianErrorTermEstimate(varResidualError));
+			
+			subModule.errorTotalVariance = covParms.getValueAt(0, 0) + covParms.getValueAt(1, 0) + covParms.getValueAt(2, 0);
+			return subModule;
+		} catch (IOException e) {
+			throw new UncheckedIOException("MathildeDiameterIncrementPredictor.createSubModule() : Unable to create the submodule for group: " + excludedGroup, e);
+		}
+	}
+	
 	/*
 	 * For tests only
 	 * @param stand
@@ -152,12 +188,89 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 	 * @return
 	 */
 	protected double getFixedEffectOnlyPrediction(MathildeDiameterIncrementStand stand, MathildeTree tree) {
-		Matrix currentBeta = subModules.get(0).getParameters(stand);
-		return getFixedEffectOnlyPrediction(currentBeta, stand, tree);
+		MathildeSpeciesCoefficients coefficients = getSubModule(0).getSpeciesCoefficients(stand, SpeciesCoefficientsCompiler);
+		return getFixedEffectOnlyPrediction(coefficients, stand, tree);
 	}
 	
-	protected synchronized double getFixedEffectOnlyPrediction(Matrix currentBeta, MathildeDiameterIncrementStand stand, MathildeTree tree) {
-		oXVector.resetMatrix();
+	/*
+	 * Collapses the species interactions of the beta vector. The returned array is indexed by the ordinal 
+	 * of the MathildeTreeSpecies enum and then by the covariate, namely the intercept, ln(dbh), dbh, the upcoming cut, 
+	 * BAL of oak, BAL of beech and the square of BAL of beech. The last five elements are the stand-level
+	 * parameters, which are the same for all species.
+	 */
+	private static double[][] compileSpeciesCoefficients(Matrix currentBeta) {
+		int nbSpecies = MathildeTreeSpecies.values().length;
+		double[][] coefficients = new double[nbSpecies][NumberOfTreeLevelCovariates + NumberOfStandLevelParameters];
+		int blockSize = nbSpecies;		// the main effect plus the three dummy variables of the short dummy vector
+		int standLevelPointer = NumberOfTreeLevelCovariates * blockSize;
+		for (int s = 0; s < nbSpecies; s++) {
+			for (int k = 0; k < NumberOfTreeLevelCovariates; k++) {
+				double coef = currentBeta.getValueAt(k * blockSize, 0);
+				if (s > 0) {
+					coef += currentBeta.getValueAt(k * blockSize + s, 0);
+				}
+				coefficients[s][k] = coef;
+			}
+			for (int k = 0; k < NumberOfStandLevelParameters; k++) {
+				coefficients[s][NumberOfTreeLevelCovariates + k] = currentBeta.getValueAt(standLevelPointer + k, 0);
+			}
+		}
+		return coefficients;
+	}
+
+	private static double getStandLevelPrediction(double[] coef, MathildeDiameterIncrementStand stand) {
+		double tIntervalVeg6 = stand.getMeanSeasonalTemperatureCelsius();
+		int pointer = NumberOfTreeLevelCovariates;
+		double b91 = coef[pointer++];
+		double b81 = coef[pointer++];
+		double b82 = coef[pointer++];
+		double b3 = coef[pointer++];
+		double b32 = coef[pointer++];
+		return b91 * stand.getGrowthStepLengthYr() 
+				+ b81 * tIntervalVeg6 + b82 * tIntervalVeg6 * tIntervalVeg6
+				+ b3 * Math.exp(b32 * stand.getBasalAreaM2Ha());
+	}
+	
+	/*
+	 * Computes the fixed-effect prediction as a dot product over the collapsed coefficients of the 
+	 * species. This is equivalent to the design vector approach below.
+	 */
+	protected double getFixedEffectOnlyPrediction(MathildeSpeciesCoefficients coefficients, MathildeDiameterIncrementStand stand, MathildeTree tree) {
+		return getFixedEffectOnlyPrediction(coefficients.getCoefficients(tree.getMathildeTreeSpecies()), 
+				stand, 
+				tree.getLnDbhCm(), 
+				tree.getDbhCm(), 
+				tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS), 
+				tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS));
+	}
+
+	private static double getFixedEffectOnlyPrediction(double[] coef, 
+			MathildeDiameterIncrementStand stand, 
+			double lnDbhCm, 
+			double dbhCm, 
+			double bal22, 
+			double bal42) {
+		double upcomingCut = 0d;
+		if (stand.isGoingToBeHarvested()) {
+			upcomingCut = 1d;
+		}
+		return coef[0] 
+				+ coef[1] * lnDbhCm 
+				+ coef[2] * dbhCm 
+				+ coef[3] * upcomingCut 
+				+ coef[4] * bal22 
+				+ coef[5] * bal42 
+				+ coef[6] * bal42 * bal42
+				+ getStandLevelPrediction(coef, stand);
+	}
+	
+	/*
+	 * Full design vector implementation. It is no longer used for the predictions but it is kept 
+	 * to validate the collapsed coefficients. The design vector is local to the call so that the 
+	 * method is re-entrant.
+	 */
+	protected double getFixedEffectOnlyPrediction(Matrix currentBeta, MathildeDiameterIncrementStand stand, MathildeTree tree) {
+		Matrix oXVector = new Matrix(1, numberOfParameters);
 
 		double upcomingCut = 0d;
 		if (stand.isGoingToBeHarvested()) {
@@ -227,8 +340,11 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 		
 	}
 
-	private MathildeDiameterIncrementSubModule getSubModule(int subModuleVersion) {
-		return subModules.get(subModuleVersion);
+	/*
+	 * The submodules are materialized on the first request. 
+	 */
+	protected final MathildeDiameterIncrementSubModule getSubModule(int subModuleVersion) {
+		return subModules.computeIfAbsent(subModuleVersion, this::createSubModule);
 	}
 
 	private MathildeDiameterIncrementSubModule getSubModule() {
@@ -236,8 +352,7 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 	}
 	
 
-	@Override
-	public double predictGrowth(MathildeDiameterIncrementStand stand, MathildeTree tree, Object... parms) {
+	private MathildeDiameterIncrementSubModule getSubModule(Object[] parms) {
 		MathildeDiameterIncrementSubModule subModule;
 		if (parms.length > 0 && parms[0] instanceof Integer) {
 			subModule = getSubModule((Integer) parms[0]);
@@ -247,32 +362,33 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 		} else {
 			subModule = getSubModule();
 		}
-		
-		Matrix currentBeta = subModule.getParameters(stand);
-
-		double pred = getFixedEffectOnlyPrediction(currentBeta, stand, tree);
-		
-		pred += subModule.getRandomEffects(tree).getValueAt(0, 0);
-		pred += subModule.getRandomEffects(stand).getValueAt(0, 0);
-		
+		return subModule;
+	}
+	
+	/*
+	 * Returns the correction for the log transformation in deterministic mode or 0 otherwise. The residual
+	 * error is not included when the residual variability is enabled since it must be drawn for each tree.
+	 */
+	private double getBackTransformationCorrection(MathildeDiameterIncrementSubModule subModule, MathildeDiameterIncrementStand stand) {
+		double correction = 0d;
 		if (!isRandomEffectsVariabilityEnabled) {
 			if (subModule.getBlupsForThisSubject(stand) != null) {
-				pred += subModule.getBlupsForThisSubject(stand).getVariance().getValueAt(0, 0) * .5;
+				correction += subModule.getBlupsForThisSubject(stand).getVariance().getValueAt(0, 0) * .5;
 			} else {
-				pred += subModule.getDefaultRandomEffects(HierarchicalLevel.PLOT).getVariance().getValueAt(0, 0) * .5;
+				correction += subModule.getDefaultRandomEffects(HierarchicalLevel.PLOT).getVariance().getValueAt(0, 0) * .5;
 			}
 			
-			pred += subModule.getDefaultRandomEffects(HierarchicalLevel.TREE).getVariance().getValueAt(0, 0) * .5;
+			correction += subModule.getDefaultRandomEffects(HierarchicalLevel.TREE).getVariance().getValueAt(0, 0) * .5;
 		}
 		
-		if (isResidualVariabilityEnabled) {
-			pred += subModule.getResidualErrorForThisVersion().getValueAt(0, 0);
-		} else {
-			pred += subModule.getDefaultResidualError(ErrorTermGroup.Default).getVariance().getValueAt(0, 0) * .5;
+		if (!isResidualVariabilityEnabled) {
+			correction += subModule.getDefaultResidualError(ErrorTermGroup.Default).getVariance().getValueAt(0, 0) * .5;
 		}
-		
+		return correction;
+	}
+	
+	private double backtransform(double pred, double limit) {
 		double backtransformedPred = Math.exp(pred) - 1;
-		double limit = MAX_ANNUAL_INCREMENT.get(tree.getMathildeTreeSpecies()) * stand.getGrowthStepLengthYr();
 		if (backtransformedPred > limit) {
 			backtransformedPred = limit;
 		}
@@ -283,7 +399,155 @@ public final class MathildeDiameterIncrementPredictor extends REpiceaPredictor
 		
 		return backtransformedPred;
 	}
+	
+	@Override
+	public double predictGrowth(MathildeDiameterIncrementStand stand, MathildeTree tree, Object... parms) {
+		MathildeDiameterIncrementSubModule subModule = getSubModule(parms);
+		return predictGrowth(subModule, 
+				stand, 
+				tree, 
+				tree.getMathildeTreeSpecies(), 
+				tree.getLnDbhCm(), 
+				tree.getDbhCm(), 
+				tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS), 
+				tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS));
+	}
+	
+	private double predictGrowth(MathildeDiameterIncrementSubModule subModule, 
+			MathildeDiameterIncrementStand stand, 
+			MathildeTree tree, 
+			MathildeTreeSpecies species, 
+			double lnDbhCm, 
+			double dbhCm, 
+			double bal22, 
+			double bal42) {
+		MathildeSpeciesCoefficients coefficients = subModule.getSpeciesCoefficients(stand, SpeciesCoefficientsCompiler);
 
+		double pred = getFixedEffectOnlyPrediction(coefficients.getCoefficients(species), stand, lnDbhCm, dbhCm, bal22, bal42);
+		
+		pred += subModule.getRandomEffects(tree).getValueAt(0, 0);
+		pred += subModule.getRandomEffects(stand).getValueAt(0, 0);
+		
+		pred += getBackTransformationCorrection(subModule, stand);
+		
+		if (isResidualVariabilityEnabled) {
+			pred += subModule.getResidualErrorForThisVersion().getValueAt(0, 0);
+		} 
+		
+		double limit = MAX_ANNUAL_INCREMENT.get(species) * stand.getGrowthStepLengthYr();
+		return backtransform(pred, limit);
+	}
+
+	/**
+	 * This method predicts the diameter increment of a batch of trees with each one of the submodules 
+	 * of the cross validation. The covariates of the trees are read only once and, in deterministic mode, 
+	 * the submodules are evaluated in parallel.
+	 * @param stands a list of MathildeDiameterIncrementStand instances (the stand of each tree)
+	 * @param trees a list of MathildeTree instances 
+	 * @return an array of N x number of submodules with the diameter increments (cm). The column index 
+	 * is the excluded group of the cross validation.
+	 */
+	public double[][] predictGrowthForAllSubModules(List<? extends MathildeDiameterIncrementStand> stands, List<? extends MathildeTree> trees) {
+		int nbTrees = trees.size();
+		if (stands.size() != nbTrees) {
+			throw new InvalidParameterException("The stands and trees lists must have the same size!");
+		}
+		MathildeTreeSpecies[] species = new MathildeTreeSpecies[nbTrees];
+		double[] lnDbhCm = new double[nbTrees];
+		double[] dbhCm = new double[nbTrees];
+		double[] bal22 = new double[nbTrees];
+		double[] bal42 = new double[nbTrees];
+		for (int i = 0; i < nbTrees; i++) {
+			MathildeTree tree = trees.get(i);
+			species[i] = tree.getMathildeTreeSpecies();
+			lnDbhCm[i] = tree.getLnDbhCm();
+			dbhCm[i] = tree.getDbhCm();
+			bal22[i] = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS);
+			bal42[i] = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS);
+		}
+		
+		int nbSubModules = numberOfSubModules;
+		final double[][] predictions = new double[nbTrees][nbSubModules];
+		IntStream subModuleIds = IntStream.range(0, nbSubModules);
+		if (!isParametersVariabilityEnabled && !isRandomEffectsVariabilityEnabled && !isResidualVariabilityEnabled) {	// the stochastic deviates are stored in maps that are not synchronized
+			subModuleIds = subModuleIds.parallel();
+		}
+		subModuleIds.forEach(j -> {
+			MathildeDiameterIncrementSubModule subModule = getSubModule(j);
+			for (int i = 0; i < nbTrees; i++) {
+				predictions[i][j] = predictGrowth(subModule, stands.get(i), trees.get(i), species[i], lnDbhCm[i], dbhCm[i], bal22[i], bal42[i]);
+			}
+		});
+		return predictions;
+	}
+
+	/**
+	 * This method predicts the diameter increment of all the trees of a stand in a single pass. The trees
+	 * are provided through primitive arrays of the same length. The stand-level terms (growth step 
+	 * length, temperature, basal area and upcoming cut) are computed only once.<br>
+	 * <br>
+	 * This method cannot be used if the random effect variability is enabled since the tree random effects
+	 * must then be attached to tree instances. Use the predictGrowth(stand, tree, parms) method instead.
+	 * @param stand a MathildeDiameterIncrementStand instance
+	 * @param dbhCm the diameters at breast height (cm)
+	 * @param lnDbhCm the logarithm of the diameters at breast height
+	 * @param speciesOrdinal the ordinals of the MathildeTreeSpecies enum
+	 * @param balOakM2Ha the basal area of the oak trees larger than the subjects (m2/ha)
+	 * @param balBeechM2Ha the basal area of the beech trees larger than the subjects (m2/ha)
+	 * @param increments an array that receives the diameter increments (cm)
+	 * @param parms an optional integer that stands for the submodule from the cross validation
+	 */
+	public void predictGrowthForThisStand(MathildeDiameterIncrementStand stand, 
+			double[] dbhCm, 
+			double[] lnDbhCm, 
+			int[] speciesOrdinal, 
+			double[] balOakM2Ha, 
+			double[] balBeechM2Ha, 
+			double[] increments,
+			Object... parms) {
+		int nbTrees = dbhCm.length;
+		if (lnDbhCm.length != nbTrees || speciesOrdinal.length != nbTrees || balOakM2Ha.length != nbTrees 
+				|| balBeechM2Ha.length != nbTrees || increments.length != nbTrees) {
+			throw new InvalidParameterException("The arrays must have the same length!");
+		}
+		if (isRandomEffectsVariabilityEnabled) {
+			throw new InvalidParameterException("The tree random effects cannot be simulated without tree instances!");
+		}
+		MathildeDiameterIncrementSubModule subModule = getSubModule(parms);
+
+		MathildeSpeciesCoefficients coefficients = subModule.getSpeciesCoefficients(stand, SpeciesCoefficientsCompiler);
+		
+		double standPart = getStandLevelPrediction(coefficients.getCoefficients(0), stand);
+		standPart += subModule.getRandomEffects(stand).getValueAt(0, 0);
+		standPart += getBackTransformationCorrection(subModule, stand);
+		
+		double upcomingCut = stand.isGoingToBeHarvested() ? 1d : 0d;
+		MathildeTreeSpecies[] species = MathildeTreeSpecies.values();
+		double[] intercepts = new double[species.length];
+		double[] limits = new double[species.length];
+		for (int s = 0; s < species.length; s++) {
+			double[] coef = coefficients.getCoefficients(s);
+			intercepts[s] = coef[0] + coef[3] * upcomingCut + standPart;
+			limits[s] = MAX_ANNUAL_INCREMENT.get(species[s]) * stand.getGrowthStepLengthYr();
+		}
+
+		for (int i = 0; i < nbTrees; i++) {
+			int s = speciesOrdinal[i];
+			double[] coef = coefficients.getCoefficients(s);
+			double bal42 = balBeechM2Ha[i];
+			double pred = intercepts[s] 
+					+ coef[1] * lnDbhCm[i] 
+					+ coef[2] * dbhCm[i] 
+					+ coef[4] * balOakM2Ha[i] 
+					+ coef[5] * bal42 
+					+ coef[6] * bal42 * bal42;
+			if (isResidualVariabilityEnabled) {
+				pred += subModule.getResidualErrorForThisVersion().getValueAt(0, 0);
+			}
+			increments[i] = backtransform(pred, limits[s]);
+		}
+	}
+	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void modelBasedSimulatorDidThis(REpiceaPredictorEvent event) {
@@ -18,10 +18,19 @@
  */
 package lerfob.predictor.mathilde.mortality;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
+import lerfob.predictor.mathilde.MathildeSpeciesCoefficients;
 import lerfob.predictor.mathilde.MathildeTree;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.math.AbstractMathematicalFunction;
@@ -33,8 +42,6 @@ import repicea.math.integral.GaussHermiteQuadrature;
 import repicea.math.integral.GaussHermiteQuadrature.GaussHermiteQuadratureCompatibleFunction;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaBinaryEventPredictor;
 import repicea.simulation.covariateproviders.treelevel.TreeStatusProvider.StatusClass;
 import repicea.stats.StatisticalUtility;
@@ -67,6 +74,11 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 	private static final double SqrtTwo = Math.sqrt(2d);
 	protected static final int IndexParameterToBeIntegrated = 2;
 	
+	private static final double WindstormTableLowerBound = -20d;
+	private static final double WindstormTableUpperBound = 10d;
+	
+	private static final MathildeSpeciesCoefficients.Compiler SpeciesCoefficientsCompiler = MathildeMortalityPredictor::compileSpeciesCoefficients;
+	
 	class EmbeddedLinkFunction extends LinkFunction implements GaussHermiteQuadratureCompatibleFunction<Double> {
 
 		double standardDeviation;
@@ -138,7 +150,13 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 	
 	protected final EmbeddedLinkFunction linkFunction;
 	protected int numberOfParameters;
+	private int numberOfSubModules;
+	private transient PredictorParameterMap betaMap;
 	protected GaussHermiteQuadrature ghq;
+	private boolean isWindstormTableEnabled;
+	private double windstormTableTolerance = 1E-6;
+	private transient volatile ConcurrentHashMap<MathildeWindstormMortalityTable.Key, MathildeWindstormMortalityTable> windstormTables;
+	private final AtomicLong numberOfQuadratures = new AtomicLong();
 
 	/**
 	 * Constructor.
@@ -154,54 +172,229 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 	 */
 	MathildeMortalityPredictor(boolean isParameterVariabilityEnabled, boolean isRandomEffectVariabilityEnabled, boolean isResidualVariabilityEnabled) {
 		super(isParameterVariabilityEnabled, isRandomEffectVariabilityEnabled, isResidualVariabilityEnabled);	
-		subModules = new HashMap<Integer, MathildeMortalitySubModule>();
+		subModules = new ConcurrentHashMap<Integer, MathildeMortalitySubModule>();
 		init();
-		oXVector = new Matrix(1,numberOfParameters);
-		linkFunction = new EmbeddedLinkFunction(Type.CLogLog, new InternalMathematicalFunction());
-		linkFunction.setVariableValue(0, 1d);
+		linkFunction = createLinkFunction();
 		ghq = new GaussHermiteQuadrature(NumberOfPoints.N15);		
 	}
 
+	/*
+	 * The link function holds the values of the parameters and the variables. Each thread 
+	 * must therefore rely on its own instance.
+	 */
+	private EmbeddedLinkFunction createLinkFunction() {
+		EmbeddedLinkFunction linkFunction = new EmbeddedLinkFunction(Type.CLogLog, new InternalMathematicalFunction());
+		linkFunction.setVariableValue(0, 1d);
+		return linkFunction;
+	}
+	
+	/**
+	 * This method enables the tabulation of the mortality probability under windstorm. In deterministic 
+	 * mode, this probability is a Gauss-Hermite quadrature over the random effect. Once tabulated, the 
+	 * probability is interpolated from the fixed-effect prediction. The exact quadrature is still used
+	 * whenever the table cannot be relied on. The tables are not used when the parameter variability 
+	 * is enabled since each realization of the windstorm parameter would require its own table.
+	 * @param enabled a boolean
+	 * @param tolerance the approximate maximum absolute interpolation error (must be strictly positive). The error
+	 * is checked at three points in each interval of the table with a safety margin.
+	 */
+	public void setWindstormLookupTableEnabled(boolean enabled, double tolerance) {
+		if (tolerance <= 0d) {
+			throw new InvalidParameterException("The tolerance must be strictly positive!");
+		}
+		if (tolerance != windstormTableTolerance) {
+			getWindstormTables().clear();
+		}
+		isWindstormTableEnabled = enabled;
+		windstormTableTolerance = tolerance;
+	}
+	
+	/**
+	 * This method enables the tabulation of the mortality probability under windstorm with a 
+	 * tolerance of 1E-6.
+	 * @param enabled a boolean
+	 * @see MathildeMortalityPredictor#setWindstormLookupTableEnabled(boolean, double)
+	 */
+	public void setWindstormLookupTableEnabled(boolean enabled) {
+		setWindstormLookupTableEnabled(enabled, 1E-6);
+	}
+	
+	private ConcurrentHashMap<MathildeWindstormMortalityTable.Key, MathildeWindstormMortalityTable> getWindstormTables() {
+		if (windstormTables == null) {
+			synchronized(this) {
+				if (windstormTables == null) {
+					windstormTables = new ConcurrentHashMap<MathildeWindstormMortalityTable.Key, MathildeWindstormMortalityTable>();
+				}
+			}
+		}
+		return windstormTables;
+	}
+	
+	/*
+	 * Tabulates the quadrature for a particular windstorm parameter and standard deviation of the random effect. The
+	 * table is built with its own link function so that it can be called from any thread.
+	 */
+	private MathildeWindstormMortalityTable createWindstormTable(double windstormParameter, double standardDeviation) {
+		final EmbeddedLinkFunction tableLinkFunction = createLinkFunction();
+		tableLinkFunction.setVariableValue(1, 1d);
+		tableLinkFunction.setParameterValue(1, windstormParameter);
+		tableLinkFunction.standardDeviation = standardDeviation;
+		final GaussHermiteQuadrature quadrature = ghq;
+		return MathildeWindstormMortalityTable.create(pred -> {
+				tableLinkFunction.setParameterValue(0, pred);
+				tableLinkFunction.setParameterValue(2, 0d);
+				numberOfQuadratures.incrementAndGet();
+				return quadrature.getIntegralApproximation(tableLinkFunction, IndexParameterToBeIntegrated, true);
+			}, 
+			WindstormTableLowerBound, 
+			WindstormTableUpperBound, 
+			windstormTableTolerance);
+	}
+	
+	/*
+	 * Returns the tabulated probability or NaN if there is no table or the prediction lies outside its domain. A
+	 * failed tabulation is stored as well so that it is not attempted again.
+	 */
+	private double getTabulatedWindstormProbability(double pred, double windstormParameter, double standardDeviation) {
+		MathildeWindstormMortalityTable.Key key = new MathildeWindstormMortalityTable.Key(windstormParameter, standardDeviation, ghq);
+		ConcurrentHashMap<MathildeWindstormMortalityTable.Key, MathildeWindstormMortalityTable> tables = getWindstormTables();
+		MathildeWindstormMortalityTable table = tables.get(key);
+		if (table == null) {
+			table = createWindstormTable(windstormParameter, standardDeviation);
+			if (table == null) {
+				table = MathildeWindstormMortalityTable.Unavailable;
+			}
+			MathildeWindstormMortalityTable existingTable = tables.putIfAbsent(key, table);
+			if (existingTable != null) {
+				table = existingTable;
+			}
+		}
+		return table.getValue(pred);
+	}
+	
+	/**
+	 * This method returns the name of the file that contains the parameter estimates.
+	 * @return a String
+	 */
+	protected String getBetaFilename() {
+		return "0_MathildeMortalityBeta.csv";
+	}
+
+	/**
+	 * This method returns the name of the file that contains the variance-covariance of the parameter estimates.
+	 * @return a String
+	 */
+	protected String getOmegaFilename() {
+		return "0_MathildeMortalityOmega.csv";
+	}
 	
 	@Override
 	protected void init() {
 		try {
-			String path = ObjectUtility.getRelativePackagePath(getClass());
-			String betaFilename = path + "0_MathildeMortalityBeta.csv";
-			String omegaFilename = path + "0_MathildeMortalityOmega.csv";
-
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1,betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);		
-			
-			numberOfParameters = -1;
-			int numberOfExcludedGroups = 10;		
-			
-			for (int excludedGroup = 0; excludedGroup <= numberOfExcludedGroups; excludedGroup++) {			//
-				Matrix betaPrelim = betaMap.get(excludedGroup);
-				if (numberOfParameters == -1) {
-					numberOfParameters = betaPrelim.m_iRows - 1;
-				}
-				Matrix defaultBetaMean = betaPrelim.getSubMatrix(0, numberOfParameters - 1, 0, 0);
-				SymmetricMatrix randomEffectVariance = SymmetricMatrix.convertToSymmetricIfPossible(
-						betaPrelim.getSubMatrix(numberOfParameters, numberOfParameters, 0, 0));
-				SymmetricMatrix omega = SymmetricMatrix.convertToSymmetricIfPossible(
-						omegaMap.get(excludedGroup).squareSym().getSubMatrix(0, numberOfParameters - 1, 0, numberOfParameters - 1));		
-				MathildeMortalitySubModule subModule = new MathildeMortalitySubModule(isParametersVariabilityEnabled, isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
-				subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, omega));
-				subModule.setDefaultRandomEffects(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT, new GaussianEstimate(new Matrix(randomEffectVariance.m_iRows,1), randomEffectVariance));
-				subModules.put(excludedGroup, subModule);
+			loadParameterMaps();
+			numberOfParameters = betaMap.get(0).m_iRows - 1;
+			numberOfSubModules = 0;
+			while (betaMap.contains(numberOfSubModules)) {
+				numberOfSubModules++;
 			}
+			getSubModule(0);		// the other submodules are created on demand
 		} catch (Exception e) {
 			System.out.println("MathildeMortalityPredictor.init() : Unable to initialize the MathildeMortalityPredictor module");
 		}
 	}
 	
+	private void loadParameterMaps() throws IOException {
+		String path = ObjectUtility.getRelativePackagePath(getClass());
+		String betaFilename = path + getBetaFilename();
+
+		betaMap = PredictorParameterCache.loadVectorFromFile(1,betaFilename);
+	}
+	
+	/*
+	 * Creates the submodule of a particular excluded group of the cross validation. The omega matrix
+	 * is only expanded at this stage.
+	 */
+	private MathildeMortalitySubModule createSubModule(int excludedGroup) {
+		try {
+			if (betaMap == null) {		// after deserialization
+				loadParameterMaps();
+			}
+			Matrix betaPrelim = betaMap.get(excludedGroup);
+			if (betaPrelim == null) {
+				return null;
+			}
+			Matrix defaultBetaMean = betaPrelim.getSubMatrix(0, numberOfParameters - 1, 0, 0);
+			SymmetricMatrix randomEffectVariance = SymmetricMatrix.convertToSymmetricIfPossible(
+					betaPrelim.getSubMatrix(numberOfParameters, numberOfParameters, 0, 0));
+			String omegaFilename = ObjectUtility.getRelativePackagePath(getClass()) + getOmegaFilename();
+			SymmetricMatrix omega = SymmetricMatrix.convertToSymmetricIfPossible(
+					PredictorParameterCache.loadSymmetricMatrixFromVector(1, omegaFilename, excludedGroup).getSubMatrix(0, numberOfParameters - 1, 0, numberOfParameters - 1));		
+			MathildeMortalitySubModule subModule = new MathildeMortalitySubModule(isParametersVariabilityEnabled, isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
+			subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, omega));
+			subModule.setDefaultRandomEffects(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT, new GaussianEstimate(new Matrix(randomEffectVariance.m_iRows,1), randomEffectVariance));
+			return subModule;
+		} catch (IOException e) {
+			throw new UncheckedIOException("MathildeMortalityPredictor.createSubModule() : Unable to create the submodule for group: " + excludedGroup, e);
+		}
+	}
+	
+	/*
+	 * The submodules are materialized on the first request. 
+	 */
+	protected final MathildeMortalitySubModule getSubModule(int excludedGroup) {
+		return subModules.computeIfAbsent(excludedGroup, this::createSubModule);
+	}
+	
+	/*
+	 * Collapses the species interactions of the beta vector. The returned array is indexed by the ordinal 
+	 * of the MathildeTreeSpecies enum and then by the covariate, namely the intercept, dbh, ln(dbh), BAL of beech, 
+	 * BAL of oak, the upcoming drought, the upcoming cut and the log of the growth step length. 
+	 * Hornbeam is the reference species of the short dummy variable but it has its own slopes for
+	 * ln(dbh), BAL of oak and the upcoming cut.
+	 */
+	static double[][] compileSpeciesCoefficients(Matrix beta) {
+		int nbSpecies = MathildeTreeSpecies.values().length;
+		double[][] coefficients = new double[nbSpecies][8];
+		for (int s = 0; s < nbSpecies; s++) {
+			double[] coef = coefficients[s];
+			coef[0] = beta.getValueAt(0, 0);
+			if (s > 0) {
+				coef[0] += beta.getValueAt(s, 0);
+			}
+			coef[1] = beta.getValueAt(4, 0);
+			coef[2] = beta.getValueAt(5 + s, 0);		// b5 for hornbeam and then b6 to b8 from the short dummy variable 
+			coef[3] = beta.getValueAt(9, 0);
+			coef[4] = beta.getValueAt(10 + s, 0);		// b10 for hornbeam and then b11 to b13 from the short dummy variable
+			coef[5] = beta.getValueAt(15, 0);			// b14 is the windstorm parameter
+			coef[6] = beta.getValueAt(16 + s, 0);		// b16 for hornbeam and then b17 to b19 from the short dummy variable
+			coef[7] = beta.getValueAt(20, 0);
+		}
+		return coefficients;
+	}
+	
+	protected final MathildeSpeciesCoefficients getSpeciesCoefficients(MathildeMortalitySubModule subModule, MathildeMortalityStand stand) {
+		return subModule.getSpeciesCoefficients(stand, SpeciesCoefficientsCompiler);
+	}
 	
 	protected double getFixedEffectOnlyPrediction(Matrix beta, MathildeMortalityStand stand, MathildeTree tree) {
-		oXVector.resetMatrix();
-		
-		double dbh = tree.getDbhCm();
-		double logDbh = tree.getLnDbhCm();
+		return getFixedEffectOnlyPrediction(new MathildeSpeciesCoefficients(beta, compileSpeciesCoefficients(beta)), stand, tree);
+	}
+	
+	protected double getFixedEffectOnlyPrediction(MathildeSpeciesCoefficients coefficients, MathildeMortalityStand stand, MathildeTree tree) {
+		return getFixedEffectOnlyPrediction(coefficients.getCoefficients(tree.getMathildeTreeSpecies()),
+				stand,
+				tree.getDbhCm(),
+				tree.getLnDbhCm(),
+				tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS),
+				tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS));
+	}
+	
+	private static double getFixedEffectOnlyPrediction(double[] coef, 
+			MathildeMortalityStand stand, 
+			double dbhCm, 
+			double lnDbhCm, 
+			double bal42, 
+			double bal22) {
 		double upcomingCut = 0d;
 		if (stand.isGoingToBeHarvested()) {
 			upcomingCut = 1d;
@@ -212,89 +405,97 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 			upcomingDrought = 1d;
 		} 
 
-		MathildeTreeSpecies species = tree.getMathildeTreeSpecies();
-		double bal22 = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS);
-		double bal42 = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS);
-		
-		double gr17 = 0d;
-		if (species == MathildeTreeSpecies.getSpecies(17)) {
-			gr17 = 1d;
-		}
-		
-		int pointer = 0;
-		
-		oXVector.setValueAt(0, pointer, 1d);
-		pointer++;
-		
-		oXVector.setSubMatrix(species.getShortDummyVariable(), 0, pointer);
-		pointer += species.getShortDummyVariable().m_iCols;
-
-		oXVector.setValueAt(0, pointer, dbh);
-		pointer++;
-
-		oXVector.setValueAt(0, pointer, logDbh * gr17);
-		pointer++;
-
-		oXVector.setSubMatrix(species.getShortDummyVariable().scalarMultiply(logDbh), 0, pointer);
-		pointer += species.getShortDummyVariable().m_iCols;
-		
-		oXVector.setValueAt(0, pointer, bal42);
-		pointer++;
-
-		oXVector.setValueAt(0, pointer, bal22 * gr17);
-		pointer++;
-
-		oXVector.setSubMatrix(species.getShortDummyVariable().scalarMultiply(bal22), 0, pointer);
-		pointer += species.getShortDummyVariable().m_iCols;
-
-		pointer++; // to skip b14
-		
-		oXVector.setValueAt(0, pointer, upcomingDrought);
-		pointer++;
-		
-		oXVector.setValueAt(0, pointer, upcomingCut * gr17);
-		pointer++;
-
-		oXVector.setSubMatrix(species.getShortDummyVariable().scalarMultiply(upcomingCut), 0, pointer);
-		pointer += species.getShortDummyVariable().m_iCols;
-		
-		oXVector.setValueAt(0, pointer, Math.log(stand.getGrowthStepLengthYr()));
-		pointer++;
-		
-		double result = oXVector.multiply(beta).getValueAt(0, 0);
-		return result;
+		return coef[0] 
+				+ coef[1] * dbhCm 
+				+ coef[2] * lnDbhCm 
+				+ coef[3] * bal42 
+				+ coef[4] * bal22
+				+ coef[5] * upcomingDrought 
+				+ coef[6] * upcomingCut 
+				+ coef[7] * Math.log(stand.getGrowthStepLengthYr());
 	}
 	
-	@Override
-	public synchronized double predictEventProbability(MathildeMortalityStand stand, MathildeTree tree, Map<String, Object> parms) {
-		boolean windstormDisabledOverride = false;
-		if (parms != null && parms.containsKey(ParmWindstormDisabledOverride)) {
-			windstormDisabledOverride = (Boolean) parms.get(ParmWindstormDisabledOverride);
-		}
-		double upcomingWindstorm = 0d;
-		if (stand.isAWindstormGoingToOccur() && !windstormDisabledOverride) {
-			upcomingWindstorm = 1d;
-		} 
-		
+	/**
+	 * This method returns the covariate that multiplies the windstorm effect. In this version of the model,
+	 * the windstorm has the same effect on all trees.
+	 * @param tree a MathildeTree instance
+	 * @return a double
+	 */
+	protected double getWindstormCovariate(MathildeTree tree) {
+		return 1d;
+	}
+	
+	private MathildeMortalitySubModule getSubModule(Map<String, Object> parms) {
 		MathildeMortalitySubModule subModule;
 		if (parms != null && parms.containsKey(ParmSubmoduleFromCrossValidation)) {
 			int subModuleId = (Integer) parms.get(ParmSubmoduleFromCrossValidation);
-			subModule = subModules.get(subModuleId);
+			subModule = getSubModule(subModuleId);
 			if (subModule == null) {
 				throw new InvalidParameterException("The integer in the parms parameter is not valid!");
 			} 
 		} else {
-			subModule = subModules.get(0);
+			subModule = getSubModule(0);
 		}
-		
-		Matrix beta = subModule.getParameters(stand);
-		linkFunction.setVariableValue(1, upcomingWindstorm);
-		
-		double pred = getFixedEffectOnlyPrediction(beta, stand, tree);
+		return subModule;
+	}
+	
+	/*
+	 * Returns true if the windstorm effect applies to this stand.
+	 */
+	private boolean isWindstormEffectEnabled(MathildeMortalityStand stand, Map<String, Object> parms) {
+		boolean windstormDisabledOverride = false;
+		if (parms != null && parms.containsKey(ParmWindstormDisabledOverride)) {
+			windstormDisabledOverride = (Boolean) parms.get(ParmWindstormDisabledOverride);
+		}
+		return stand.isAWindstormGoingToOccur() && !windstormDisabledOverride;
+	}
+	
+	/**
+	 * This method returns the mortality probability. It relies on the predictEventProbabilities method.
+	 */
+	@Override
+	public double predictEventProbability(MathildeMortalityStand stand, MathildeTree tree, Map<String, Object> parms) {
+		return predictEventProbabilities(stand, tree, parms)[0];
+	}
+
+	/**
+	 * This method returns the mortality probabilities with and without the windstorm effect. The 
+	 * fixed-effect prediction is computed only once for both probabilities. Both the predictEventProbability 
+	 * and the predictEvent methods rely on this method. 
+	 * @param stand a MathildeMortalityStand instance
+	 * @param tree a MathildeTree instance
+	 * @param parms some additional parameters
+	 * @return an array of two doubles, the probability with the windstorm effect and the probability 
+	 * without it. Both are equal if no windstorm is going to occur.
+	 */
+	public synchronized double[] predictEventProbabilities(MathildeMortalityStand stand, MathildeTree tree, Map<String, Object> parms) {
+		MathildeMortalitySubModule subModule = getSubModule(parms);
+		MathildeSpeciesCoefficients coefficients = getSpeciesCoefficients(subModule, stand);
+		double pred = getFixedEffectOnlyPrediction(coefficients, stand, tree);
+		double windstormParameter = coefficients.getBeta().getValueAt(14, 0);
+		double probabilityWithoutWindstorm = getEventProbability(linkFunction, subModule, stand, pred, windstormParameter, 0d);
+		double probabilityWithWindstorm = probabilityWithoutWindstorm;
+		if (isWindstormEffectEnabled(stand, parms)) {
+			probabilityWithWindstorm = getEventProbability(linkFunction, subModule, stand, pred, windstormParameter, getWindstormCovariate(tree));
+		}
+		return new double[] {probabilityWithWindstorm, probabilityWithoutWindstorm};
+	}
+	
+	/*
+	 * Returns the probability from the fixed-effect prediction. The link function is passed as a 
+	 * parameter since it is not thread safe. 
+	 */
+	private double getEventProbability(EmbeddedLinkFunction linkFunction, 
+			MathildeMortalitySubModule subModule, 
+			MathildeMortalityStand stand, 
+			double pred, 
+			double windstormParameter,
+			double windstormCovariate) {
+		linkFunction.setVariableValue(1, windstormCovariate);
 		linkFunction.setParameterValue(0, pred);
 
 		double prob;
-		linkFunction.setParameterValue(1, beta.getValueAt(14, 0));
+		linkFunction.setParameterValue(1, windstormParameter);
 		if (isRandomEffectsVariabilityEnabled && stand.isAWindstormGoingToOccur()) {	// no need to draw a random effect if there is no windstorm
 			IntervalNestedInPlotDefinition interval = getIntervalNestedInPlotDefinition(stand, stand.getDateYr());
 			Matrix randomEffects = subModule.getRandomEffects(interval);
@@ -302,11 +503,17 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 			prob = linkFunction.getValue();
 		} else {
 			linkFunction.setParameterValue(2, 0d);		// random effect arbitrarily set to 0
-			if (stand.isAWindstormGoingToOccur() && isGaussianQuadratureEnabled) {
-//				List<Integer> parameterIndices = new ArrayList<Integer>();
-//				parameterIndices.add(2);
-				linkFunction.standardDeviation = subModule.getDefaultRandomEffects(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT).getDistribution().getStandardDeviation().getValueAt(0, 0);
-				prob = ghq.getIntegralApproximation(linkFunction, IndexParameterToBeIntegrated, true);
+			if (stand.isAWindstormGoingToOccur() && windstormCovariate != 0d && isGaussianQuadratureEnabled) {	// the integrand does not depend on the random effect if the covariate is 0
+				double standardDeviation = subModule.getDefaultRandomEffects(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT).getDistribution().getStandardDeviation().getValueAt(0, 0);
+				prob = Double.NaN;
+				if (isWindstormTableEnabled && !isParametersVariabilityEnabled && windstormCovariate == 1d) {	// the table does not apply to tree-specific windstorm covariates
+					prob = getTabulatedWindstormProbability(pred, windstormParameter, standardDeviation);
+				}
+				if (Double.isNaN(prob)) {
+					linkFunction.standardDeviation = standardDeviation;
+					numberOfQuadratures.incrementAndGet();
+					prob = ghq.getIntegralApproximation(linkFunction, IndexParameterToBeIntegrated, true);
+				}
 			} else {									// no need to evaluate the quadrature when there is no windstorm
 				prob = linkFunction.getValue();
 			}
@@ -314,7 +521,61 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 		return prob;
 	}
 
-	
+	/**
+	 * This method returns the mortality probabilities of a batch of trees for each one of the submodules 
+	 * of the cross validation. The covariates of the trees are read only once and, in deterministic mode, 
+	 * the submodules are evaluated in parallel.
+	 * @param stands a list of MathildeMortalityStand instances (the stand of each tree)
+	 * @param trees a list of MathildeTree instances 
+	 * @return an array of N x number of submodules with the probabilities. The column index 
+	 * is the excluded group of the cross validation.
+	 */
+	public double[][] predictEventProbabilityForAllSubModules(List<? extends MathildeMortalityStand> stands, List<? extends MathildeTree> trees) {
+		int nbTrees = trees.size();
+		if (stands.size() != nbTrees) {
+			throw new InvalidParameterException("The stands and trees lists must have the same size!");
+		}
+		int[] species = new int[nbTrees];
+		double[] dbhCm = new double[nbTrees];
+		double[] lnDbhCm = new double[nbTrees];
+		double[] bal42 = new double[nbTrees];
+		double[] bal22 = new double[nbTrees];
+		double[] windstormCovariate = new double[nbTrees];
+		for (int i = 0; i < nbTrees; i++) {
+			MathildeTree tree = trees.get(i);
+			species[i] = tree.getMathildeTreeSpecies().ordinal();
+			dbhCm[i] = tree.getDbhCm();
+			lnDbhCm[i] = tree.getLnDbhCm();
+			bal42[i] = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS);
+			bal22[i] = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS);
+			if (stands.get(i).isAWindstormGoingToOccur()) {
+				windstormCovariate[i] = getWindstormCovariate(tree);
+			}
+		}
+		
+		int nbSubModules = numberOfSubModules;
+		final double[][] predictions = new double[nbTrees][nbSubModules];
+		IntStream subModuleIds = IntStream.range(0, nbSubModules);
+		if (!isParametersVariabilityEnabled && !isRandomEffectsVariabilityEnabled && !isResidualVariabilityEnabled) {	// the stochastic deviates are stored in maps that are not synchronized
+			subModuleIds = subModuleIds.parallel();
+		}
+		subModuleIds.forEach(j -> {
+			MathildeMortalitySubModule subModule = getSubModule(j);
+			EmbeddedLinkFunction linkFunctionForThisSubModule = createLinkFunction();
+			for (int i = 0; i < nbTrees; i++) {
+				MathildeMortalityStand stand = stands.get(i);
+				MathildeSpeciesCoefficients coefficients = getSpeciesCoefficients(subModule, stand);
+				double pred = getFixedEffectOnlyPrediction(coefficients.getCoefficients(species[i]), stand, dbhCm[i], lnDbhCm[i], bal42[i], bal22[i]);
+				predictions[i][j] = getEventProbability(linkFunctionForThisSubModule, 
+						subModule, 
+						stand, 
+						pred, 
+						coefficients.getBeta().getValueAt(14, 0), 
+						windstormCovariate[i]);
+			}
+		});
+		return predictions;
+	}
 	
 	/**
 	 * This method returns either a boolean if isResidualVariabilityEnabled was set to true
@@ -326,14 +587,15 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 	 */
 	@Override
 	public Object predictEvent(MathildeMortalityStand stand, MathildeTree tree, Map<String, Object> parms) {
-		double eventProbability = predictEventProbability(stand, tree, parms);
+		double[] eventProbabilities = predictEventProbabilities(stand, tree, parms);
+		double eventProbability = eventProbabilities[0];
 		if (eventProbability < 0 || eventProbability > 1) {
 			return null;
 		} else if (isResidualVariabilityEnabled) {
 			double residualError = StatisticalUtility.getRandom().nextDouble();
 			if (residualError < eventProbability) {
 				if (stand.isAWindstormGoingToOccur()) {
-					double eventProbabilityWithoutWindstorm = predictEventProbability(stand, tree, ParmsToDisableWindstorm); // to disable the windstorm
+					double eventProbabilityWithoutWindstorm = eventProbabilities[1];
 					if (StatisticalUtility.getRandom().nextDouble() < eventProbabilityWithoutWindstorm/eventProbability) {
 						return StatusClass.dead;
 					} else {
@@ -350,6 +612,13 @@ public class MathildeMortalityPredictor extends REpiceaBinaryEventPredictor<Math
 		}
 	}
 
+	/*
+	 * For test purpose.
+	 */
+	long getNumberOfQuadratures() {
+		return numberOfQuadratures.get();
+	}
+
 //	@Override
 //	public void clearDeviates() {
 //		for (MathildeMortalitySubModule p : subModules.values()) {
@@ -0,0 +1,175 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.mathilde.mortality;
+
+import java.util.function.DoubleUnaryOperator;
+
+import repicea.math.integral.GaussHermiteQuadrature;
+
+/**
+ * This class tabulates the marginal mortality probability under windstorm as a function of
+ * the fixed-effect linear predictor. The values between the nodes are obtained through cubic
+ * interpolation. The grid is refined until the interpolation error at the midpoint and at the 
+ * quarter points of every interval is smaller than half the tolerance. <br>
+ * <br>
+ * The tolerance is therefore an approximate bound. The error is only checked at three points per 
+ * interval and the margin of one half accounts for the error between these points. The function 
+ * values at the quarter points become the midpoints of the refined grid so that they are not 
+ * computed twice.
+ * @author agent - October 2026
+ */
+final class MathildeWindstormMortalityTable {
+
+	/**
+	 * The key of the table. The integral depends on the windstorm parameter, the standard
+	 * deviation of the random effect and the quadrature.
+	 */
+	static final class Key {
+
+		private final double windstormParameter;
+		private final double standardDeviation;
+		private final GaussHermiteQuadrature ghq;
+
+		Key(double windstormParameter, double standardDeviation, GaussHermiteQuadrature ghq) {
+			this.windstormParameter = windstormParameter;
+			this.standardDeviation = standardDeviation;
+			this.ghq = ghq;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key key = (Key) obj;
+				return Double.compare(windstormParameter, key.windstormParameter) == 0 &&
+						Double.compare(standardDeviation, key.standardDeviation) == 0 &&
+						ghq == key.ghq;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Double.hashCode(windstormParameter) + Double.hashCode(standardDeviation);
+		}
+	}
+
+	private static final int InitialNumberOfIntervals = 64;
+	private static final int MaximumNumberOfIntervals = 1 << 12;
+	private static final double ToleranceSafetyFactor = .5;
+
+	/**
+	 * The table that stands for a failed tabulation, so that the tabulation is not attempted again. Its
+	 * getValue method always returns NaN.
+	 */
+	static final MathildeWindstormMortalityTable Unavailable = new MathildeWindstormMortalityTable();
+
+	private final double lowerBound;
+	private final double upperBound;
+	private final double step;
+	private final double[] values;
+
+	private MathildeWindstormMortalityTable(double lowerBound, double upperBound, double[] values) {
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+		this.values = values;
+		step = (upperBound - lowerBound) / (values.length - 1);
+	}
+
+	private MathildeWindstormMortalityTable() {
+		lowerBound = Double.NaN;
+		upperBound = Double.NaN;
+		step = Double.NaN;
+		values = null;
+	}
+
+	/**
+	 * This method tabulates the function.
+	 * @param function the function to be tabulated
+	 * @param lowerBound the lower bound of the domain
+	 * @param upperBound the upper bound of the domain
+	 * @param tolerance the approximate maximum interpolation error
+	 * @return a MathildeWindstormMortalityTable instance or null if the tolerance cannot be met
+	 */
+	static MathildeWindstormMortalityTable create(DoubleUnaryOperator function, double lowerBound, double upperBound, double tolerance) {
+		int nbIntervals = InitialNumberOfIntervals;
+		double step = (upperBound - lowerBound) / nbIntervals;
+		double[] values = new double[nbIntervals + 1];
+		for (int i = 0; i <= nbIntervals; i++) {
+			values[i] = function.applyAsDouble(lowerBound + i * step);
+		}
+		double[] midValues = new double[nbIntervals];
+		for (int i = 0; i < nbIntervals; i++) {
+			midValues[i] = function.applyAsDouble(lowerBound + (i + .5) * step);
+		}
+		while (nbIntervals <= MaximumNumberOfIntervals) {
+			MathildeWindstormMortalityTable table = new MathildeWindstormMortalityTable(lowerBound, upperBound, values);
+			double[] quarterValues = new double[2 * nbIntervals];		// the midpoints of the refined grid
+			double maxError = 0d;
+			for (int i = 0; i < nbIntervals; i++) {
+				maxError = Math.max(maxError, Math.abs(table.interpolate(lowerBound + (i + .5) * step) - midValues[i]));
+				for (int k = 0; k < 2; k++) {
+					double x = lowerBound + (i + .25 + .5 * k) * step;
+					quarterValues[2 * i + k] = function.applyAsDouble(x);
+					maxError = Math.max(maxError, Math.abs(table.interpolate(x) - quarterValues[2 * i + k]));
+				}
+			}
+			if (maxError <= tolerance * ToleranceSafetyFactor) {
+				return table;
+			}
+			double[] refinedValues = new double[2 * nbIntervals + 1];		// the midpoints become nodes of the refined grid
+			for (int i = 0; i < nbIntervals; i++) {
+				refinedValues[2 * i] = values[i];
+				refinedValues[2 * i + 1] = midValues[i];
+			}
+			refinedValues[2 * nbIntervals] = values[nbIntervals];
+			values = refinedValues;
+			midValues = quarterValues;
+			nbIntervals *= 2;
+			step *= .5;
+		}
+		return null;
+	}
+
+	private double interpolate(double x) {
+		int n = values.length;
+		int i = (int) ((x - lowerBound) / step);
+		int j = Math.min(Math.max(i - 1, 0), n - 4);		// first node of the four-point stencil
+		double t = (x - lowerBound) / step - (j + 1);
+		double tp1 = t + 1;
+		double tm1 = t - 1;
+		double tm2 = t - 2;
+		return - values[j] * t * tm1 * tm2 / 6
+				+ values[j + 1] * tp1 * tm1 * tm2 * .5
+				- values[j + 2] * tp1 * t * tm2 * .5
+				+ values[j + 3] * tp1 * t * tm1 / 6;
+	}
+
+	/**
+	 * This method returns the interpolated probability.
+	 * @param linearPredictor the fixed-effect linear predictor
+	 * @return the probability or NaN if the table is unavailable or the linear predictor is outside its domain
+	 */
+	double getValue(double linearPredictor) {
+		if (values == null || linearPredictor < lowerBound || linearPredictor > upperBound) {
+			return Double.NaN;
+		}
+		return interpolate(linearPredictor);
+	}
+
+}
@@ -19,16 +19,15 @@
 package lerfob.predictor.mathilde.recruitment;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.security.InvalidParameterException;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.mathilde.MathildeTree;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.stats.StatisticalUtility;
 import repicea.util.ObjectUtility;
@@ -40,26 +39,6 @@ import repicea.util.ObjectUtility;
 @SuppressWarnings("serial")
 public class MathildeRecruitDbhPredictor extends REpiceaPredictor {
 
-
-	private static final Map<MathildeTreeSpecies, Matrix> DummyMap = new HashMap<MathildeTreeSpecies, Matrix>();
-	static {
-		Matrix m = new Matrix(1,4);
-		m.setValueAt(0, 0, 1d);
-		DummyMap.put(MathildeTreeSpecies.FAGUS, m);
-
-		m = new Matrix(1,4);
-		m.setValueAt(0, 1, 1d);
-		DummyMap.put(MathildeTreeSpecies.CARPINUS, m);
-		
-		m = new Matrix(1,4);
-		m.setValueAt(0, 2, 1d);
-		DummyMap.put(MathildeTreeSpecies.QUERCUS, m);
-		
-		m = new Matrix(1,4);
-		m.setValueAt(0, 3, 1d);
-		DummyMap.put(MathildeTreeSpecies.OTHERS, m);
-	}
-
 	protected static double Dispersion = 1.178388;
 	private final static double Offset = 24d / Math.PI;
 	
@@ -84,10 +63,9 @@ public class MathildeRecruitDbhPredictor extends REpiceaPredictor {
 			String betaFilename = path + "0_recruitDbh_beta.csv";
 			String omegaFilename = path + "0_recruitDbh_omega.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(betaFilename);
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(betaFilename);
 			Matrix beta = betaMap.get();
-			SymmetricMatrix omega = SymmetricMatrix.convertToSymmetricIfPossible(
-					ParameterLoader.loadMatrixFromFile(omegaFilename));	
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromFile(omegaFilename);
 			setParameterEstimates(new ModelParameterEstimates(beta, omega));
 
 		} catch (IOException e) {
@@ -116,10 +94,59 @@ public class MathildeRecruitDbhPredictor extends REpiceaPredictor {
 		}
 	}
 
+	/**
+	 * This method fills an array with the dbh of all the recruits of a stand. The recruits are ordered 
+	 * by species following the ordinals of the MathildeTreeSpecies enum, so that the first 
+	 * recruitsPerSpecies[0] diameters belong to the first species and so on. The mean dbh of each species 
+	 * is computed only once. The method does not lock the predictor if the parameter variability 
+	 * is disabled. 
+	 * @param stand a MathildeRecruitmentStand instance
+	 * @param recruitsPerSpecies the number of recruits of each species, as returned by the predictNumberOfRecruits
+	 * method of the MathildeRecruitmentNumberPredictor class
+	 * @param diameters an array that receives the dbh (cm) and whose length is the total number of recruits
+	 */
+	public void predictRecruitDiameters(MathildeRecruitmentStand stand, int[] recruitsPerSpecies, double[] diameters) {
+		MathildeTreeSpecies[] species = MathildeTreeSpecies.values();
+		if (recruitsPerSpecies.length != species.length) {
+			throw new InvalidParameterException("The recruitsPerSpecies array must have one element per species!");
+		}
+		int nbRecruits = 0;
+		for (int nbRecruitsOfThisSpecies : recruitsPerSpecies) {
+			nbRecruits += nbRecruitsOfThisSpecies;
+		}
+		if (diameters.length != nbRecruits) {
+			throw new InvalidParameterException("The length of the diameters array must be the total number of recruits!");
+		}
+		Matrix beta = isParametersVariabilityEnabled ? 
+				getParametersForThisStand(stand) : 
+				getParametersForThisRealization(stand);
+		double basalAreaM2Ha = stand.getBasalAreaM2Ha();
+		int index = 0;
+		for (int s = 0; s < species.length; s++) {
+			int c = MathildeRecruitmentNumberPredictor.DummyColumn[s];
+			double mean = 1d / (beta.getValueAt(c, 0) + beta.getValueAt(4 + c, 0) * basalAreaM2Ha);
+			int lastIndex = index + recruitsPerSpecies[s];
+			if (isResidualVariabilityEnabled) {
+				double scale = mean / Dispersion;
+				for (; index < lastIndex; index++) {
+					diameters[index] = StatisticalUtility.getRandom().nextGamma(Dispersion, scale) + Offset;
+				}
+			} else {
+				for (; index < lastIndex; index++) {
+					diameters[index] = mean + Offset;
+				}
+			}
+		}
+	}
+
+	private synchronized Matrix getParametersForThisStand(MathildeRecruitmentStand stand) {
+		return getParametersForThisRealization(stand);
+	}
+
 	protected double predictFixedEffectOnly(Matrix beta, MathildeRecruitmentStand stand, MathildeTree tree) {
 		oXVector.resetMatrix();
 
-		Matrix speciesDummy = DummyMap.get(tree.getMathildeTreeSpecies());
+		Matrix speciesDummy = MathildeRecruitmentNumberPredictor.DummyMap.get(tree.getMathildeTreeSpecies());
 		double basalAreaM2Ha = stand.getBasalAreaM2Ha();
 
 		int index = 0;
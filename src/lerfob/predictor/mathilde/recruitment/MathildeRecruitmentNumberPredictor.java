@@ -19,18 +19,21 @@
 package lerfob.predictor.mathilde.recruitment;
 
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.math.utility.GaussianUtility;
 import repicea.math.utility.NegativeBinomialUtility;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
+import repicea.stats.StatisticalUtility;
 import repicea.stats.estimates.GaussianEstimate;
 import repicea.util.ObjectUtility;
 
@@ -41,7 +44,10 @@ import repicea.util.ObjectUtility;
 @SuppressWarnings("serial")
 public class MathildeRecruitmentNumberPredictor extends REpiceaPredictor {
 
-	private static final Map<MathildeTreeSpecies, Matrix> DummyMap = new HashMap<MathildeTreeSpecies, Matrix>();
+	/*
+	 * The species dummies are shared with the MathildeRecruitDbhPredictor class.
+	 */
+	static final Map<MathildeTreeSpecies, Matrix> DummyMap = new HashMap<MathildeTreeSpecies, Matrix>();
 	static {
 		Matrix m = new Matrix(1,4);
 		m.setValueAt(0, 0, 1d);
@@ -60,12 +66,31 @@ public class MathildeRecruitmentNumberPredictor extends REpiceaPredictor {
 		DummyMap.put(MathildeTreeSpecies.OTHERS, m);
 	}
 
+	/*
+	 * The column of the species dummy for each species ordinal.
+	 */
+	static final int[] DummyColumn = new int[MathildeTreeSpecies.values().length];
+	static {
+		for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
+			Matrix dummy = DummyMap.get(species);
+			for (int j = 0; j < dummy.m_iCols; j++) {
+				if (dummy.getValueAt(0, j) == 1d) {
+					DummyColumn[species.ordinal()] = j;
+				}
+			}
+		}
+	}
+	
 	public static final double REFERENCE_AREA_HA = Math.PI * 6d * 6d / 10000;
 	
+	private static final int DefaultResolution = 15;
 	
 	private final Matrix oXVectorZero;
+	private final double[][] probabilityBuffer;
+	private final double[][] meanBuffer;
 	
 	private GaussianEstimate copula;
+	private double[][] copulaLowerCholesky;
 
 	/**
 	 * Constructor
@@ -80,6 +105,8 @@ public class MathildeRecruitmentNumberPredictor extends REpiceaPredictor {
 		init();
 		oXVector = new Matrix(1,12);
 		oXVectorZero = new Matrix(1,20);
+		probabilityBuffer = new double[MathildeTreeSpecies.values().length][DefaultResolution];
+		meanBuffer = new double[MathildeTreeSpecies.values().length][1];
 	}
 
 	@Override
@@ -91,23 +118,22 @@ public class MathildeRecruitmentNumberPredictor extends REpiceaPredictor {
 			String omegaFilename = path + "0_zinb_omega.csv";
 			String copulaFilename = path + "0_zinb_copula.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(betaFilename);
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(betaFilename);
 			
-			Matrix thetaMat = ParameterLoader.loadVectorFromFile(thetaFilename).get();
+			Matrix thetaMat = PredictorParameterCache.loadVectorFromFile(thetaFilename).get();
 			Matrix theta = new Matrix(1,1);
 			theta.setValueAt(0, 0, thetaMat.getValueAt(0, 0));
 			
 			Matrix thetaVar = new Matrix(1,1);
 			thetaVar.setValueAt(0, 0, thetaMat.getValueAt(1, 0) * thetaMat.getValueAt(1, 0));
 			Matrix beta = betaMap.get().matrixStack(theta, true);
-			Matrix omega = ParameterLoader.loadMatrixFromFile(omegaFilename);	
-			omega = omega.matrixDiagBlock(thetaVar);
+			Matrix omega = PredictorParameterCache.loadSymmetricMatrixFromFile(omegaFilename).matrixDiagBlock(thetaVar);
 			setParameterEstimates(new ModelParameterEstimates(beta, SymmetricMatrix.convertToSymmetricIfPossible(omega)));
 
-			SymmetricMatrix copula =  SymmetricMatrix.convertToSymmetricIfPossible(
-					ParameterLoader.loadMatrixFromFile(copulaFilename));
+			SymmetricMatrix copula = PredictorParameterCache.loadSymmetricMatrixFromFile(copulaFilename);
 			Matrix meanCopula = new Matrix(copula.m_iRows, 1);
 			this.copula = new GaussianEstimate(meanCopula, copula);
+			copulaLowerCholesky = getLowerCholesky(copula);		// throws an InvalidParameterException if the copula is not positive definite
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -121,39 +147,133 @@ public class MathildeRecruitmentNumberPredictor extends REpiceaPredictor {
 	 * @return a Matrix 
 	 */
 	public synchronized Matrix predictNumberOfRecruits(MathildeRecruitmentStand stand) {
-		Matrix deterministicPred = null;
-		for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
-			Matrix mat = getMarginalPredictionsForThisStandAndSpecies(stand, species, 15, isResidualVariabilityEnabled);
-			if (deterministicPred == null) {
-				deterministicPred = mat;
-			} else {
-				deterministicPred = deterministicPred.matrixStack(mat, true);
+		int nbSpecies = MathildeTreeSpecies.values().length;
+		if (!isResidualVariabilityEnabled) { // running without stochastic variability
+			computeZeroInflatedNegativeBinomial(stand, meanBuffer, false);
+			Matrix deterministicPred = new Matrix(nbSpecies, 1);
+			for (int i = 0; i < nbSpecies; i++) {
+				deterministicPred.setValueAt(i, 0, meanBuffer[i][0]);
 			}
-		}
-		
-		if (deterministicPred.m_iCols == 1) { // running without stochastic variability
 			return deterministicPred;
 		} else {
+			computeZeroInflatedNegativeBinomial(stand, probabilityBuffer, true);
 			Matrix m = copula.getRandomDeviate();		// watchout the copula was fitted with the species in this order : beech, hornbeam, oak, others
 			Matrix stochasticPred = new Matrix(4,1);
 			stochasticPred.setValueAt(0, 0, getNumberOfRecruit(GaussianUtility.getCumulativeProbability(m.getValueAt(1, 0)), 
-					deterministicPred.getSubMatrix(0, 0, 0, deterministicPred.m_iCols - 1))); // hornbeam
+					probabilityBuffer[0])); // hornbeam
 			stochasticPred.setValueAt(1, 0, getNumberOfRecruit(GaussianUtility.getCumulativeProbability(m.getValueAt(2, 0)), 
-					deterministicPred.getSubMatrix(1, 1, 0, deterministicPred.m_iCols - 1))); // oak
+					probabilityBuffer[1])); // oak
 			stochasticPred.setValueAt(2, 0, getNumberOfRecruit(GaussianUtility.getCumulativeProbability(m.getValueAt(0, 0)), 
-					deterministicPred.getSubMatrix(2, 2, 0, deterministicPred.m_iCols - 1))); // beech
+					probabilityBuffer[2])); // beech
 			stochasticPred.setValueAt(3, 0, getNumberOfRecruit(GaussianUtility.getCumulativeProbability(m.getValueAt(3, 0)), 
-					deterministicPred.getSubMatrix(3, 3, 0, deterministicPred.m_iCols - 1))); // others
+					probabilityBuffer[3])); // others
 			return stochasticPred;
 		}
 	}
 
-	private double getNumberOfRecruit(double cdf, Matrix predictions) {
+	/*
+	 * Cholesky decomposition of the copula correlation matrix, which is computed once.
+	 */
+	private static double[][] getLowerCholesky(Matrix m) {
+		int n = m.m_iRows;
+		double[][] lower = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = m.getValueAt(i, j);
+				for (int k = 0; k < j; k++) {
+					sum -= lower[i][k] * lower[j][k];
+				}
+				if (i == j) {
+					if (sum <= 0d) {
+						throw new InvalidParameterException("The copula correlation matrix is not positive definite!");
+					}
+					lower[i][i] = Math.sqrt(sum);
+				} else {
+					lower[i][j] = sum / lower[j][j];
+				}
+			}
+		}
+		return lower;
+	}
+
+	/**
+	 * This method returns the numbers of recruits of many stands. It is the batch counterpart of the 
+	 * predictNumberOfRecruits(stand) method in stochastic mode. The standard Gaussian deviates of all 
+	 * the stands are drawn at once and correlated through the Cholesky decomposition of the copula, which
+	 * is computed when the parameters are loaded. The probabilities of each species are turned into a 
+	 * cumulative distribution that is inverted through a binary search.<br>
+	 * <br>
+	 * Many realizations can be obtained by providing the same stand several times or stands that differ
+	 * by their Monte Carlo id. The method does not lock the predictor if the parameter variability is disabled.
+	 * @param stands a List of MathildeRecruitmentStand instances
+	 * @return an array of integers whose rows are the stands and whose columns follow the ordinals of the 
+	 * MathildeTreeSpecies enum
+	 */
+	public int[][] predictNumberOfRecruits(List<? extends MathildeRecruitmentStand> stands) {
+		if (!isResidualVariabilityEnabled) {
+			throw new InvalidParameterException("The numbers of recruits can only be sampled if the residual variability is enabled!");
+		}
+		if (copulaLowerCholesky == null) {
+			throw new InvalidParameterException("The copula correlation matrix has not been loaded!");
+		}
+		int nbSpecies = MathildeTreeSpecies.values().length;
+		int nbStands = stands.size();
+		int[][] recruits = new int[nbStands][nbSpecies];
+		
+		double[] deviates = new double[nbStands * nbSpecies];
+		for (int k = 0; k < deviates.length; k++) {
+			deviates[k] = StatisticalUtility.getRandom().nextGaussian();
+		}
+		
+		double[] cdf = new double[nbSpecies];
+		double[][] cumulativeProbabilities = new double[nbSpecies][DefaultResolution];
+		for (int i = 0; i < nbStands; i++) {
+			int offset = i * nbSpecies;
+			for (int c = 0; c < nbSpecies; c++) {		// watchout the copula was fitted with the species in this order : beech, hornbeam, oak, others
+				double[] cholRow = copulaLowerCholesky[c];
+				double deviate = 0d;
+				for (int k = 0; k <= c; k++) {
+					deviate += cholRow[k] * deviates[offset + k];
+				}
+				cdf[c] = GaussianUtility.getCumulativeProbability(deviate);
+			}
+			
+			computeZeroInflatedNegativeBinomial(stands.get(i), cumulativeProbabilities, true);
+			for (int s = 0; s < nbSpecies; s++) {
+				double[] row = cumulativeProbabilities[s];
+				for (int j = 1; j < row.length; j++) {
+					row[j] += row[j - 1];
+				}
+				recruits[i][s] = getNumberOfRecruitFromCumulativeProbabilities(cdf[DummyColumn[s]], row);	// the dummy columns follow the order of the copula
+			}
+		}
+		return recruits;
+	}
+
+	/*
+	 * Returns the first index whose cumulative probability is equal to or greater than the cdf, or
+	 * the length of the array if the cdf exceeds the last cumulative probability.
+	 */
+	private static int getNumberOfRecruitFromCumulativeProbabilities(double cdf, double[] cumulativeProbabilities) {
+		int low = 0;
+		int high = cumulativeProbabilities.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulativeProbabilities[mid] < cdf) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	private double getNumberOfRecruit(double cdf, double[] probabilities) {
 		double cumProb = 0d;
 		double newCumProb;
 		int i;
-		for (i = 0; i < predictions.m_iCols; i++) {
-			newCumProb = cumProb + predictions.getValueAt(0, i);
+		for (i = 0; i < probabilities.length; i++) {
+			newCumProb = cumProb + probabilities[i];
 			if (cdf > cumProb && cdf <= newCumProb) {
 				break;
 			} else {
@@ -162,6 +282,72 @@ public class MathildeRecruitmentNumberPredictor extends REpiceaPredictor {
 		}
 		return i;
 	}
+
+	/**
+	 * This method computes the probabilities of the numbers of recruits for all the species in a single pass. The
+	 * stand-level terms are computed only once and the probabilities of the zero-truncated negative binomial 
+	 * distribution are obtained through the recurrence p(j) = p(j-1) * (j - 1 + theta) / j * mu / (mu + theta), 
+	 * instead of evaluating the gamma functions for each number of recruits.<br>
+	 * <br>
+	 * The probabilities are written in the array provided by the caller, so that the array can be reused 
+	 * from one stand to another. The method does not lock the predictor if the parameter variability is 
+	 * disabled.
+	 * @param stand a MathildeRecruitmentStand instance
+	 * @param probabilities an array whose rows follow the ordinals of the MathildeTreeSpecies enum and whose 
+	 * columns are the numbers of recruits (the number of columns is the resolution) 
+	 */
+	public void predictRecruitmentProbabilitiesForThisStand(MathildeRecruitmentStand stand, double[][] probabilities) {
+		if (probabilities.length != MathildeTreeSpecies.values().length) {
+			throw new InvalidParameterException("The probabilities array must have one row per species!");
+		}
+		computeZeroInflatedNegativeBinomial(stand, probabilities, true);
+	}
+
+	private synchronized Matrix getParametersForThisStand(MathildeRecruitmentStand stand) {
+		return getParametersForThisRealization(stand);
+	}
+
+	/*
+	 * Fills the rows of the output array with either the probabilities or the mean of the zero-inflated
+	 * negative binomial distribution of each species.
+	 */
+	private void computeZeroInflatedNegativeBinomial(MathildeRecruitmentStand stand, double[][] output, boolean probabilitiesRequired) {
+		Matrix beta = isParametersVariabilityEnabled ? 
+				getParametersForThisStand(stand) : 
+				getParametersForThisRealization(stand);
+		double theta = Math.exp(beta.getValueAt(beta.m_iRows - 1, 0));
+		double basalAreaM2Ha = stand.getBasalAreaM2Ha();
+		double lnBasalAreaM2Ha = Math.log(basalAreaM2Ha + 1d);
+		for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
+			int c = DummyColumn[species.ordinal()];
+			double basalAreaM2HaOfThisSpecies = stand.getBasalAreaM2HaOfThisSpecies(species);
+			double negBinMean = Math.exp(beta.getValueAt(c, 0) 
+					+ beta.getValueAt(4 + c, 0) * basalAreaM2Ha 
+					+ beta.getValueAt(8 + c, 0) * basalAreaM2HaOfThisSpecies);
+			double expTerm = Math.exp(beta.getValueAt(12 + c, 0) 
+					+ beta.getValueAt(16 + c, 0) * basalAreaM2Ha
+					+ beta.getValueAt(20 + c, 0) * lnBasalAreaM2Ha
+					+ beta.getValueAt(24 + c, 0) * basalAreaM2HaOfThisSpecies
+					+ beta.getValueAt(28 + c, 0) * Math.log(basalAreaM2HaOfThisSpecies + 1d));
+			double nonZeroProb = expTerm / (1 + expTerm);
+			double ratio = negBinMean / (negBinMean + theta);
+			double probZero = Math.exp(-theta * Math.log1p(negBinMean / theta));
+			double truncationFactor = 1 - probZero;
+			double[] row = output[species.ordinal()];
+			if (probabilitiesRequired) {
+				row[0] = 1 - nonZeroProb;
+				double probabilityMass = probZero;
+				double factor = nonZeroProb / truncationFactor;
+				for (int j = 1; j < row.length; j++) {
+					probabilityMass *= (j - 1 + theta) / j * ratio;
+					row[j] = factor * probabilityMass;
+				}
+			} else {
+				row[0] = nonZeroProb * negBinMean / truncationFactor;
+			}
+		}
+	}
+	
 	/**
 	 * This method returns the marginal prediction for a single species. If the isResidualVariabilityEnabled
 	 * option is set to false then the resolution parameter is useless.
@@ -18,16 +18,18 @@
  */
 package lerfob.predictor.mathilde.thinning;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.thinners.REpiceaThinner;
 import repicea.simulation.thinners.REpiceaTreatmentDefinition;
 import repicea.simulation.thinners.REpiceaTreatmentEnum;
@@ -45,7 +47,10 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 
 	public final static String ParmSubModuleID = "SubmoduleId";
 	
-	private final Map<Integer, MathildeThinningSubModule> subModules;
+	protected final Map<Integer, MathildeThinningSubModule> subModules;
+	private int numberOfSubModules;
+	private transient PredictorParameterMap betaMap;
+	private transient PredictorParameterMap omegaMap;
 
 	private final LinkFunction linkFunction;
 	protected static final int NumberOfParameters = 4;
@@ -57,7 +62,7 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 	 */
 	public MathildeStandThinningPredictor(boolean isVariabilityEnabled) {
 		super(isVariabilityEnabled, false, isVariabilityEnabled);
-		subModules = new HashMap<Integer, MathildeThinningSubModule>();
+		subModules = new ConcurrentHashMap<Integer, MathildeThinningSubModule>();
 		init();
 		oXVector = new Matrix(1, NumberOfParameters);
 		linkFunction = new LinkFunction(Type.Logit); // rm+fc-10.6.2015 Logit
@@ -65,42 +70,63 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 	}
 
 	protected void init() {
-		int excludedGroup = 0;
 		try {
-			String path = ObjectUtility.getRelativePackagePath(getClass());
-			String betaFilename = path + "0_MathildeThinningBeta.csv";
-			String omegaFilename = path + "0_MathildeThinningOmega.csv";
-
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1, betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);
-
-			
-			int numberOfExcludedGroups = 10; // at max
-
-			for (excludedGroup = 0; excludedGroup <= numberOfExcludedGroups; excludedGroup++) {
+			loadParameterMaps();
+			numberOfSubModules = 0;
+			// fc+rm-11.6.2015 numberOfExcludedGroups may be lower than 10
+			while (numberOfSubModules <= 10 && betaMap.contains(numberOfSubModules) && omegaMap.contains(numberOfSubModules)) {
+				numberOfSubModules++;
+			}
+			getSubModule(0);		// the other submodules are created on demand
+		} catch (Exception e) {
+			System.out.println("MathildeStandThinningPredictor.init() : Unable to initialize the MathildeStandThinningPredictor module");
+			e.printStackTrace(System.out);
+		}
+	}
 
-				// fc+rm-11.6.2015 numberOfExcludedGroups may be lower than 10
-				if (betaMap.get(excludedGroup) == null || omegaMap.get(excludedGroup) == null) {
-					break;
-				}
+	private void loadParameterMaps() throws IOException {
+		String path = ObjectUtility.getRelativePackagePath(getClass());
+		String betaFilename = path + "0_MathildeThinningBeta.csv";
+		String omegaFilename = path + "0_MathildeThinningOmega.csv";
 
-				// // rm+fc-10.6.2015 for the thining model, betaMap contains
-				// only fixed effects
-				Matrix defaultBetaMean = betaMap.get(excludedGroup).getSubMatrix(0, NumberOfParameters - 1, 0, 0);
-				Matrix omega = omegaMap.get(excludedGroup).squareSym().getSubMatrix(0, NumberOfParameters - 1, 0, NumberOfParameters - 1);
+		betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+		omegaMap = PredictorParameterCache.loadVectorFromFile(1, omegaFilename);
+	}
 
-				MathildeThinningSubModule subModule = new MathildeThinningSubModule(isParametersVariabilityEnabled,	isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
-				subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, 
-						SymmetricMatrix.convertToSymmetricIfPossible(omega)));
-				
-				subModules.put(excludedGroup, subModule);
+	/*
+	 * Creates the submodule of a particular excluded group of the cross validation. The omega matrix
+	 * is only expanded at this stage.
+	 */
+	private MathildeThinningSubModule createSubModule(int excludedGroup) {
+		if (excludedGroup < 0 || excludedGroup >= numberOfSubModules) {
+			return null;
+		}
+		try {
+			if (betaMap == null) {		// after deserialization
+				loadParameterMaps();
 			}
-		} catch (Exception e) {
-			System.out.println("MathildeStandThinningPredictor.init() : Unable to initialize the MathildeStandThinningPredictor module for group: "
-							+ excludedGroup);
-			e.printStackTrace(System.out);
+			// // rm+fc-10.6.2015 for the thining model, betaMap contains
+			// only fixed effects
+			Matrix defaultBetaMean = betaMap.get(excludedGroup).getSubMatrix(0, NumberOfParameters - 1, 0, 0);
+			Matrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(1, 
+					ObjectUtility.getRelativePackagePath(getClass()) + "0_MathildeThinningOmega.csv", 
+					excludedGroup).getSubMatrix(0, NumberOfParameters - 1, 0, NumberOfParameters - 1);
+
+			MathildeThinningSubModule subModule = new MathildeThinningSubModule(isParametersVariabilityEnabled,	isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
+			subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, 
+					SymmetricMatrix.convertToSymmetricIfPossible(omega)));
+			return subModule;
+		} catch (IOException e) {
+			throw new UncheckedIOException("MathildeStandThinningPredictor.createSubModule() : Unable to create the submodule for group: " + excludedGroup, e);
 		}
 	}
+	
+	/*
+	 * The submodules are materialized on the first request. 
+	 */
+	private MathildeThinningSubModule getSubModule(int subModuleId) {
+		return subModules.computeIfAbsent(subModuleId, this::createSubModule);
+	}
 
 	protected double getFixedEffectOnlyPrediction(Matrix beta, MathildeThinningStand stand) {
 		oXVector.resetMatrix();
@@ -138,12 +164,12 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 		MathildeThinningSubModule subModule;
 		if (parms != null && parms.containsKey(ParmSubModuleID)) {
 			int subModuleId = (Integer) parms.get(ParmSubModuleID);
-			subModule = subModules.get(subModuleId);
+			subModule = getSubModule(subModuleId);
 			if (subModule == null) {
 				throw new InvalidParameterException("The integer in the parms parameter is not valid!: " + subModuleId);
 			}
 		} else {
-			subModule = subModules.get(0);
+			subModule = getSubModule(0);
 		}
 
 		Matrix beta = subModule.getParameters(stand);
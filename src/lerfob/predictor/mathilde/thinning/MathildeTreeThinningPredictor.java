@@ -18,12 +18,18 @@
  */
 package lerfob.predictor.mathilde.thinning;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
+import lerfob.predictor.mathilde.MathildeSpeciesCoefficients;
 import lerfob.predictor.mathilde.MathildeTree;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.math.Matrix;
@@ -33,8 +39,6 @@ import repicea.math.integral.GaussHermiteQuadrature;
 import repicea.math.integral.GaussHermiteQuadrature.GaussHermiteQuadratureCompatibleFunction;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.thinners.REpiceaThinner;
 import repicea.simulation.thinners.REpiceaTreatmentDefinition;
 import repicea.simulation.thinners.REpiceaTreatmentEnum;
@@ -81,6 +85,8 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 	private static final double SqrtTwo = Math.sqrt(2d);
 	protected static final int IndexParameterToBeIntegrated = 1;
 	
+	private static final MathildeSpeciesCoefficients.Compiler SpeciesCoefficientsCompiler = MathildeTreeThinningPredictor::compileSpeciesCoefficients;
+	
 	class EmbeddedLinkFunction extends LinkFunction implements GaussHermiteQuadratureCompatibleFunction<Double> {
 
 		double standardDeviation;
@@ -102,11 +108,13 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 	}
 
 	
-	private final Map<Integer, MathildeThinningSubModule> subModules;
+	protected final Map<Integer, MathildeThinningSubModule> subModules;
 
 	private final EmbeddedLinkFunction linkFunction;
 	
-	private int numberOfParameters;
+	private int numberOfSubModules;
+	private transient PredictorParameterMap betaMap;
+	private transient PredictorParameterMap omegaMap;
 
 	protected GaussHermiteQuadrature ghq;
 	
@@ -116,98 +124,128 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 	 */
 	public MathildeTreeThinningPredictor(boolean isVariabilityEnabled) {
 		super(isVariabilityEnabled, isVariabilityEnabled, isVariabilityEnabled);
-		subModules = new HashMap<Integer, MathildeThinningSubModule>();
+		subModules = new ConcurrentHashMap<Integer, MathildeThinningSubModule>();
 		init();
-		oXVector = new Matrix(1, numberOfParameters);
-		linkFunction = new EmbeddedLinkFunction(Type.Logit); // rm+fc-10.6.2015 Logit
+		linkFunction = createLinkFunction();
+		ghq = new GaussHermiteQuadrature(NumberOfPoints.N5);
+	}
+
+	/*
+	 * The link function holds the values of the parameters and the variables. Each thread 
+	 * must therefore rely on its own instance.
+	 */
+	private EmbeddedLinkFunction createLinkFunction() {
+		EmbeddedLinkFunction linkFunction = new EmbeddedLinkFunction(Type.Logit); // rm+fc-10.6.2015 Logit
 		linkFunction.setVariableValue(0, 1d);	// variable that multiplies the xBeta
 		linkFunction.setVariableValue(1, 1d);	// variable that multiplies the random effect parameter
-		ghq = new GaussHermiteQuadrature(NumberOfPoints.N5);
+		return linkFunction;
 	}
 
 	protected void init() {
-		int excludedGroup = 0;
 		try {
-			String path = ObjectUtility.getRelativePackagePath(getClass());
-			String betaFilename = path + "0_MathildeThinningBeta.csv";
-			String omegaFilename = path + "0_MathildeThinningOmega.csv";
-
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1, betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);
-
-			numberOfParameters = -1;
-			int numberOfExcludedGroups = 10; // at max
-
-			for (excludedGroup = 0; excludedGroup <= numberOfExcludedGroups; excludedGroup++) {
-
-				// fc+rm-11.6.2015 numberOfExcludedGroups may be lower than 10
-				if (betaMap.get(excludedGroup) == null || omegaMap.get(excludedGroup) == null) {
-					break;
-				}
-
-				// // rm+fc-10.6.2015 for the thining model, betaMap contains
-				Matrix defaultBetaMean = betaMap.get(excludedGroup);
-				SymmetricMatrix randomEffectVariance = SymmetricMatrix.convertToSymmetricIfPossible(
-						defaultBetaMean.getSubMatrix(defaultBetaMean.m_iRows - 1, defaultBetaMean.m_iRows - 1, 0, 0)); // last element
-				defaultBetaMean = defaultBetaMean.getSubMatrix(MathildeStandThinningPredictor.NumberOfParameters, 
-						defaultBetaMean.m_iRows - 2, 
-						0, 
-						0);
-				if (numberOfParameters == -1) {
-					numberOfParameters = defaultBetaMean.m_iRows;
-				}
-				
-				Matrix omega = omegaMap.get(excludedGroup).squareSym();
-				omega = omega.getSubMatrix(MathildeStandThinningPredictor.NumberOfParameters, 
-						omega.m_iRows - 2, 
-						MathildeStandThinningPredictor.NumberOfParameters, 
-						omega.m_iRows - 2);
-				
-				MathildeThinningSubModule subModule = new MathildeThinningSubModule(isParametersVariabilityEnabled,	isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
-				
-				subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, 
-						SymmetricMatrix.convertToSymmetricIfPossible(omega)));
-				
-				Matrix meanIntervalRandomEffect = new Matrix(1,1);
-				subModule.setDefaultRandomEffects(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT, new GaussianEstimate(meanIntervalRandomEffect, randomEffectVariance));
-			
-				subModules.put(excludedGroup, subModule);
+			loadParameterMaps();
+			numberOfSubModules = 0;
+			// fc+rm-11.6.2015 numberOfExcludedGroups may be lower than 10
+			while (numberOfSubModules <= 10 && betaMap.contains(numberOfSubModules) && omegaMap.contains(numberOfSubModules)) {
+				numberOfSubModules++;
 			}
+			getSubModule(0);		// the other submodules are created on demand
 		} catch (Exception e) {
-			System.out.println("MathildeTreeThinningPredictor.init() : Unable to initialize the MathildeTreeThinningPredictor module for group: "
-							+ excludedGroup);
+			System.out.println("MathildeTreeThinningPredictor.init() : Unable to initialize the MathildeTreeThinningPredictor module");
 			e.printStackTrace(System.out);
 		}
 	}
 
+	private void loadParameterMaps() throws IOException {
+		String path = ObjectUtility.getRelativePackagePath(getClass());
+		String betaFilename = path + "0_MathildeThinningBeta.csv";
+		String omegaFilename = path + "0_MathildeThinningOmega.csv";
+
+		betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+		omegaMap = PredictorParameterCache.loadVectorFromFile(1, omegaFilename);
+	}
+	
+	/*
+	 * Creates the submodule of a particular excluded group of the cross validation. The omega matrix
+	 * is only expanded at this stage.
+	 */
+	private MathildeThinningSubModule createSubModule(int excludedGroup) {
+		if (excludedGroup < 0 || excludedGroup >= numberOfSubModules) {
+			return null;
+		}
+		try {
+			if (betaMap == null) {		// after deserialization
+				loadParameterMaps();
+			}
+			// // rm+fc-10.6.2015 for the thining model, betaMap contains
+			Matrix defaultBetaMean = betaMap.get(excludedGroup);
+			SymmetricMatrix randomEffectVariance = SymmetricMatrix.convertToSymmetricIfPossible(
+					defaultBetaMean.getSubMatrix(defaultBetaMean.m_iRows - 1, defaultBetaMean.m_iRows - 1, 0, 0)); // last element
+			defaultBetaMean = defaultBetaMean.getSubMatrix(MathildeStandThinningPredictor.NumberOfParameters, 
+					defaultBetaMean.m_iRows - 2, 
+					0, 
+					0);
+			
+			Matrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(1, 
+					ObjectUtility.getRelativePackagePath(getClass()) + "0_MathildeThinningOmega.csv", 
+					excludedGroup);
+			omega = omega.getSubMatrix(MathildeStandThinningPredictor.NumberOfParameters, 
+					omega.m_iRows - 2, 
+					MathildeStandThinningPredictor.NumberOfParameters, 
+					omega.m_iRows - 2);
+			
+			MathildeThinningSubModule subModule = new MathildeThinningSubModule(isParametersVariabilityEnabled,	isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
+			
+			subModule.setParameterEstimates(new ModelParameterEstimates(defaultBetaMean, 
+					SymmetricMatrix.convertToSymmetricIfPossible(omega)));
+			
+			Matrix meanIntervalRandomEffect = new Matrix(1,1);
+			subModule.setDefaultRandomEffects(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT, new GaussianEstimate(meanIntervalRandomEffect, randomEffectVariance));
+			return subModule;
+		} catch (IOException e) {
+			throw new UncheckedIOException("MathildeTreeThinningPredictor.createSubModule() : Unable to create the submodule for group: " + excludedGroup, e);
+		}
+	}
+
+	/*
+	 * Collapses the species interactions of the beta vector. The returned array is indexed by the ordinal 
+	 * of the MathildeTreeSpecies enum and then by the covariate, namely the intercept, the scaled dbh, the scaled
+	 * dbh below 0.9, the square of the scaled dbh and the square of the scaled dbh below 0.9.
+	 */
+	private static double[][] compileSpeciesCoefficients(Matrix beta) {
+		int nbSpecies = MathildeTreeSpecies.values().length;
+		double[][] coefficients = new double[nbSpecies][5];
+		for (int s = 0; s < nbSpecies; s++) {
+			double[] coef = coefficients[s];
+			coef[0] = beta.getValueAt(0, 0);
+			coef[1] = beta.getValueAt(1 + s, 0);					// long dummy variable
+			coef[2] = beta.getValueAt(1 + nbSpecies + s, 0);		// long dummy variable
+			coef[3] = beta.getValueAt(1 + 2 * nbSpecies, 0);
+			coef[4] = beta.getValueAt(2 + 2 * nbSpecies, 0);
+		}
+		return coefficients;
+	}
+
 	protected double getFixedEffectOnlyPrediction(Matrix beta, MathildeThinningStand stand, MathildeTree tree) {
-		oXVector.resetMatrix();
-		
-		MathildeTreeSpecies species = tree.getMathildeTreeSpecies();
-		double scaledDbhDg = tree.getDbhCm() / stand.getMeanQuadraticDiameterCm() - 0.9;
+		return getFixedEffectOnlyPrediction(new MathildeSpeciesCoefficients(beta, compileSpeciesCoefficients(beta)), stand, tree);
+	}
+
+	protected double getFixedEffectOnlyPrediction(MathildeSpeciesCoefficients coefficients, MathildeThinningStand stand, MathildeTree tree) {
+		return getFixedEffectOnlyPrediction(coefficients.getCoefficients(tree.getMathildeTreeSpecies()),
+				tree.getDbhCm() / stand.getMeanQuadraticDiameterCm() - 0.9);
+	}
+	
+	private static double getFixedEffectOnlyPrediction(double[] coef, double scaledDbhDg) {
 		double dbhDgBelow09 = 0;
 		if (scaledDbhDg < 0) {
 			dbhDgBelow09 = 1d;
 		}
-		int pointer = 0;
-
-		oXVector.setValueAt(0, pointer, 1d);
-		pointer++;
-
-		oXVector.setSubMatrix(species.getLongDummyVariable().scalarMultiply(scaledDbhDg), 0, pointer);
-		pointer += species.getLongDummyVariable().m_iCols;
-
-		oXVector.setSubMatrix(species.getLongDummyVariable().scalarMultiply(scaledDbhDg * dbhDgBelow09), 0, pointer);
-		pointer += species.getLongDummyVariable().m_iCols;
-
-		oXVector.setValueAt(0, pointer, scaledDbhDg * scaledDbhDg);
-		pointer++;
-
-		oXVector.setValueAt(0, pointer, scaledDbhDg * scaledDbhDg * dbhDgBelow09);
-		pointer++;
-		
-		double result = oXVector.multiply(beta).getValueAt(0, 0);
-		return result;
+		double scaledDbhDg2 = scaledDbhDg * scaledDbhDg;
+		return coef[0] 
+				+ coef[1] * scaledDbhDg 
+				+ coef[2] * scaledDbhDg * dbhDgBelow09 
+				+ coef[3] * scaledDbhDg2 
+				+ coef[4] * scaledDbhDg2 * dbhDgBelow09;
 	}
 
 	@Override
@@ -224,10 +262,17 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 			subModule = getSubModule(0);
 		}
 
-		Matrix beta = subModule.getParameters(tree);
-
-		double pred = getFixedEffectOnlyPrediction(beta, stand, tree);
+		MathildeSpeciesCoefficients coefficients = subModule.getSpeciesCoefficients(tree, SpeciesCoefficientsCompiler);
 
+		double pred = getFixedEffectOnlyPrediction(coefficients, stand, tree);
+		return getEventProbability(linkFunction, subModule, stand, pred);
+	}
+	
+	/*
+	 * Returns the probability from the fixed-effect prediction. The link function is passed as a 
+	 * parameter since it is not thread safe. 
+	 */
+	private double getEventProbability(EmbeddedLinkFunction linkFunction, MathildeThinningSubModule subModule, MathildeThinningStand stand, double pred) {
 		linkFunction.setParameterValue(0, pred);
 		double prob = 0d;
 		
@@ -247,8 +292,51 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 		return prob;
 	}
 
+	/**
+	 * This method returns the harvest probabilities of a batch of trees for each one of the submodules 
+	 * of the cross validation. The covariates of the trees are read only once and, in deterministic mode, 
+	 * the submodules are evaluated in parallel.
+	 * @param stands a list of MathildeThinningStand instances (the stand of each tree)
+	 * @param trees a list of MathildeTree instances 
+	 * @return an array of N x number of submodules with the probabilities. The column index 
+	 * is the excluded group of the cross validation.
+	 */
+	public double[][] predictEventProbabilityForAllSubModules(List<? extends MathildeThinningStand> stands, List<? extends MathildeTree> trees) {
+		int nbTrees = trees.size();
+		if (stands.size() != nbTrees) {
+			throw new InvalidParameterException("The stands and trees lists must have the same size!");
+		}
+		int[] species = new int[nbTrees];
+		double[] scaledDbhDg = new double[nbTrees];
+		for (int i = 0; i < nbTrees; i++) {
+			MathildeTree tree = trees.get(i);
+			species[i] = tree.getMathildeTreeSpecies().ordinal();
+			scaledDbhDg[i] = tree.getDbhCm() / stands.get(i).getMeanQuadraticDiameterCm() - 0.9;
+		}
+		
+		int nbSubModules = numberOfSubModules;
+		final double[][] predictions = new double[nbTrees][nbSubModules];
+		IntStream subModuleIds = IntStream.range(0, nbSubModules);
+		if (!isParametersVariabilityEnabled && !isRandomEffectsVariabilityEnabled && !isResidualVariabilityEnabled) {	// the stochastic deviates are stored in maps that are not synchronized
+			subModuleIds = subModuleIds.parallel();
+		}
+		subModuleIds.forEach(j -> {
+			MathildeThinningSubModule subModule = getSubModule(j);
+			EmbeddedLinkFunction linkFunctionForThisSubModule = createLinkFunction();
+			for (int i = 0; i < nbTrees; i++) {
+				MathildeSpeciesCoefficients coefficients = subModule.getSpeciesCoefficients(trees.get(i), SpeciesCoefficientsCompiler);
+				double pred = getFixedEffectOnlyPrediction(coefficients.getCoefficients(species[i]), scaledDbhDg[i]);
+				predictions[i][j] = getEventProbability(linkFunctionForThisSubModule, subModule, stands.get(i), pred);
+			}
+		});
+		return predictions;
+	}
+
+	/*
+	 * The submodules are materialized on the first request. 
+	 */
 	protected final MathildeThinningSubModule getSubModule(int subModuleId) {
-		return subModules.get(subModuleId);
+		return subModules.computeIfAbsent(subModuleId, this::createSubModule);
 	}
 
 
@@ -23,11 +23,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.thinners.REpiceaThinner;
 import repicea.simulation.thinners.REpiceaTreatmentDefinition;
 import repicea.simulation.thinners.REpiceaTreatmentEnum;
@@ -71,8 +71,8 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 			String betaFilename = path + "0_MathildeStandThinningBeta.csv";
 			String omegaFilename = path + "0_MathildeStandThinningOmega.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1, betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+			PredictorParameterMap omegaMap = PredictorParameterCache.loadVectorFromFile(1, omegaFilename);
 
 			numberOfParameters = -1;
 			int numberOfExcludedGroups = 10; // at max
@@ -80,7 +80,7 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 			for (excludedGroup = 0; excludedGroup <= numberOfExcludedGroups; excludedGroup++) {
 
 				// fc+rm-11.6.2015 numberOfExcludedGroups may be lower than 10
-				if (betaMap.get(excludedGroup) == null || omegaMap.get(excludedGroup) == null) {
+				if (!betaMap.contains(excludedGroup) || !omegaMap.contains(excludedGroup)) {
 					break;
 				}
 
@@ -91,7 +91,7 @@ public final class MathildeStandThinningPredictor extends REpiceaThinner<Mathild
 				if (numberOfParameters == -1) {
 					numberOfParameters = defaultBetaMean.m_iRows;
 				}
-				SymmetricMatrix omega = omegaMap.get(excludedGroup).squareSym();
+				SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(1, omegaFilename, excludedGroup);
 
 
 				MathildeThinningSubModule subModule = new MathildeThinningSubModule(isParametersVariabilityEnabled,	isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
 import lerfob.predictor.mathilde.MathildeTree;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.math.Matrix;
@@ -33,8 +35,6 @@ import repicea.math.integral.GaussHermiteQuadrature;
 import repicea.math.integral.GaussHermiteQuadrature.GaussHermiteQuadratureCompatibleFunction;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.thinners.REpiceaThinner;
 import repicea.simulation.thinners.REpiceaTreatmentDefinition;
 import repicea.simulation.thinners.REpiceaTreatmentEnum;
@@ -135,9 +135,9 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 			String omegaFilename = path + "0_MathildeTreeThinningOmega.csv";
 			String covparmsFilename = path + "0_MathildeThinningCovParms.csv";
 
-			ParameterMap betaMap = ParameterLoader.loadVectorFromFile(1, betaFilename);
-			ParameterMap omegaMap = ParameterLoader.loadVectorFromFile(1, omegaFilename);
-			ParameterMap covparmsMap = ParameterLoader.loadVectorFromFile(1,covparmsFilename);
+			PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+			PredictorParameterMap omegaMap = PredictorParameterCache.loadVectorFromFile(1, omegaFilename);
+			PredictorParameterMap covparmsMap = PredictorParameterCache.loadVectorFromFile(1,covparmsFilename);
 
 			numberOfParameters = -1;
 			int numberOfExcludedGroups = 10; // at max
@@ -145,7 +145,7 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 			for (excludedGroup = 0; excludedGroup <= numberOfExcludedGroups; excludedGroup++) {
 
 				// fc+rm-11.6.2015 numberOfExcludedGroups may be lower than 10
-				if (betaMap.get(excludedGroup) == null || omegaMap.get(excludedGroup) == null) {
+				if (!betaMap.contains(excludedGroup) || !omegaMap.contains(excludedGroup)) {
 					break;
 				}
 
@@ -155,7 +155,7 @@ public final class MathildeTreeThinningPredictor extends REpiceaThinner<Mathilde
 					numberOfParameters = defaultBetaMean.m_iRows;
 				}
 				
-				SymmetricMatrix omega = omegaMap.get(excludedGroup).squareSym();
+				SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(1, omegaFilename, excludedGroup);
 
 				MathildeThinningSubModule subModule = new MathildeThinningSubModule(isParametersVariabilityEnabled,	isRandomEffectsVariabilityEnabled, isResidualVariabilityEnabled);
 				
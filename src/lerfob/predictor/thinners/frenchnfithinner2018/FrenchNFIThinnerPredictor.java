@@ -22,11 +22,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import lerfob.predictor.PredictorParameterCache;
 import lerfob.simulation.covariateproviders.plotlevel.FrenchRegion2016Provider.FrenchRegion2016;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
 import repicea.simulation.SASParameterEstimates;
 import repicea.simulation.covariateproviders.plotlevel.LandOwnershipProvider;
 import repicea.simulation.covariateproviders.plotlevel.LandOwnershipProvider.LandOwnership;
@@ -122,8 +122,8 @@ public class FrenchNFIThinnerPredictor extends REpiceaThinner<FrenchNFIThinnerPl
 			String betaFilename = path + "0_beta.csv";
 			String omegaFilename = path + "0_omega.csv";
 			
-			Matrix beta = ParameterLoader.loadVectorFromFile(betaFilename).get();
-			SymmetricMatrix omega = ParameterLoader.loadVectorFromFile(omegaFilename).get().squareSym();
+			Matrix beta = PredictorParameterCache.loadVectorFromFile(betaFilename).get();
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(0, omegaFilename);
 			
 			ModelParameterEstimates estimate = new SASParameterEstimates(beta, omega);
 			setParameterEstimates(estimate); 
@@ -0,0 +1,177 @@
+/*
+ * This file is part of the lerfob-forestools library.
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package lerfob.predictor.volume;
+
+import java.security.InvalidParameterException;
+
+/**
+ * The CommercialVolumeLookupTable class stores the commercial volumes of a species over a grid of
+ * dbh and height values. The volumes within the grid are obtained through bilinear interpolation.<br>
+ * <br>
+ * The table applies to the French commercial volume models, whose deterministic part has the form<br>
+ * <br>
+ * v = b1 * h / d + (b2 + b3 * d) * k * d^2 * h<br>
+ * <br>
+ * where d is the dbh (cm), h is the height (m) and k is the factor of the cylinder. Since the volume
+ * is linear in height, the interpolation along the height axis is exact and the interpolation error
+ * only depends on the curvature along the dbh axis. This curvature is bounded in each cell of the grid,
+ * which yields the error bound returned by the getErrorBoundDm3 method.
+ * @author agent - October 2026
+ */
+public final class CommercialVolumeLookupTable {
+
+	/**
+	 * The Grid class defines the dbh and height nodes of the lookup tables. The last node of
+	 * each axis is the first one that is equal to or greater than the upper limit.
+	 */
+	public static final class Grid {
+
+		private final double minDbhCm;
+		private final double dbhStepCm;
+		private final int nbDbhNodes;
+		private final double minHeightM;
+		private final double heightStepM;
+		private final int nbHeightNodes;
+
+		/**
+		 * Constructor.
+		 * @param minDbhCm the lower limit of dbh (cm). It must be strictly positive.
+		 * @param maxDbhCm the upper limit of dbh (cm)
+		 * @param dbhStepCm the distance between two dbh nodes (cm)
+		 * @param minHeightM the lower limit of height (m)
+		 * @param maxHeightM the upper limit of height (m)
+		 * @param heightStepM the distance between two height nodes (m)
+		 */
+		public Grid(double minDbhCm, double maxDbhCm, double dbhStepCm, double minHeightM, double maxHeightM, double heightStepM) {
+			if (minDbhCm <= 0d || maxDbhCm <= minDbhCm || dbhStepCm <= 0d) {
+				throw new InvalidParameterException("The dbh limits must be positive and the step must be strictly positive!");
+			}
+			if (minHeightM < 0d || maxHeightM <= minHeightM || heightStepM <= 0d) {
+				throw new InvalidParameterException("The height limits must be positive and the step must be strictly positive!");
+			}
+			this.minDbhCm = minDbhCm;
+			this.dbhStepCm = dbhStepCm;
+			nbDbhNodes = getNumberOfNodes(minDbhCm, maxDbhCm, dbhStepCm);
+			this.minHeightM = minHeightM;
+			this.heightStepM = heightStepM;
+			nbHeightNodes = getNumberOfNodes(minHeightM, maxHeightM, heightStepM);
+		}
+
+		private static int getNumberOfNodes(double min, double max, double step) {
+			return Math.max((int) Math.ceil((max - min) / step - 1E-9) + 1, 2);
+		}
+
+		/**
+		 * This method returns the last dbh node of the grid.
+		 * @return the dbh (cm)
+		 */
+		public double getMaxDbhCm() {return minDbhCm + (nbDbhNodes - 1) * dbhStepCm;}
+
+		/**
+		 * This method returns the last height node of the grid.
+		 * @return the height (m)
+		 */
+		public double getMaxHeightM() {return minHeightM + (nbHeightNodes - 1) * heightStepM;}
+
+		/**
+		 * This method checks if a tree lies within the grid.
+		 * @param dbhCm the diameter at breast height (cm)
+		 * @param heightM the tree height (m)
+		 * @return a boolean
+		 */
+		public boolean contains(double dbhCm, double heightM) {
+			return dbhCm >= minDbhCm && dbhCm <= getMaxDbhCm() && heightM >= minHeightM && heightM <= getMaxHeightM();
+		}
+	}
+
+	private final Grid grid;
+	private final double[] volumes;	// the dbh index varies the slowest
+	private final double errorBoundDm3;
+
+	/**
+	 * Constructor.
+	 * @param grid a Grid instance
+	 * @param hdRatioCoef the parameter of the hd ratio (b1)
+	 * @param cylinderCoef the parameter of the cylinder (b2)
+	 * @param cylinderDbhCoef the parameter of the cylinder times dbh (b3)
+	 * @param cylinderFactor the factor of the cylinder (k)
+	 */
+	public CommercialVolumeLookupTable(Grid grid, double hdRatioCoef, double cylinderCoef, double cylinderDbhCoef, double cylinderFactor) {
+		this.grid = grid;
+		volumes = new double[grid.nbDbhNodes * grid.nbHeightNodes];
+		double maxHeightM = grid.getMaxHeightM();
+		double k2 = cylinderFactor * cylinderCoef;
+		double k3 = cylinderFactor * cylinderDbhCoef;
+		double maxCurvature = 0d;
+		for (int i = 0; i < grid.nbDbhNodes; i++) {
+			double dbhCm = grid.minDbhCm + i * grid.dbhStepCm;
+			double squaredDbhCm = dbhCm * dbhCm;
+			for (int j = 0; j < grid.nbHeightNodes; j++) {
+				double heightM = grid.minHeightM + j * grid.heightStepM;
+				double cylinder = cylinderFactor * squaredDbhCm * heightM;
+				volumes[i * grid.nbHeightNodes + j] = hdRatioCoef * heightM / dbhCm + (cylinderCoef + cylinderDbhCoef * dbhCm) * cylinder;
+			}
+			if (i < grid.nbDbhNodes - 1) {
+				// bound on the second derivative of b1 / d + k2 * d^2 + k3 * d^3 within the cell
+				double nextDbhCm = dbhCm + grid.dbhStepCm;
+				double curvature = 2d * Math.abs(hdRatioCoef) / (dbhCm * squaredDbhCm)
+						+ Math.max(Math.abs(2d * k2 + 6d * k3 * dbhCm), Math.abs(2d * k2 + 6d * k3 * nextDbhCm));
+				if (curvature > maxCurvature) {
+					maxCurvature = curvature;
+				}
+			}
+		}
+		errorBoundDm3 = grid.dbhStepCm * grid.dbhStepCm * .125 * maxHeightM * maxCurvature;
+	}
+
+	/**
+	 * This method returns the interpolated volume of a tree. It assumes the tree lies within
+	 * the grid, which can be checked through the Grid.contains method.
+	 * @param dbhCm the diameter at breast height (cm)
+	 * @param heightM the tree height (m)
+	 * @return the commercial volume (dm3)
+	 */
+	public double getVolumeDm3(double dbhCm, double heightM) {
+		double u = (dbhCm - grid.minDbhCm) / grid.dbhStepCm;
+		int i = Math.min((int) u, grid.nbDbhNodes - 2);
+		double fu = u - i;
+		double v = (heightM - grid.minHeightM) / grid.heightStepM;
+		int j = Math.min((int) v, grid.nbHeightNodes - 2);
+		double fv = v - j;
+		int index = i * grid.nbHeightNodes + j;
+		double lower = volumes[index] + fv * (volumes[index + 1] - volumes[index]);
+		index += grid.nbHeightNodes;
+		double upper = volumes[index] + fv * (volumes[index + 1] - volumes[index]);
+		return lower + fu * (upper - lower);
+	}
+
+	/**
+	 * This method returns the grid of the table.
+	 * @return a Grid instance
+	 */
+	public Grid getGrid() {return grid;}
+
+	/**
+	 * This method returns the maximum absolute difference between the interpolated volume and
+	 * the volume of the exact equation over the grid, up to the floating-point rounding.
+	 * @return the error bound (dm3)
+	 */
+	public double getErrorBoundDm3() {return errorBoundDm3;}
+
+}
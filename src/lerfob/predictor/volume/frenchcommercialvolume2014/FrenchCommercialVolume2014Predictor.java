@@ -18,12 +18,17 @@
  */
 package lerfob.predictor.volume.frenchcommercialvolume2014;
 
+import java.security.InvalidParameterException;
+
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.volume.CommercialVolumeLookupTable;
+import lerfob.predictor.volume.frenchcommercialvolume2014.FrenchCommercialVolume2014Tree.FrenchCommercialVolume2014TreeSpecies;
 import repicea.math.DiagonalMatrix;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
-import repicea.simulation.ParameterLoader;
 import repicea.simulation.REpiceaPredictor;
 import repicea.simulation.SASParameterEstimates;
+import repicea.stats.StatisticalUtility;
 import repicea.stats.estimates.GaussianErrorTermEstimate;
 import repicea.util.ObjectUtility;
 
@@ -37,6 +42,12 @@ import repicea.util.ObjectUtility;
 @SuppressWarnings("serial")
 public final class FrenchCommercialVolume2014Predictor extends REpiceaPredictor {
 
+	private static final double CylinderFactor = 3.14159 * .025;		// the value of 3.14159 has been used in SAS and not the PI
+	
+	private double[][] speciesCoefficients;		// hd ratio, cylinder and cylinder times dbh parameters indexed by species ordinal
+	private double[] residualStdDevs;			// indexed by species ordinal
+	private volatile CommercialVolumeLookupTable[] lookupTables;	// indexed by species ordinal
+	
 	/**
 	 * General constructor.
 	 * @param isVariabilityEnabled a boolean (true: stochastic mode, false: deterministic mode)
@@ -44,7 +55,6 @@ public final class FrenchCommercialVolume2014Predictor extends REpiceaPredictor
 	public FrenchCommercialVolume2014Predictor(boolean isVariabilityEnabled) {
 		super(isVariabilityEnabled, false, isVariabilityEnabled);	 // no random effect
 		init();
-		oXVector = new Matrix(1, getParameterEstimates().getMean().m_iRows);
 	}
 	
 	/**
@@ -62,11 +72,18 @@ public final class FrenchCommercialVolume2014Predictor extends REpiceaPredictor
 		String covparmsFilename = path + "0_covparms.csv";
 		
 		try {
-			Matrix beta = ParameterLoader.loadVectorFromFile(betaFilename).get();
-			SymmetricMatrix omega = ParameterLoader.loadVectorFromFile(omegaFilename).get().squareSym();
-			DiagonalMatrix covparms = ParameterLoader.loadVectorFromFile(covparmsFilename).get().matrixDiagonal();
+			Matrix beta = PredictorParameterCache.loadVectorFromFile(betaFilename).get();
+			SymmetricMatrix omega = PredictorParameterCache.loadSymmetricMatrixFromVector(0, omegaFilename);
+			DiagonalMatrix covparms = PredictorParameterCache.loadVectorFromFile(covparmsFilename).get().matrixDiagonal();
 			setDefaultResidualError(ErrorTermGroup.Default, new GaussianErrorTermEstimate(covparms));
 			setParameterEstimates(new SASParameterEstimates(beta, omega));
+			int nbSpecies = FrenchCommercialVolume2014TreeSpecies.values().length;
+			speciesCoefficients = new double[nbSpecies][];
+			residualStdDevs = new double[nbSpecies];
+			for (int s = 0; s < nbSpecies; s++) {
+				speciesCoefficients[s] = getSpeciesCoefficients(beta, s);
+				residualStdDevs[s] = Math.sqrt(covparms.getValueAt(s, s));
+			}
 		} catch (Exception e) {
 			System.out.println("Unable to load parameters of the FrenchCommercialVolume2014Predictor class");
 		}
@@ -100,11 +117,17 @@ public final class FrenchCommercialVolume2014Predictor extends REpiceaPredictor
 			return -1d;
 		}
 
-		double volume = fixedEffectPrediction(tree);
-		double residualError = 0d;
+		CommercialVolumeLookupTable[] tables = lookupTables;
+		CommercialVolumeLookupTable table = tables != null ? tables[tree.getFrenchCommercialVolume2014TreeSpecies().ordinal()] : null;
+		double volume;
+		if (table != null && table.getGrid().contains(dbhCm, tree.getHeightM())) {
+			volume = table.getVolumeDm3(dbhCm, tree.getHeightM());
+		} else {
+			volume = fixedEffectPrediction(tree);
+		}
 		
-		if (isResidualVariabilityEnabled) {
-			residualError = tree.getFrenchCommercialVolume2014TreeSpecies().getDummy().multiply(getResidualError()).scalarMultiply(dbhCm).getValueAt(0, 0);
+		if (isResidualVariabilityEnabled) {		// only the residual error of the species is drawn
+			double residualError = StatisticalUtility.getRandom().nextGaussian() * residualStdDevs[tree.getFrenchCommercialVolume2014TreeSpecies().ordinal()] * dbhCm;
 			volume += residualError;
 		}
 		if (volume < 0) {		
@@ -134,27 +157,86 @@ public final class FrenchCommercialVolume2014Predictor extends REpiceaPredictor
 	}
 	
 	
-	private synchronized double fixedEffectPrediction(FrenchCommercialVolume2014Tree tree) {
-		oXVector.resetMatrix();
-		Matrix beta = getParametersForThisRealization(tree);
+	/**
+	 * This method enables the lookup tables of this predictor. The volume of the trees that lie within 
+	 * the grid is then interpolated from a table of species-specific volumes instead of being computed 
+	 * from the equation. The trees outside the grid are still predicted from the equation. The 
+	 * interpolation error is bounded by the value returned by the getLookupTableErrorBoundDm3 method. 
+	 * 
+	 * The lookup tables cannot be enabled if the parameter variability is enabled.
+	 * 
+	 * @param grid a CommercialVolumeLookupTable.Grid instance or null to disable the lookup tables
+	 */
+	public void setLookupTableGrid(CommercialVolumeLookupTable.Grid grid) {
+		if (grid == null) {
+			lookupTables = null;
+		} else {
+			if (isParametersVariabilityEnabled) {
+				throw new InvalidParameterException("The lookup tables cannot be used if the parameter variability is enabled!");
+			}
+			CommercialVolumeLookupTable[] tables = new CommercialVolumeLookupTable[speciesCoefficients.length];
+			for (int s = 0; s < speciesCoefficients.length; s++) {
+				double[] coef = speciesCoefficients[s];
+				tables[s] = new CommercialVolumeLookupTable(grid, coef[0], coef[1], coef[2], CylinderFactor);
+			}
+			lookupTables = tables;
+		}
+	}
+
+	/**
+	 * This method returns the maximum difference between the volumes interpolated from the lookup 
+	 * tables and those of the equation across all the species.
+	 * @return the error bound (dm3) or 0 if the lookup tables are disabled
+	 */
+	public double getLookupTableErrorBoundDm3() {
+		double errorBoundDm3 = 0d;
+		CommercialVolumeLookupTable[] tables = lookupTables;
+		if (tables != null) {
+			for (CommercialVolumeLookupTable table : tables) {
+				if (table.getErrorBoundDm3() > errorBoundDm3) {
+					errorBoundDm3 = table.getErrorBoundDm3();
+				}
+			}
+		}
+		return errorBoundDm3;
+	}
+
+	/*
+	 * The design vector contains the hd ratio, the cylinder times the species dummy and the cylinder
+	 * times dbh times the species dummy. Only the three parameters of the species are retained.
+	 */
+	private static double[] getSpeciesCoefficients(Matrix beta, int speciesIndex) {
+		int nbSpecies = FrenchCommercialVolume2014TreeSpecies.values().length;
+		return new double[] {beta.getValueAt(0, 0), 
+				beta.getValueAt(1 + speciesIndex, 0), 
+				beta.getValueAt(1 + nbSpecies + speciesIndex, 0)};
+	}
+	
+	private synchronized Matrix getParametersForThisTree(FrenchCommercialVolume2014Tree tree) {
+		return getParametersForThisRealization(tree);
+	}
+	
+	private double fixedEffectPrediction(FrenchCommercialVolume2014Tree tree) {
+		int speciesIndex = tree.getFrenchCommercialVolume2014TreeSpecies().ordinal();
+		double hdRatioCoef;
+		double cylinderCoef;
+		double cylinderDbhCoef;
+		if (isParametersVariabilityEnabled) {
+			Matrix beta = getParametersForThisTree(tree);
+			hdRatioCoef = beta.getValueAt(0, 0);
+			cylinderCoef = beta.getValueAt(1 + speciesIndex, 0);
+			cylinderDbhCoef = beta.getValueAt(1 + speciesCoefficients.length + speciesIndex, 0);
+		} else {
+			double[] coef = speciesCoefficients[speciesIndex];
+			hdRatioCoef = coef[0];
+			cylinderCoef = coef[1];
+			cylinderDbhCoef = coef[2];
+		}
 		
 		double hdratio = tree.getHeightM() / tree.getDbhCm();
-		double cylinder = 3.14159 * tree.getSquaredDbhCm() * tree.getHeightM() * .025;		// the value of 3.14159 has been used in SAS and not the PI
-		
-		int pointer = 0;
-		
-		oXVector.setValueAt(0, 0, hdratio);
-		pointer++;
-		
-		Matrix tmp = tree.getFrenchCommercialVolume2014TreeSpecies().getDummy().scalarMultiply(cylinder);
-		oXVector.setSubMatrix(tmp, 0, pointer);
-		pointer += tmp.m_iCols;
-		
-		tmp = tree.getFrenchCommercialVolume2014TreeSpecies().getDummy().scalarMultiply(cylinder * tree.getDbhCm());
-		oXVector.setSubMatrix(tmp, 0, pointer);
-		pointer += tmp.m_iCols;
+		double cylinder = CylinderFactor * tree.getSquaredDbhCm() * tree.getHeightM();
 		
-		return oXVector.multiply(beta).getValueAt(0, 0);
+		return hdratio * hdRatioCoef + cylinder * cylinderCoef + cylinder * tree.getDbhCm() * cylinderDbhCoef;
 	}
  
 
@@ -24,6 +24,7 @@ package lerfob.predictor.volume.frenchcommercialvolume2020;
 import java.util.ArrayList;
 import java.util.List;
 
+import lerfob.predictor.volume.CommercialVolumeLookupTable;
 import lerfob.predictor.volume.frenchcommercialvolume2020.FrenchCommercialVolume2020Tree.FrenchCommercialVolume2020TreeSpecies;
 import repicea.math.Matrix;
 import repicea.simulation.ModelParameterEstimates;
@@ -37,6 +38,16 @@ final class FrenchCommercialVolume2020InternalPredictor extends REpiceaPredictor
 	final FrenchCommercialVolume2020TreeSpecies species;
 	final List<Integer> effectList;
 	
+	/*
+	 * The parameters of the effect list compiled by effect. The model is linear in
+	 * the hd ratio, the cylinder and the cylinder times dbh.
+	 */
+	private final double hdRatioCoef;
+	private final double cylinderCoef;
+	private final double cylinderDbhCoef;
+	
+	private volatile CommercialVolumeLookupTable lookupTable;
+	
 	FrenchCommercialVolume2020InternalPredictor(boolean isParametersVariabilityEnabled,	
 			boolean isResidualVariabilityEnabled, 
 			FrenchCommercialVolume2020TreeSpecies species,
@@ -51,9 +62,34 @@ final class FrenchCommercialVolume2020InternalPredictor extends REpiceaPredictor
 		for (int i = 0; i < effects.m_iRows; i++) {
 			effectList.add(((Double) effects.getValueAt(i, 0)).intValue());
 		}
+		Matrix beta = parms.getMean();
+		double[] compiledCoef = new double[3];
+		int pointer = 0;
+		for (Integer effectID : effectList) {
+			if (effectID >= 1 && effectID <= 3) {
+				compiledCoef[effectID - 1] += beta.getValueAt(pointer, 0);
+				pointer++;
+			}
+		}
+		hdRatioCoef = compiledCoef[0];
+		cylinderCoef = compiledCoef[1];
+		cylinderDbhCoef = compiledCoef[2];
 		init();
 	}
 
+	/*
+	 * Builds the lookup table of this species or disables it if the grid is null.
+	 */
+	void setLookupTable(CommercialVolumeLookupTable.Grid grid) {
+		if (grid == null) {
+			lookupTable = null;
+		} else {
+			lookupTable = new CommercialVolumeLookupTable(grid, hdRatioCoef, cylinderCoef, cylinderDbhCoef, Math.PI * .025);
+		}
+	}
+
+	CommercialVolumeLookupTable getLookupTable() {return lookupTable;}
+	
 	@Override
 	protected void init() {
 		int nbParms = this.getParameterEstimates().getMean().m_iRows;
@@ -61,20 +97,44 @@ final class FrenchCommercialVolume2020InternalPredictor extends REpiceaPredictor
 	}
 	
 	double predictTreeCommercialVolumeDm3(FrenchCommercialVolume2020Tree tree) {
-		double dbhCm = tree.getDbhCm();
+		return predictTreeCommercialVolumeDm3(tree.getDbhCm(), tree.getHeightM(), tree);
+	}
+
+	/*
+	 * Lock-free computation of the volume from the compiled parameters. This method relies on
+	 * the point estimates of the parameters and it does not create any object.
+	 */
+	double predictTreeCommercialVolumeDm3(double dbhCm, double heightM) {
+		return predictTreeCommercialVolumeDm3(dbhCm, heightM, null);
+	}
+
+	/*
+	 * The tree is only required to draw the parameters of its realization when the parameter 
+	 * variability is enabled. Otherwise, the volume is computed from the compiled parameters.
+	 */
+	private double predictTreeCommercialVolumeDm3(double dbhCm, double heightM, FrenchCommercialVolume2020Tree tree) {
 		if (dbhCm < 7.5) {	// means this is a sapling
 			return 0d;
 		}
 
-		if (tree.getHeightM() == -1) {	// means the height has not been calculated
+		if (heightM == -1) {	// means the height has not been calculated
 			return -1d;
 		}
 
-		double volume = fixedEffectPrediction(tree);
+		double squaredDbhCm = dbhCm * dbhCm;
+		CommercialVolumeLookupTable table = lookupTable;
+		double volume;
+		if (table != null && table.getGrid().contains(dbhCm, heightM)) {
+			volume = table.getVolumeDm3(dbhCm, heightM);
+		} else if (isParametersVariabilityEnabled && tree != null) {
+			volume = fixedEffectPrediction(tree);
+		} else {
+			double cylinder = Math.PI * squaredDbhCm * heightM * .025;
+			volume = hdRatioCoef * heightM / dbhCm + (cylinderCoef + cylinderDbhCoef * dbhCm) * cylinder;
+		}
 		
 		if (isResidualVariabilityEnabled) {
-			double residualError = StatisticalUtility.getRandom().nextGaussian() * resStdDev * tree.getSquaredDbhCm();
-			volume += residualError;
+			volume += StatisticalUtility.getRandom().nextGaussian() * resStdDev * squaredDbhCm;
 		}
 		if (volume < 0) {		
 			volume = 0.1; 		// default value if the residual error is inconsistently large and yields a negative volume
@@ -82,7 +142,6 @@ final class FrenchCommercialVolume2020InternalPredictor extends REpiceaPredictor
 		return volume;
 	}
 
-
 	private synchronized double fixedEffectPrediction(FrenchCommercialVolume2020Tree tree) {
 		oXVector.resetMatrix();
 		Matrix beta = getParametersForThisRealization(tree);
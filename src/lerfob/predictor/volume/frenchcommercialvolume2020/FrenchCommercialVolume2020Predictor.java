@@ -21,15 +21,17 @@
  */
 package lerfob.predictor.volume.frenchcommercialvolume2020;
 
+import java.security.InvalidParameterException;
 import java.util.HashMap;
 import java.util.Map;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
+import lerfob.predictor.volume.CommercialVolumeLookupTable;
 import lerfob.predictor.volume.frenchcommercialvolume2020.FrenchCommercialVolume2020Tree.FrenchCommercialVolume2020TreeSpecies;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
 import repicea.simulation.ModelParameterEstimates;
-import repicea.simulation.ParameterLoader;
-import repicea.simulation.ParameterMap;
 import repicea.simulation.REpiceaPredictor;
 import repicea.util.ObjectUtility;
 
@@ -52,6 +54,7 @@ public final class FrenchCommercialVolume2020Predictor extends REpiceaPredictor
 
 	
 	private final Map<FrenchCommercialVolume2020TreeSpecies, FrenchCommercialVolume2020InternalPredictor> internalPredictorMap;
+	private final FrenchCommercialVolume2020InternalPredictor[] internalPredictors;	// indexed by species ordinal
 	
 	/**
 	 * General constructor.
@@ -60,6 +63,7 @@ public final class FrenchCommercialVolume2020Predictor extends REpiceaPredictor
 	public FrenchCommercialVolume2020Predictor(boolean isVariabilityEnabled) {
 		super(isVariabilityEnabled, false, isVariabilityEnabled);	 // no random effect
 		internalPredictorMap = new HashMap<FrenchCommercialVolume2020TreeSpecies, FrenchCommercialVolume2020InternalPredictor>();
+		internalPredictors = new FrenchCommercialVolume2020InternalPredictor[FrenchCommercialVolume2020TreeSpecies.values().length];
 		init();
 	}
 	
@@ -79,14 +83,13 @@ public final class FrenchCommercialVolume2020Predictor extends REpiceaPredictor
 		String speciesEffectMatchFilename = path + "0_speciesEffectMatch.csv";
 		
 		try {
-			ParameterMap beta = ParameterLoader.loadVectorFromFile(1,betaFilename);
-			ParameterMap omega = ParameterLoader.loadVectorFromFile(1, omegaFilename);
-			ParameterMap covparms = ParameterLoader.loadVectorFromFile(1, covparmsFilename);
-			ParameterMap speciesEffectMatch = ParameterLoader.loadVectorFromFile(1, speciesEffectMatchFilename);
+			PredictorParameterMap beta = PredictorParameterCache.loadVectorFromFile(1,betaFilename);
+			PredictorParameterMap covparms = PredictorParameterCache.loadVectorFromFile(1, covparmsFilename);
+			PredictorParameterMap speciesEffectMatch = PredictorParameterCache.loadVectorFromFile(1, speciesEffectMatchFilename);
 			for (FrenchCommercialVolume2020TreeSpecies species : FrenchCommercialVolume2020TreeSpecies.values()) {
 				int index = species.ordinal() + 1;
 				Matrix betaSpecies = beta.get(index);
-				SymmetricMatrix omegaSpecies = omega.get(index).squareSym();
+				SymmetricMatrix omegaSpecies = PredictorParameterCache.loadSymmetricMatrixFromVector(1, omegaFilename, index);
 				ModelParameterEstimates parms = new ModelParameterEstimates(betaSpecies, omegaSpecies);
 				Matrix sem = speciesEffectMatch.get(index);
 				double residualVariance = covparms.get(index).getValueAt(0, 0);
@@ -97,6 +100,7 @@ public final class FrenchCommercialVolume2020Predictor extends REpiceaPredictor
 						parms,
 						residualVariance);
 				internalPredictorMap.put(species, predictor);
+				internalPredictors[species.ordinal()] = predictor;
 			}
 		} catch (Exception e) {
 			System.out.println("Unable to load parameters of the FrenchCommercialVolume2014Predictor class");
@@ -167,6 +171,76 @@ public final class FrenchCommercialVolume2020Predictor extends REpiceaPredictor
 	}
 	
  
+	/**
+	 * This method enables the lookup tables of this predictor. The volume of the trees that lie within 
+	 * the grid is then interpolated from a table of species-specific volumes instead of being computed 
+	 * from the equation. The trees outside the grid are still predicted from the equation. The 
+	 * interpolation error is bounded by the value returned by the getLookupTableErrorBoundDm3 method. 
+	 * <br>
+	 * <br>
+	 * The lookup tables cannot be enabled if the parameter variability is enabled.
+	 * 
+	 * @param grid a CommercialVolumeLookupTable.Grid instance or null to disable the lookup tables
+	 */
+	public void setLookupTableGrid(CommercialVolumeLookupTable.Grid grid) {
+		if (grid != null && isParametersVariabilityEnabled) {
+			throw new InvalidParameterException("The lookup tables cannot be used if the parameter variability is enabled!");
+		}
+		for (FrenchCommercialVolume2020InternalPredictor internalPred : internalPredictors) {
+			internalPred.setLookupTable(grid);
+		}
+	}
+
+	/**
+	 * This method returns the maximum difference between the volumes interpolated from the lookup 
+	 * tables and those of the equation across all the species.
+	 * @return the error bound (dm3) or 0 if the lookup tables are disabled
+	 */
+	public double getLookupTableErrorBoundDm3() {
+		double errorBoundDm3 = 0d;
+		for (FrenchCommercialVolume2020InternalPredictor internalPred : internalPredictors) {
+			CommercialVolumeLookupTable table = internalPred.getLookupTable();
+			if (table != null && table.getErrorBoundDm3() > errorBoundDm3) {
+				errorBoundDm3 = table.getErrorBoundDm3();
+			}
+		}
+		return errorBoundDm3;
+	}
+
+	/**
+	 * This method returns the over-bark volume estimates of many trees in a single pass. The trees
+	 * are provided through primitive arrays of the same length. The parameters of each species are
+	 * compiled once and the volumes are written in the array provided by the caller, so that no object
+	 * is created. The method does not lock the predictor and it can be called concurrently.
+	 * <br>
+	 * <br>
+	 * The residual error is simulated if the residual variability is enabled. However, this method
+	 * cannot be used if the parameter variability is enabled since the parameter realization depends 
+	 * on the Monte Carlo id of the trees. Use the predictTreeCommercialOverbarkVolumeDm3(tree, id) 
+	 * method instead.
+	 * <br>
+	 * <br>
+	 * As with the other methods, the volume is 0 if the tree is smaller than 7.5 cm in dbh and -1 
+	 * if tree height is not available (height = -1).
+	 * 
+	 * @param dbhCm the diameters at breast height (cm)
+	 * @param heightM the tree heights (m)
+	 * @param speciesOrdinal the ordinals of the FrenchCommercialVolume2020TreeSpecies enum
+	 * @param volumesDm3 an array that receives the commercial volumes (dm3)
+	 */
+	public void predictTreeCommercialOverbarkVolumesDm3(double[] dbhCm, double[] heightM, int[] speciesOrdinal, double[] volumesDm3) {
+		int nbTrees = dbhCm.length;
+		if (heightM.length != nbTrees || speciesOrdinal.length != nbTrees || volumesDm3.length != nbTrees) {
+			throw new InvalidParameterException("The arrays must have the same length!");
+		}
+		if (isParametersVariabilityEnabled) {
+			throw new InvalidParameterException("The parameter realizations cannot be retrieved without tree instances!");
+		}
+		for (int i = 0; i < nbTrees; i++) {
+			volumesDm3[i] = internalPredictors[speciesOrdinal[i]].predictTreeCommercialVolumeDm3(dbhCm[i], heightM[i]);
+		}
+	}
+	
 	public static void main(String[] args) {
 		new FrenchCommercialVolume2020Predictor();
 	}
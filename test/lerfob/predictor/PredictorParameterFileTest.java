@@ -0,0 +1,165 @@
+package lerfob.predictor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018.FrenchHDRelationship2018Predictor;
+import lerfob.predictor.mathilde.recruitment.MathildeRecruitmentNumberPredictor;
+import repicea.math.Matrix;
+import repicea.simulation.ParameterLoader;
+import repicea.simulation.ParameterMap;
+import repicea.util.ObjectUtility;
+
+public class PredictorParameterFileTest {
+
+	/*
+	 * These files contain labels and they are not parameter files.
+	 */
+	private static final Set<String> NonParameterFiles = new HashSet<String>(Arrays.asList("0_effectindex.csv", "0_effectList.csv", "0_speciesList.csv"));
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/*
+	 * The output directory only contains the binary files. Consequently, the loading fails if the
+	 * binary files cannot be read since there is no CSV file to fall back on.
+	 */
+	@Test
+	public void testPrecompiledParametersAgainstCSV() throws IOException {
+		File sourceDirectory = folder.newFolder("source");
+		File outputDirectory = folder.newFolder("output");
+		String[] vectorFilenames = new String[] {"0_beta.csv", "0_omega.csv", "0_covparms.csv", "0_effectlist.csv"};
+		for (String filename : vectorFilenames) {
+			Files.copy(Paths.get(ObjectUtility.getPackagePath(FrenchHDRelationship2018Predictor.class) + filename), sourceDirectory.toPath().resolve(filename));
+		}
+		String matrixFilename = "0_zinb_copula.csv";
+		Files.copy(Paths.get(ObjectUtility.getPackagePath(MathildeRecruitmentNumberPredictor.class) + matrixFilename), sourceDirectory.toPath().resolve(matrixFilename));
+		PredictorParameterFile.main(new String[] {sourceDirectory.toString(), outputDirectory.toString()});
+
+		int nbVectors = 0;
+		for (String filename : vectorFilenames) {
+			Assert.assertTrue("The binary file should exist", new File(outputDirectory, PredictorParameterFile.getBinaryPath(filename)).exists());
+			Assert.assertFalse("The CSV file should not be in the output directory", new File(outputDirectory, filename).exists());
+			PredictorParameterMap expected = PredictorParameterFile.readVectorsFromCSV(1, new File(sourceDirectory, filename).getAbsolutePath());
+			PredictorParameterMap actual = PredictorParameterFile.loadVectorFromFile(1, new File(outputDirectory, filename).getAbsolutePath());
+			Assert.assertEquals("Comparing keys", expected.getKeys(), actual.getKeys());
+			for (List<Integer> keys : expected.getKeys()) {
+				Integer[] keyArray = keys.toArray(new Integer[keys.size()]);
+				compareMatrices(filename, expected.get(keyArray), actual.get(keyArray));
+				nbVectors++;
+			}
+		}
+		compareMatrices(matrixFilename,
+				PredictorParameterFile.readMatrixFromCSV(new File(sourceDirectory, matrixFilename).getAbsolutePath()),
+				PredictorParameterFile.loadMatrixFromFile(new File(outputDirectory, matrixFilename).getAbsolutePath()));
+		System.out.println("Successfully compared " + nbVectors + " precompiled vectors and one precompiled matrix.");
+	}
+
+	@Test
+	public void testIncompatibleBinaryFileFails() throws IOException {
+		File directory = folder.newFolder("incompatible");
+		String filename = "0_beta.csv";
+		File csvFile = new File(directory, filename);
+		Files.copy(Paths.get(ObjectUtility.getPackagePath(FrenchHDRelationship2018Predictor.class) + filename), csvFile.toPath());
+		File binaryFile = new File(directory, PredictorParameterFile.getBinaryPath(filename));
+		Assert.assertTrue("The file should be compiled", PredictorParameterFile.compile(csvFile, binaryFile));
+
+		try {
+			PredictorParameterFile.loadVectorFromFile(0, csvFile.getAbsolutePath());		// the file has one key column
+			Assert.fail("A binary file with another number of keys should not be read");
+		} catch (IOException e) {}
+
+		try {
+			PredictorParameterFile.loadMatrixFromFile(csvFile.getAbsolutePath());
+			Assert.fail("A binary file with vectors should not be read as a matrix");
+		} catch (IOException e) {}
+
+		ByteBuffer buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(PredictorParameterFile.MagicNumber);
+		buffer.putInt(PredictorParameterFile.Version + 1);
+		buffer.putInt(PredictorParameterFile.VectorKind);
+		buffer.putInt(1);
+		buffer.putInt(0);
+		Files.write(binaryFile.toPath(), buffer.array());
+		try {
+			PredictorParameterFile.loadVectorFromFile(1, csvFile.getAbsolutePath());
+			Assert.fail("A binary file with another version should not be read");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testCSVParserAgainstParameterLoader() throws IOException {
+		Path packageDirectory = Paths.get(ObjectUtility.getPackagePath(PredictorParameterFile.class));
+		List<Path> csvFiles;
+		try (Stream<Path> stream = Files.walk(packageDirectory)) {
+			csvFiles = stream.filter(p -> p.getFileName().toString().startsWith("0_") && p.getFileName().toString().endsWith(".csv"))
+					.filter(p -> !NonParameterFiles.contains(p.getFileName().toString()))
+					.collect(Collectors.toList());
+		}
+		Assert.assertTrue("There should be parameter files", !csvFiles.isEmpty());
+		int nbFiles = 0;
+		for (Path csvFile : csvFiles) {
+			Path relativePath = packageDirectory.relativize(csvFile);
+			String filename = relativePath.toString();
+			String resourcePath = ObjectUtility.getRelativePackagePath(PredictorParameterFile.class) + filename;
+			List<String> lines = Files.readAllLines(csvFile, StandardCharsets.ISO_8859_1).stream().skip(1).filter(l -> !l.trim().isEmpty()).collect(Collectors.toList());
+			int nbFields = lines.get(0).split(",").length;
+			if (nbFields <= 2) {
+				int nbKeys = nbFields - 1;
+				Set<List<Integer>> expectedKeys = new LinkedHashSet<List<Integer>>();
+				for (String line : lines) {
+					String[] fields = line.split(",");
+					Integer[] keys = new Integer[nbKeys];
+					for (int k = 0; k < nbKeys; k++) {
+						keys[k] = (int) Double.parseDouble(fields[k].trim().replace("\"", ""));
+					}
+					expectedKeys.add(Arrays.asList(keys));
+				}
+				PredictorParameterMap actual = PredictorParameterFile.readVectorsFromCSV(nbKeys, csvFile.toString());
+				ParameterMap expected = ParameterLoader.loadVectorFromFile(nbKeys, resourcePath);
+				Assert.assertEquals("Comparing keys in file " + filename, expectedKeys, actual.getKeys());
+				for (List<Integer> keys : expectedKeys) {
+					Integer[] keyArray = keys.toArray(new Integer[keys.size()]);
+					Matrix expectedVector = expected.get(keyArray);
+					Assert.assertNotNull("Missing keys " + keys + " in ParameterLoader for file " + filename, expectedVector);
+					compareMatrices(filename, expectedVector, actual.get(keyArray));
+				}
+			} else {
+				compareMatrices(filename,
+						ParameterLoader.loadMatrixFromFile(resourcePath),
+						PredictorParameterFile.readMatrixFromCSV(csvFile.toString()));
+			}
+			nbFiles++;
+		}
+		System.out.println("Successfully compared " + nbFiles + " parameter files with the ParameterLoader class.");
+	}
+
+	private static void compareMatrices(String filename, Matrix expected, Matrix actual) {
+		Assert.assertEquals("Comparing the number of rows in file " + filename, expected.m_iRows, actual.m_iRows);
+		Assert.assertEquals("Comparing the number of columns in file " + filename, expected.m_iCols, actual.m_iCols);
+		for (int i = 0; i < expected.m_iRows; i++) {
+			for (int j = 0; j < expected.m_iCols; j++) {
+				Assert.assertEquals("Comparing values in file " + filename, expected.getValueAt(i, j), actual.getValueAt(i, j), 0d);
+			}
+		}
+	}
+
+}
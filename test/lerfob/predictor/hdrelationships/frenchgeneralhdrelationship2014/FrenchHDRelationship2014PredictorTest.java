@@ -54,8 +54,78 @@ public class FrenchHDRelationship2014PredictorTest {
 		System.out.println("Successfully compared " + nbTrees + " trees.");
 	}
 	
+	@Test
+	public void testPlotHeightImputationAgainstTreeByTreePredictions() throws IOException {
+		Stands = readTrees();
+		FrenchHDRelationship2014TreeImpl.BlupPrediction = false;
+		FrenchHDRelationship2014Predictor treeByTreePredictor = new FrenchHDRelationship2014Predictor();
+		FrenchHDRelationship2014Predictor plotPredictor = new FrenchHDRelationship2014Predictor();
+		int nbTrees = 0;
+		for (int j = 0; j < 2000; j++) {
+			FrenchHDRelationship2014StandImpl stand = Stands.get(j);
+			double[] actual = plotPredictor.imputeHeightsM(stand);
+			int i = 0;
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				double expected = treeByTreePredictor.predictHeightM(stand, (FrenchHDRelationship2014TreeImpl) obj);
+				Assert.assertEquals("Comparing tree in plot " + stand.getSubjectId(), expected, actual[i], 0d);
+				i++;
+				nbTrees++;
+			}
+			Assert.assertEquals("Comparing the number of heights", i, actual.length);
+		}
+		System.out.println("Successfully compared " + nbTrees + " imputed heights.");
+	}
+	
+	@Test
+	public void testPlotHeightImputationWithMeasuredTrees() throws IOException {
+		Stands = readTrees();
+		FrenchHDRelationship2014TreeImpl.BlupPrediction = true;
+		FrenchHDRelationship2014Predictor treeByTreePredictor = new FrenchHDRelationship2014Predictor();
+		FrenchHDRelationship2014Predictor plotPredictor = new FrenchHDRelationship2014Predictor();
+		int nbObservedHeights = 0;
+		int nbPredictedHeights = 0;
+		int nbPredictedHeightsWithBlups = 0;
+		for (int j = 0; j < 2000; j++) {
+			FrenchHDRelationship2014StandImpl stand = Stands.get(j);
+			int i = 0;
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				((FrenchHDRelationship2014TreeImpl) obj).heightHidden = i % 2 == 1;		// one tree out of two has no measured height
+				i++;
+			}
+			double[] actual = plotPredictor.imputeHeightsM(stand);
+			i = 0;
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				FrenchHDRelationship2014TreeImpl tree = (FrenchHDRelationship2014TreeImpl) obj;
+				if (tree.getHeightM() > 1.3) {
+					Assert.assertEquals("Comparing observed height in plot " + stand.getSubjectId(), tree.getHeightM(), actual[i], 0d);
+					nbObservedHeights++;
+				} else {
+					double expected = treeByTreePredictor.predictHeightM(stand, tree);
+					Assert.assertEquals("Comparing predicted height in plot " + stand.getSubjectId(), expected, actual[i], 0d);
+					nbPredictedHeights++;
+					if (plotPredictor.getBlups(stand, tree) != null) {
+						nbPredictedHeightsWithBlups++;
+					}
+				}
+				i++;
+			}
+		}
+		Assert.assertTrue("Some heights should have been kept", nbObservedHeights > 0);
+		Assert.assertTrue("Some heights should have been predicted with blups", nbPredictedHeightsWithBlups > 0);
+		System.out.println("Successfully compared " + nbObservedHeights + " observed heights and " + nbPredictedHeights + " imputed heights.");
+	}
+	
 	@Test
 	public void validation2BlupsPredictionsAndVariance() throws IOException {
+		validateBlups(false);
+	}
+
+	@Test
+	public void validation2BlupsEstimatedBeforePredictions() throws IOException {
+		validateBlups(true);
+	}
+
+	private static void validateBlups(boolean estimatedBeforePredictions) throws IOException {
 		Stands = readTrees();
 		FrenchHDRelationship2014TreeImpl.BlupPrediction = true;
 		FrenchHDRelationship2014Predictor predictor = new FrenchHDRelationship2014Predictor(true);
@@ -68,14 +138,21 @@ public class FrenchHDRelationship2014PredictorTest {
 		}
 		s.standList.retainAll(retainedPlots);
 		
+		if (estimatedBeforePredictions) {
+			predictor.estimateBlups(s.standList);
+		}
+		
 		for (FrenchHDRelationship2014Stand stand : s.standList) {
 			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
 				FrenchHDRelationship2014TreeImpl tree = (FrenchHDRelationship2014TreeImpl) obj;
 //				if (tree.getFrenchHDTreeSpecies().ordinal() <= 3) {
 				if (FrenchHdSpecies.getSpeciesIn2014().indexOf(tree.getFrenchHDTreeSpecies()) <= 3) {
 					int index = FrenchHdSpecies.getSpeciesIn2014().indexOf(tree.getFrenchHDTreeSpecies()) + 1;
-					predictor.predictHeightM(stand, tree);
+					if (!estimatedBeforePredictions) {
+						predictor.predictHeightM(stand, tree);
+					}
 					Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> currentBlups = predictor.getBlups(stand, tree);
+					Assert.assertNotNull("The blups should have been estimated in plot " + stand.getSubjectId(), currentBlups);
 					double actualBlup = currentBlups.getMean().getValueAt(0, 0);
 					double actualVariance = currentBlups.getVariance().getValueAt(0, 0);
 					int convertedIndex = Integer.parseInt(stand.getSubjectId());
@@ -93,7 +170,7 @@ public class FrenchHDRelationship2014PredictorTest {
 				}
 			}
 		}
-		System.out.println("Successfully compared " + nbBlups + " blups.");
+		System.out.println("Successfully compared " + nbBlups + " blups" + (estimatedBeforePredictions ? " estimated before the predictions." : "."));
 	}
 
 	
@@ -60,6 +60,7 @@ class FrenchHDRelationship2014TreeImpl implements FrenchHDRelationship2014Tree {
 	private FrenchHDRelationship2014Stand stand;
 	private double pred;
 	private double gOther;
+	boolean heightHidden;
 	
 	FrenchHDRelationship2014TreeImpl(double heightM, double dbhCm, double gOther, String species, double pred, FrenchHDRelationship2014Stand stand) {
 		this.heightM = heightM;
@@ -79,7 +80,7 @@ class FrenchHDRelationship2014TreeImpl implements FrenchHDRelationship2014Tree {
 
 	@Override
 	public double getHeightM() {
-		if (BlupPrediction) {
+		if (BlupPrediction && !heightHidden) {
 			return heightM;
 		} else {
 			return -1d;
@@ -1,15 +1,27 @@
 package lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018;
 
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import lerfob.predictor.PredictorParameterCache;
+import lerfob.predictor.PredictorParameterMap;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator;
+import lerfob.predictor.hdrelationships.FrenchHDEffectEvaluator.Covariates;
+import lerfob.predictor.hdrelationships.FrenchHDRelationshipTree.FrenchHdSpecies;
+import lerfob.predictor.hdrelationships.frenchgeneralhdrelationship2018.FrenchHDRelationship2018ClimateGenerator.FrenchHDClimateVariableMap;
 import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
@@ -82,6 +94,15 @@ public class FrenchHDRelationship2018PredictorTest {
 	 */
 	@Test
 	public void validation2BlupsPredictionsAndVariance() throws IOException {
+		validateBlups(false);
+	}
+
+	@Test
+	public void validation2BlupsEstimatedBeforePredictions() throws IOException {
+		validateBlups(true);
+	}
+
+	private static void validateBlups(boolean estimatedBeforePredictions) {
 		readTrees();
 		FrenchHDRelationship2018TreeImpl2.BlupPrediction = true;
 		FrenchHDRelationship2018Predictor predictor = new FrenchHDRelationship2018Predictor(true);
@@ -94,13 +115,20 @@ public class FrenchHDRelationship2018PredictorTest {
 		}
 		s.plotList.retainAll(retainedPlots);
 		
+		if (estimatedBeforePredictions) {
+			predictor.estimateBlups(s.plotList);
+		}
+		
 		for (FrenchHDRelationship2018Plot stand : s.plotList) {
 			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
 				FrenchHDRelationship2018TreeImpl2 tree = (FrenchHDRelationship2018TreeImpl2) obj;
 				if (tree.getFrenchHDTreeSpecies().getIndex() <= 4) {
 					int index = tree.getFrenchHDTreeSpecies().getIndex();
-					predictor.predictHeightM(stand, tree);
+					if (!estimatedBeforePredictions) {
+						predictor.predictHeightM(stand, tree);
+					}
 					Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> currentBlups = predictor.getBlups(stand, tree);
+					Assert.assertNotNull("The blups should have been estimated in plot " + stand.getSubjectId(), currentBlups);
 					double actualBlup = currentBlups.getMean().getValueAt(0, 0);
 					double actualVariance = currentBlups.getVariance().getValueAt(0, 0);
 					int convertedIndex = Integer.parseInt(stand.getSubjectId());
@@ -118,7 +146,7 @@ public class FrenchHDRelationship2018PredictorTest {
 				}
 			}
 		}
-		System.out.println("Successfully compared " + nbBlups + " blups.");
+		System.out.println("Successfully compared " + nbBlups + " blups" + (estimatedBeforePredictions ? " estimated before the predictions." : "."));
 	}
 
 	/*
@@ -419,6 +447,380 @@ public class FrenchHDRelationship2018PredictorTest {
 	}
 	
 
+	/*
+	 * The former implementation of the fixed-effect prediction, which dispatches each effect of 
+	 * the list through a switch and fills a Matrix instance.
+	 */
+	private static double getLinearPredictorFromEffectList(List<Integer> effectList, Matrix beta, Covariates c) {
+		Matrix oXVector = new Matrix(1, effectList.size());
+		int pointer = 0;
+		for (Integer integer : effectList) {
+			switch(integer) {
+			case 1:
+				oXVector.setValueAt(0, pointer, c.basalAreaMinusSubj * c.lnDbh2);
+				break;
+			case 2:
+				oXVector.setValueAt(0, pointer, c.lnDbh);
+				break;
+			case 3:
+				oXVector.setValueAt(0, pointer, c.basalAreaMinusSubj * c.lnDbh);
+				break;
+			case 4:
+				oXVector.setValueAt(0, pointer, c.harvested * c.lnDbh);
+				break;
+			case 5:
+				oXVector.setValueAt(0, pointer, c.lnDbh * c.meanPrec);
+				break;
+			case 6:
+				oXVector.setValueAt(0, pointer, c.lnDbh * c.meanTemp * c.meanTemp);
+				break;
+			case 7:
+				oXVector.setValueAt(0, pointer, c.lnDbh * c.meanTemp);
+				break;
+			case 8:
+				oXVector.setValueAt(0, pointer, c.lnDbh * c.slope);
+				break;
+			case 9:
+				oXVector.setValueAt(0, pointer, c.socialIndex * c.lnDbh);
+				break;
+			case 10:
+				oXVector.setValueAt(0, pointer, c.socialIndex * c.socialIndex * c.lnDbh);
+				break;
+			case 11:
+				oXVector.setValueAt(0, pointer, c.lnDbh2);
+				break;
+			case 12:
+				oXVector.setValueAt(0, pointer, c.socialIndex * c.lnDbh2);
+				break;
+			default:
+				throw new InvalidParameterException("This effect index " + integer + " is not recognized!");
+			}
+			pointer++;
+		}
+		return oXVector.multiply(beta).getValueAt(0, 0);
+	}
+	
+	/*
+	 * The compiled effect lists must yield the same linear predictors as the former switch dispatch over 
+	 * the validation data set. The heights per second of both implementations are then compared. The 
+	 * compiled evaluator is expected to be faster, but the assertion leaves a margin for the noise of the 
+	 * just-in-time compilation.
+	 */
+	@Test
+	public void testCompiledEffectListsAgainstSwitchDispatch() throws IOException {
+		readTrees();
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = false;
+		FrenchHDRelationship2018Predictor predictor = new FrenchHDRelationship2018Predictor();
+		List<FrenchHDRelationship2018InternalPredictor> internalPredictors = new ArrayList<FrenchHDRelationship2018InternalPredictor>();
+		List<Covariates> covariatesList = new ArrayList<Covariates>();
+		for (FrenchHDRelationship2018Plot stand : ExtStands) {
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				FrenchHDRelationship2018TreeImpl2 tree = (FrenchHDRelationship2018TreeImpl2) obj;
+				FrenchHDRelationship2018InternalPredictor internalPred = predictor.getInternalPredictorMap().get(tree.getFrenchHDTreeSpecies());
+				Covariates covariates = internalPred.getCovariates(stand, tree);
+				Matrix beta = internalPred.getParameterMean();
+				double expected = getLinearPredictorFromEffectList(internalPred.getEffectList(), beta, covariates);
+				double actual = internalPred.getEffectEvaluator().getLinearPredictor(beta, covariates);
+				Assert.assertEquals("Comparing linear predictors in plot " + stand.getSubjectId(), expected, actual, Math.abs(expected) * 1E-12);
+				internalPredictors.add(internalPred);
+				covariatesList.add(covariates);
+			}
+		}
+		Assert.assertTrue("There should be trees in the validation data set", !covariatesList.isEmpty());
+		
+		int nbRuns = 10;
+		double sum = 0d;		// prevents the just-in-time compiler from eliminating the loops
+		long switchDispatchTime = 0;
+		long compiledTime = 0;
+		for (int run = 0; run <= nbRuns; run++) {		// the first run is a warm up
+			long start = System.nanoTime();
+			for (int i = 0; i < covariatesList.size(); i++) {
+				FrenchHDRelationship2018InternalPredictor internalPred = internalPredictors.get(i);
+				sum += getLinearPredictorFromEffectList(internalPred.getEffectList(), internalPred.getParameterMean(), covariatesList.get(i));
+			}
+			long middle = System.nanoTime();
+			for (int i = 0; i < covariatesList.size(); i++) {
+				FrenchHDRelationship2018InternalPredictor internalPred = internalPredictors.get(i);
+				FrenchHDEffectEvaluator evaluator = internalPred.getEffectEvaluator();
+				sum -= evaluator.getLinearPredictor(internalPred.getParameterMean(), covariatesList.get(i));
+			}
+			long end = System.nanoTime();
+			if (run > 0) {
+				switchDispatchTime += middle - start;
+				compiledTime += end - middle;
+			}
+		}
+		Assert.assertEquals("The sum of the differences should be null", 0d, sum, 1E-3);
+		double nbPredictions = (double) nbRuns * covariatesList.size();
+		double switchDispatchThroughput = nbPredictions / switchDispatchTime;
+		double compiledThroughput = nbPredictions / compiledTime;
+		Assert.assertTrue("The compiled effect lists should not be slower than the switch dispatch", 
+				compiledThroughput > 0.5 * switchDispatchThroughput);
+	}
+
+	@Test
+	public void testConcurrentPredictionsMatchSingleThreadedPredictions() throws Exception {
+		compareConcurrentPredictions(false);
+	}
+
+	/*
+	 * The blups of the plots are estimated by the threads while other threads are predicting heights.
+	 */
+	@Test
+	public void testConcurrentPredictionsWithBlupsMatchSingleThreadedPredictions() throws Exception {
+		compareConcurrentPredictions(true);
+	}
+
+	private static void compareConcurrentPredictions(boolean blupPrediction) throws Exception {
+		readTrees();		// a shared instance is only supported in deterministic mode
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = blupPrediction;
+		FrenchHDRelationship2018Predictor predictor = new FrenchHDRelationship2018Predictor();
+		List<double[]> expected = new ArrayList<double[]>();
+		for (FrenchHDRelationship2018Plot stand : ExtStands) {
+			List<Double> heights = new ArrayList<Double>();
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				heights.add(predictor.predictHeightM(stand, (FrenchHDRelationship2018TreeImpl2) obj));
+			}
+			double[] heightArray = new double[heights.size()];
+			for (int i = 0; i < heightArray.length; i++) {
+				heightArray[i] = heights.get(i);
+			}
+			expected.add(heightArray);
+		}
+
+		FrenchHDRelationship2018Predictor sharedPredictor = new FrenchHDRelationship2018Predictor();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for (final FrenchHDRelationship2018Plot stand : ExtStands) {
+				futures.add(executor.submit(new Callable<double[]>() {
+					@Override
+					public double[] call() throws Exception {
+						List<Object> trees = new ArrayList<Object>(stand.getTreesForFrenchHDRelationship());
+						double[] heights = new double[trees.size()];
+						for (int i = 0; i < heights.length; i++) {
+							heights[i] = sharedPredictor.predictHeightM(stand, (FrenchHDRelationship2018TreeImpl2) trees.get(i));
+						}
+						return heights;
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertArrayEquals("Comparing heights of plot " + i, expected.get(i), futures.get(i).get(), 0d);
+			}
+			int nbPlotsWithBlups = 0;
+			for (FrenchHDRelationship2018Plot stand : ExtStands) {
+				for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+					FrenchHDRelationship2018TreeImpl2 tree = (FrenchHDRelationship2018TreeImpl2) obj;
+					Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> expectedBlups = predictor.getBlups(stand, tree);
+					Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> actualBlups = sharedPredictor.getBlups(stand, tree);
+					if (expectedBlups == null) {
+						Assert.assertNull("No blups expected in plot " + stand.getSubjectId(), actualBlups);
+					} else {
+						Assert.assertEquals("Comparing blups in plot " + stand.getSubjectId(), 
+								expectedBlups.getMean().getValueAt(0, 0), 
+								actualBlups.getMean().getValueAt(0, 0), 
+								0d);
+						nbPlotsWithBlups++;
+						break;
+					}
+				}
+			}
+			if (blupPrediction) {
+				Assert.assertTrue("Some plots should have blups", nbPlotsWithBlups > 0);
+			}
+			System.out.println("Successfully compared concurrent height predictions for " + futures.size() + " plots (" + nbPlotsWithBlups + " plots with blups).");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testPlotHeightImputationAgainstTreeByTreePredictions() throws IOException {
+		readTrees();
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = false;
+		FrenchHDRelationship2018Predictor treeByTreePredictor = new FrenchHDRelationship2018Predictor();
+		FrenchHDRelationship2018Predictor plotPredictor = new FrenchHDRelationship2018Predictor();
+		int nbTrees = 0;
+		for (FrenchHDRelationship2018Plot stand : ExtStands) {
+			double[] actual = plotPredictor.imputeHeightsM(stand);
+			int i = 0;
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				double expected = treeByTreePredictor.predictHeightM(stand, (FrenchHDRelationship2018TreeImpl2) obj);
+				Assert.assertEquals("Comparing tree in plot " + stand.getSubjectId(), expected, actual[i], 0d);
+				i++;
+				nbTrees++;
+			}
+			Assert.assertEquals("Comparing the number of heights", i, actual.length);
+		}
+		System.out.println("Successfully compared " + nbTrees + " imputed heights.");
+	}
+
+	@Test
+	public void testPlotHeightImputationWithMeasuredTrees() throws IOException {
+		readTrees();
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = true;
+		FrenchHDRelationship2018Predictor treeByTreePredictor = new FrenchHDRelationship2018Predictor();
+		FrenchHDRelationship2018Predictor plotPredictor = new FrenchHDRelationship2018Predictor();
+		int nbObservedHeights = 0;
+		int nbPredictedHeights = 0;
+		int nbPredictedHeightsWithBlups = 0;
+		for (FrenchHDRelationship2018Plot stand : ExtStands) {
+			int i = 0;
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				((FrenchHDRelationship2018TreeImpl2) obj).heightHidden = i % 2 == 1;		// one tree out of two has no measured height
+				i++;
+			}
+			double[] actual = plotPredictor.imputeHeightsM(stand);
+			i = 0;
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				FrenchHDRelationship2018TreeImpl2 tree = (FrenchHDRelationship2018TreeImpl2) obj;
+				if (tree.getHeightM() > 1.3) {
+					Assert.assertEquals("Comparing observed height in plot " + stand.getSubjectId(), tree.getHeightM(), actual[i], 0d);
+					nbObservedHeights++;
+				} else {
+					double expected = treeByTreePredictor.predictHeightM(stand, tree);
+					Assert.assertEquals("Comparing predicted height in plot " + stand.getSubjectId(), expected, actual[i], 0d);
+					nbPredictedHeights++;
+					if (plotPredictor.getBlups(stand, tree) != null) {
+						nbPredictedHeightsWithBlups++;
+					}
+				}
+				i++;
+			}
+		}
+		Assert.assertTrue("Some heights should have been kept", nbObservedHeights > 0);
+		Assert.assertTrue("Some heights should have been predicted with blups", nbPredictedHeightsWithBlups > 0);
+		System.out.println("Successfully compared " + nbObservedHeights + " observed heights and " + nbPredictedHeights + " imputed heights.");
+	}
+
+	@Test
+	public void testHeightPredictionVarianceAgainstMatrixCalculation() throws IOException {
+		readTrees();
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = false;
+		FrenchHDRelationship2018Predictor predictor = new FrenchHDRelationship2018Predictor();
+		int nbTrees = 0;
+		for (FrenchHDRelationship2018Plot stand : ExtStands) {
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				FrenchHDRelationship2018TreeImpl2 tree = (FrenchHDRelationship2018TreeImpl2) obj;
+				FrenchHDRelationship2018InternalPredictor internalPred = predictor.getInternalPredictorMap().get(tree.getFrenchHDTreeSpecies());
+				double expected = internalPred.predictHeightAndVariance(stand, tree).getVariance().getValueAt(0, 0);
+				double actual = predictor.getHeightPredictionVariance(stand, tree);
+				Assert.assertEquals("Comparing variances in plot " + stand.getSubjectId(), expected, actual, Math.abs(expected) * 1E-10);
+				nbTrees++;
+			}
+		}
+		System.out.println("Successfully compared " + nbTrees + " variances.");
+	}
+
+	@Test
+	public void testParameterCacheServesSubsequentPredictors() throws IOException {
+		readTrees();
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = false;
+		FrenchHDRelationship2018Predictor firstPredictor = new FrenchHDRelationship2018Predictor();		// makes sure the parameters are in the cache
+		int nbCachedFiles = PredictorParameterCache.getNumberOfCachedFiles();
+		FrenchHDRelationship2018Predictor secondPredictor = new FrenchHDRelationship2018Predictor();
+		Assert.assertEquals("The second predictor should be served by the cache", nbCachedFiles, PredictorParameterCache.getNumberOfCachedFiles());
+		int nbTrees = 0;
+		for (FrenchHDRelationship2018Plot stand : ExtStands) {
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				FrenchHDRelationship2018TreeImpl2 tree = (FrenchHDRelationship2018TreeImpl2) obj;
+				Assert.assertEquals("Comparing tree in plot " + stand.getSubjectId(), 
+						firstPredictor.predictHeightM(stand, tree), 
+						secondPredictor.predictHeightM(stand, tree), 
+						0d);
+				nbTrees++;
+			}
+		}
+		System.out.println("Successfully compared " + nbTrees + " heights predicted with cached parameters.");
+	}
+
+	@Test
+	public void testParameterEstimatesNotSharedAmongPredictors() throws IOException {
+		FrenchHDRelationship2018Predictor predictor1 = new FrenchHDRelationship2018Predictor();
+		FrenchHDRelationship2018Predictor predictor2 = new FrenchHDRelationship2018Predictor(true);
+		for (FrenchHdSpecies species : FrenchHdSpecies.values()) {
+			Matrix omega1 = predictor1.getInternalPredictorMap().get(species).getParameterVariance();
+			Matrix omega2 = predictor2.getInternalPredictorMap().get(species).getParameterVariance();
+			Assert.assertNotSame("The omega matrix should not be shared for species " + species.name(), omega1, omega2);
+			for (int i = 0; i < omega1.m_iRows; i++) {
+				for (int j = 0; j < omega1.m_iCols; j++) {
+					Assert.assertEquals("Comparing the omega matrices for species " + species.name(), omega1.getValueAt(i, j), omega2.getValueAt(i, j), 0d);
+				}
+			}
+			double originalValue = omega2.getValueAt(0, 0);
+			omega1.setValueAt(0, 0, originalValue + 1d);
+			Assert.assertEquals("A predictor should not alter the parameters of the others", originalValue, omega2.getValueAt(0, 0), 0d);
+			Assert.assertEquals("A predictor should not alter the cached parameters", 
+					originalValue, 
+					new FrenchHDRelationship2018Predictor().getInternalPredictorMap().get(species).getParameterVariance().getValueAt(0, 0), 
+					0d);
+		}
+		String betaFilename = ObjectUtility.getRelativePackagePath(FrenchHDRelationship2018Predictor.class) + "0_beta.csv";
+		PredictorParameterMap betaMap = PredictorParameterCache.loadVectorFromFile(1, betaFilename);
+		Matrix vector = betaMap.get(1);
+		double originalValue = vector.getValueAt(0, 0);
+		vector.setValueAt(0, 0, originalValue + 1d);
+		Assert.assertEquals("The cached vector should not be altered", originalValue, betaMap.get(1).getValueAt(0, 0), 0d);
+	}
+
+	@Test
+	public void testClimateCacheWithClimateChange() throws Exception {
+		readTrees();
+		FrenchHDRelationship2018TreeImpl2.BlupPrediction = false;
+		FrenchHDRelationship2018Predictor predictor = new FrenchHDRelationship2018Predictor();
+		predictor.setClimateChangeGenerator(new lerfob.predictor.mathilde.climate.formerversion.MathildeClimatePredictor(false));
+		int nbPlots = 0;
+		int nbPredictions = 0;
+		for (FrenchHDRelationship2018Plot stand : Stands) {
+			((FrenchHDRelationship2018PlotImpl) stand).setDateYr(2035);
+			for (Object obj : stand.getTreesForFrenchHDRelationship()) {
+				predictor.predictHeightM(stand, (FrenchHDRelationship2018TreeImpl2) obj);
+				nbPredictions++;
+			}
+			nbPlots++;
+			if (nbPlots == 200) {
+				break;
+			}
+		}
+		long nbMisses = predictor.getClimateCacheMisses();
+		Assert.assertTrue("The climate should be updated at most once per plot", nbMisses <= 2 * nbPlots);	// one miss in each cache
+		Assert.assertTrue("The cache should serve the other predictions", predictor.getClimateCacheHits() >= nbPredictions - nbPlots);
+		System.out.println("Climate cache : " + predictor.getClimateCacheHits() + " hits and " + nbMisses + " misses for " + nbPredictions + " predictions.");
+	}
+
+	@Test
+	public void testNearestClimatePointAgainstExhaustiveSearch() {
+		FrenchHDRelationship2018ClimateGenerator generator = new FrenchHDRelationship2018ClimateGenerator();
+		List<FrenchHDClimateVariableMap> climatePoints = generator.getClimatePoints();
+		Random random = new Random(20261018L);
+		int nbPlots = 2000;
+		double[] longitudes = new double[nbPlots];
+		double[] latitudes = new double[nbPlots];
+		for (int i = 0; i < nbPlots; i++) {
+			longitudes[i] = -5d + random.nextDouble() * 15d;
+			latitudes[i] = 41d + random.nextDouble() * 10d;
+		}
+		FrenchHDClimateVariableMap[] actual = generator.getClimateVariables(longitudes, latitudes);
+		int nbPlotsInFrance = 0;
+		for (int i = 0; i < nbPlots; i++) {
+			double minDistance = Double.MAX_VALUE;
+			for (FrenchHDClimateVariableMap cp : climatePoints) {
+				minDistance = Math.min(minDistance, cp.getDistanceFromTheseCoordinates(longitudes[i], latitudes[i]));
+			}
+			if (minDistance > FrenchHDRelationship2018ClimateGenerator.MaximumDistanceDeg) {
+				Assert.assertNull("Expecting no climate point", actual[i]);
+			} else {
+				Assert.assertEquals("Comparing distances to the nearest point", 
+						minDistance, 
+						actual[i].getDistanceFromTheseCoordinates(longitudes[i], latitudes[i]), 
+						1E-12);
+				nbPlotsInFrance++;
+			}
+		}
+		System.out.println("Successfully compared the nearest climate points of " + nbPlotsInFrance + " plots.");
+	}
+
 	private static Map<Integer, Map<Integer, Blup>> readBlups() {
 		String filename = ObjectUtility.getPackagePath(FrenchHDRelationship2018PredictorTest.class) + "testBlups.csv";
 		CSVReader reader = null; 
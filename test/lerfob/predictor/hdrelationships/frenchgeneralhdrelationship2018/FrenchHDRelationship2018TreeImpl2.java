@@ -6,6 +6,7 @@ public class FrenchHDRelationship2018TreeImpl2 extends FrenchHDRelationship2018T
 	
 	final double reference;
 	final double weight;
+	boolean heightHidden;
 	
 	FrenchHDRelationship2018TreeImpl2(int id, double heightM, double dbhCm, double gOther, String speciesName, double weight, double pred, FrenchHDRelationship2018PlotImpl plot) {
 		super(id, heightM, dbhCm, gOther, speciesName, plot);
@@ -15,7 +16,7 @@ public class FrenchHDRelationship2018TreeImpl2 extends FrenchHDRelationship2018T
 	
 	@Override
 	public double getHeightM() {
-		if (BlupPrediction) {
+		if (BlupPrediction && !heightHidden) {
 			return super.getHeightM();
 		} else {
 			return -1d;
@@ -1,7 +1,9 @@
 package lerfob.predictor.mathilde.climate;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Assert;
@@ -12,6 +14,7 @@ import lerfob.simulation.covariateproviders.plotlevel.FrenchDepartmentProvider.F
 import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
 import repicea.math.SymmetricMatrix;
+import repicea.simulation.ModelParameterEstimates;
 import repicea.simulation.climate.REpiceaClimateVariableMap.ClimateVariable;
 import repicea.stats.distributions.StandardGaussianDistribution;
 import repicea.stats.estimates.Estimate;
@@ -139,6 +142,98 @@ public class MathildeNewClimatePredictorTest {
 	}
 
 	
+	@Test
+	public void testBlupsOfPlotOutsideTheRangeOfReferenceStands() throws Exception {
+		MathildeClimatePredictor climatePredictor = new MathildeClimatePredictor(false);
+		MathildeClimatePlotImpl remotePlot = new MathildeClimatePlotImpl("remote", 50d, 10d, 2000, 5, 0, 0d, 0d, 0d, 0d) {
+			@Override
+			public List<MathildeClimatePlot> getAllMathildeClimatePlots() {
+				List<MathildeClimatePlot> plots = new ArrayList<MathildeClimatePlot>();
+				plots.add(this);
+				return plots;
+			}
+		};
+		climatePredictor.getClimateVariables(remotePlot);
+		Estimate<Matrix, SymmetricMatrix, ? extends StandardGaussianDistribution> blup = climatePredictor.getBlupsForThisSubject(remotePlot);
+		double expectedVariance = 0.21676529240531;		// the variance of the plot random effects in 0_MathildeNewClimateCovparms.csv
+		Assert.assertEquals("Comparing blup mean", 0d, blup.getMean().getValueAt(0, 0), 1E-12);
+		Assert.assertEquals("Comparing blup variance", expectedVariance, blup.getVariance().getValueAt(0, 0), 1E-12);
+		System.out.println("MathildeClimatePredictorTest, Blups of a remote plot successfully tested!");
+	}
+
+	/*
+	 * The reference stands are read once per JVM and the kriging engine is shared among the 
+	 * predictors with the same parameters. The subsequent predictors must therefore neither copy 
+	 * the reference stands nor factorize the reference block again.
+	 */
+	@Test
+	public void testStartUpSharesReferenceStandsAndKrigingEngine() throws Exception {
+		int nbPredictors = 20;
+		MathildeClimatePlot s = MathildeClimatePredictor.getReferenceStands().get(10);
+		MathildeClimatePredictor.clearKrigingEngines();
+		MathildeClimatePredictor firstPredictor = new MathildeClimatePredictor(false);
+		double expected = firstPredictor.getClimateVariables(s).get(ClimateVariable.MeanGrowingSeasonTempC);
+		MathildeClimateKrigingEngine engine = firstPredictor.getKrigingEngine();
+		for (int i = 1; i < nbPredictors; i++) {
+			MathildeClimatePredictor climatePredictor = new MathildeClimatePredictor(false);
+			double actual = climatePredictor.getClimateVariables(s).get(ClimateVariable.MeanGrowingSeasonTempC);
+			Assert.assertEquals("Comparing predictions of predictor " + i, expected, actual, 0d);
+			Assert.assertSame("The kriging engine should be shared", engine, climatePredictor.getKrigingEngine());
+		}
+		Assert.assertSame("The reference stands should not be copied", 
+				MathildeClimatePredictor.getReferenceStands(), 
+				MathildeClimatePredictor.getReferenceStands());
+	}
+
+	@Test
+	public void testKrigingEngineFollowsParameterEstimates() throws Exception {
+		MathildeClimatePredictor climatePredictor = new MathildeClimatePredictor(false);
+		Assert.assertSame("The kriging engine should be shared", 
+				climatePredictor.getKrigingEngine(), 
+				new MathildeClimatePredictor(false).getKrigingEngine());
+		
+		MathildeClimatePredictor modifiedPredictor = new MathildeClimatePredictor(false) {
+			{
+				Matrix beta = getParameterEstimates().getMean().getDeepClone();
+				beta.setValueAt(0, 0, beta.getValueAt(0, 0) + 1d);
+				setParameterEstimates(new ModelParameterEstimates(beta, getParameterEstimates().getVariance()));
+			}
+		};
+		Assert.assertNotSame("The kriging engine should depend on the parameter estimates", 
+				climatePredictor.getKrigingEngine(), 
+				modifiedPredictor.getKrigingEngine());
+		
+		MathildeClimatePlot s = MathildeClimatePredictor.getReferenceStands().get(10);
+		climatePredictor.getClimateVariables(s);
+		modifiedPredictor.getClimateVariables(s);
+		double blup = climatePredictor.getBlupsForThisSubject(s).getMean().getValueAt(0, 0);
+		double modifiedBlup = modifiedPredictor.getBlupsForThisSubject(s).getMean().getValueAt(0, 0);
+		Assert.assertTrue("The blups should account for the new intercept", modifiedBlup < blup - 1E-3);
+		System.out.println("MathildeClimatePredictorTest, Kriging engine successfully tested against new parameter estimates!");
+	}
+
+	@Test
+	public void testMultipleRealizationsAgainstSingleRealizations() throws Exception {
+		MathildeClimatePredictor climatePredictor = new MathildeClimatePredictor(true, true, false);	// the residual error is not memorized
+		MathildeClimatePlot s = MathildeClimatePredictor.getReferenceStands().get(10);
+		int nbRealizations = 100;
+		double[] actual = climatePredictor.getMeanGrowingSeasonTemperatures(s, 0, nbRealizations);
+		try {
+			for (int i = 0; i < nbRealizations; i++) {
+				for (MathildeClimatePlot stand : MathildeClimatePredictor.getReferenceStands()) {
+					((MathildeClimatePlotImpl) stand).realization = i;
+				}
+				double expected = climatePredictor.getClimateVariables(s).get(ClimateVariable.MeanGrowingSeasonTempC);
+				Assert.assertEquals("Comparing realization " + i, expected, actual[i], 1E-12);
+			}
+		} finally {		// the reference stands are shared by the other tests
+			for (MathildeClimatePlot stand : MathildeClimatePredictor.getReferenceStands()) {
+				((MathildeClimatePlotImpl) stand).realization = 0;
+			}
+		}
+		System.out.println("MathildeClimatePredictorTest, " + nbRealizations + " realizations successfully tested!");
+	}
+
 	@Test
 	public void testBlupsInStochasticMode() throws Exception {
 		readBlups();
@@ -184,6 +279,25 @@ public class MathildeNewClimatePredictorTest {
 		Assert.assertEquals("Comparing residual variances",	expectedVariance, actualVariance, 1E-3);
 		System.out.println("MathildeClimatePredictorTest, Stochastic simulation of residual variance successfully tested!");
 	}
+
+	@Test
+	public void testResidualErrorOfMultipleRealizations() throws Exception {
+		MathildeClimatePredictor climatePredictor = new MathildeClimatePredictor(false, false, true); // only residual variability enabled
+		int nbRealizations = 50000;
+		MonteCarloEstimate estimate = new MonteCarloEstimate();
+		MathildeClimatePlot s = MathildeClimatePredictor.getReferenceStands().get(10);
+		double[] temperatures = climatePredictor.getMeanGrowingSeasonTemperatures(s, 0, nbRealizations);
+		Matrix real;
+		for (int i = 0; i < nbRealizations; i++) {
+			real = new Matrix(1,1);
+			real.setValueAt(0, 0, temperatures[i]);
+			estimate.addRealization(real);
+		}
+		double expectedVariance = climatePredictor.getResidualVariance((MathildeClimatePlotImpl) s);
+		double actualVariance = estimate.getVariance().getValueAt(0, 0);
+		Assert.assertEquals("Comparing residual variances",	expectedVariance, actualVariance, 1E-3);
+		System.out.println("MathildeClimatePredictorTest, Residual variance of multiple realizations successfully tested!");
+	}
 	
 	@Test
 	public void testMeanPlotCoordinates() throws IOException {
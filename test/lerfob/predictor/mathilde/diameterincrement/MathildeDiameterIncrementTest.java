@@ -1,14 +1,20 @@
 package lerfob.predictor.mathilde.diameterincrement;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
 import lerfob.predictor.mathilde.MathildeTree;
+import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
 import repicea.stats.distributions.EmpiricalDistribution;
@@ -153,4 +159,135 @@ public class MathildeDiameterIncrementTest {
 	
 	
 	
+	@Test
+	public void testConcurrentPredictionsMatchSingleThreadedPredictions() throws Exception {
+		readTrees();
+		
+		final MathildeDiameterIncrementPredictor predictor = new MathildeDiameterIncrementPredictor(false);		// a shared instance is only supported in deterministic mode
+		
+		final double[] expected = new double[trees.size()];
+		for (int i = 0; i < trees.size(); i++) {
+			MathildeTree tree = trees.get(i);
+			expected[i] = predictor.predictGrowth(((MathildeDiameterIncrementTreeImpl) tree).getStand(), tree);
+		}
+
+		int nbThreads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for (int t = 0; t < nbThreads; t++) {
+				futures.add(executor.submit(new Callable<double[]>() {
+					@Override
+					public double[] call() throws Exception {
+						double[] actual = new double[trees.size()];
+						for (int i = 0; i < trees.size(); i++) {
+							MathildeTree tree = trees.get(i);
+							actual[i] = predictor.predictGrowth(((MathildeDiameterIncrementTreeImpl) tree).getStand(), tree);
+						}
+						return actual;
+					}
+				}));
+			}
+			for (Future<double[]> future : futures) {
+				double[] actual = future.get();
+				for (int i = 0; i < expected.length; i++) {
+					assertEquals(expected[i], actual[i], 0d);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.out.println("Trees succesfully compared in " + nbThreads + " threads : " + trees.size());
+	}
+	
+	@Test
+	public void testBatchPredictionsMatchTreeByTreePredictions() throws IOException {
+		readTrees();
+		
+		MathildeDiameterIncrementPredictor predictor = new MathildeDiameterIncrementPredictor(false);
+		MathildeDiameterIncrementStand stand = ((MathildeDiameterIncrementTreeImpl) trees.get(0)).getStand();
+
+		int nbTrees = trees.size();
+		double[] dbhCm = new double[nbTrees];
+		double[] lnDbhCm = new double[nbTrees];
+		int[] speciesOrdinal = new int[nbTrees];
+		double[] balOakM2Ha = new double[nbTrees];
+		double[] balBeechM2Ha = new double[nbTrees];
+		for (int i = 0; i < nbTrees; i++) {
+			MathildeTree tree = trees.get(i);
+			dbhCm[i] = tree.getDbhCm();
+			lnDbhCm[i] = tree.getLnDbhCm();
+			speciesOrdinal[i] = tree.getMathildeTreeSpecies().ordinal();
+			balOakM2Ha[i] = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.QUERCUS);
+			balBeechM2Ha[i] = tree.getBasalAreaLargerThanSubjectM2Ha(MathildeTreeSpecies.FAGUS);
+		}
+		double[] increments = new double[nbTrees];
+		predictor.predictGrowthForThisStand(stand, dbhCm, lnDbhCm, speciesOrdinal, balOakM2Ha, balBeechM2Ha, increments);
+		
+		for (int i = 0; i < nbTrees; i++) {
+			double expected = predictor.predictGrowth(stand, trees.get(i));
+			assertEquals(expected, increments[i], 1E-10);
+		}
+		System.out.println("Trees succesfully compared : " + nbTrees);
+	}
+	
+	@Test
+	public void testAllSubModulesAgainstSingleSubModulePredictions() throws IOException {
+		readTrees();
+		
+		MathildeDiameterIncrementPredictor predictor = new MathildeDiameterIncrementPredictor(false);
+		
+		List<MathildeDiameterIncrementStand> stands = new ArrayList<MathildeDiameterIncrementStand>();
+		for (MathildeTree tree : trees) {
+			stands.add(((MathildeDiameterIncrementTreeImpl) tree).getStand());
+		}
+		double[][] actual = predictor.predictGrowthForAllSubModules(stands, trees);
+		
+		for (int j = 0; j < actual[0].length; j++) {
+			for (int i = 0; i < trees.size(); i++) {
+				double expected = predictor.predictGrowth(stands.get(i), trees.get(i), j);
+				assertEquals(expected, actual[i][j], 1E-12);
+			}
+		}
+		System.out.println(trees.size() + " trees have been successfully tested with " + actual[0].length + " submodules!");
+	}
+	
+	@Test
+	public void testCollapsedCoefficientsMatchDesignVector() throws IOException {
+		readTrees();
+		
+		MathildeDiameterIncrementPredictor predictor = new MathildeDiameterIncrementPredictor(false);
+		
+		int nbTrees = 0;
+		for (MathildeTree tree : trees) {
+			MathildeDiameterIncrementStand stand = ((MathildeDiameterIncrementTreeImpl) tree).getStand();
+			Matrix beta = predictor.subModules.get(0).getParameters(stand);
+			double expected = predictor.getFixedEffectOnlyPrediction(beta, stand, tree);
+			double actual = predictor.getFixedEffectOnlyPrediction(stand, tree);
+			assertEquals(expected, actual, 1E-12);
+			nbTrees++;
+		}
+		System.out.println("Trees succesfully compared : " + nbTrees);
+	}
+	
+	@Test
+	public void testLazySubModuleCreation() throws IOException {
+		readTrees();
+		MathildeTree tree = trees.get(0);
+		MathildeDiameterIncrementStand stand = ((MathildeDiameterIncrementTreeImpl) tree).getStand();
+
+		MathildeDiameterIncrementPredictor predictor = new MathildeDiameterIncrementPredictor(false);
+		assertEquals("Only the submodule of group 0 should be created at startup", 1, predictor.subModules.size());
+		predictor.predictGrowth(stand, tree, 3);
+		assertEquals("Only the requested submodule should have been created", 2, predictor.subModules.size());
+		assertTrue("The submodule of group 3 should have been created", predictor.subModules.containsKey(3));
+		
+		predictor = new MathildeDiameterIncrementPredictor(false);
+		assertEquals("Only the submodule of group 0 should be created at startup", 1, predictor.subModules.size());
+		for (int j = 1; j <= 10; j++) {
+			predictor.getSubModule(j);
+		}
+		assertEquals("All the submodules should have been created", 11, predictor.subModules.size());
+	}
+	
 }
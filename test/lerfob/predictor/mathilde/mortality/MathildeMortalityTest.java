@@ -1,10 +1,14 @@
 package lerfob.predictor.mathilde.mortality;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
 
 import org.junit.Test;
 
@@ -13,6 +17,7 @@ import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
 import repicea.math.integral.AbstractGaussQuadrature.NumberOfPoints;
 import repicea.math.integral.GaussHermiteQuadrature;
+import repicea.simulation.covariateproviders.treelevel.TreeStatusProvider.StatusClass;
 import repicea.stats.distributions.EmpiricalDistribution;
 import repicea.util.ObjectUtility;
 
@@ -250,4 +255,177 @@ public class MathildeMortalityTest {
 		}
 	}
 
+	@Test
+	public void testAllSubModulesAgainstSingleSubModulePredictions() throws IOException {
+		readTreesOriginalModel();
+		
+		MathildeMortalityPredictor predictor = new MathildeMortalityPredictor(false);
+		predictor.ghq = new GaussHermiteQuadrature(NumberOfPoints.N5);
+		
+		List<MathildeMortalityStand> stands = new ArrayList<MathildeMortalityStand>();
+		for (MathildeTree tree : treesOriginalModel) {
+			stands.add(((MathildeMortalityTreeImpl) tree).getStand());
+		}
+		double[][] actual = predictor.predictEventProbabilityForAllSubModules(stands, treesOriginalModel);
+		
+		Map<String, Object> parms = new HashMap<String, Object>();
+		for (int j = 0; j < actual[0].length; j++) {
+			parms.put(MathildeMortalityPredictor.ParmSubmoduleFromCrossValidation, j);
+			for (int i = 0; i < treesOriginalModel.size(); i++) {
+				double expected = predictor.predictEventProbability(stands.get(i), treesOriginalModel.get(i), parms);
+				assertEquals(expected, actual[i][j], 1E-12);
+			}
+		}
+		System.out.println(treesOriginalModel.size() + " trees have been successfully tested with " + actual[0].length + " submodules!");
+	}
+	
+	@Test
+	public void testSubModulesCreatedOnDemand() throws IOException {
+		readTreesOriginalModel();
+		
+		MathildeMortalityPredictor predictor = new MathildeMortalityPredictor(false);
+		assertEquals("Only the submodule of group 0 should be created at startup", 1, predictor.subModules.size());
+		
+		MathildeTree tree = treesOriginalModel.get(0);
+		Map<String, Object> parms = new HashMap<String, Object>();
+		parms.put(MathildeMortalityPredictor.ParmSubmoduleFromCrossValidation, 3);
+		predictor.predictEventProbability(((MathildeMortalityTreeImpl) tree).getStand(), tree, parms);
+		assertEquals("Only the requested submodule should have been created", 2, predictor.subModules.size());
+		assertTrue("The submodule of group 3 should have been created", predictor.subModules.containsKey(3));
+	}
+	
+	@Test
+	public void testWindstormLookupTableAgainstQuadrature() throws IOException {
+		readTreesOriginalModel();
+		
+		MathildeMortalityPredictor predictor = new MathildeMortalityPredictor(false);
+		
+		int nbTreesUnderWindstorm = 0;
+		double[] expected = new double[treesOriginalModel.size()];
+		for (int i = 0; i < treesOriginalModel.size(); i++) {
+			MathildeTree tree = treesOriginalModel.get(i);
+			MathildeMortalityStand stand = ((MathildeMortalityTreeImpl) tree).getStand();
+			expected[i] = predictor.predictEventProbability(stand, tree);
+			if (stand.isAWindstormGoingToOccur()) {
+				nbTreesUnderWindstorm++;
+			}
+		}
+
+		double tolerance = 1E-7;
+		predictor.setWindstormLookupTableEnabled(true, tolerance);
+		for (int i = 0; i < treesOriginalModel.size(); i++) {
+			MathildeTree tree = treesOriginalModel.get(i);
+			MathildeMortalityStand stand = ((MathildeMortalityTreeImpl) tree).getStand();
+			double actual = predictor.predictEventProbability(stand, tree);
+			assertEquals(expected[i], actual, tolerance);
+		}
+		assertTrue("There should be several trees under windstorm", nbTreesUnderWindstorm > 1);
+	}
+	
+	@Test
+	public void testWindstormLookupTableOnDenseGrid() {
+		DoubleUnaryOperator function = x -> 1d - Math.exp(-Math.exp(x));		// the complementary log-log link
+		double lowerBound = -15d;
+		double upperBound = 10d;
+		for (double tolerance : new double[] {1E-5, 1E-7, 1E-9}) {
+			MathildeWindstormMortalityTable table = MathildeWindstormMortalityTable.create(function, lowerBound, upperBound, tolerance);
+			assertTrue("The table should have been created", table != null);
+			int nbPoints = 100000;
+			for (int i = 0; i <= nbPoints; i++) {
+				double x = lowerBound + i * (upperBound - lowerBound) / nbPoints;
+				assertEquals("Comparing the interpolated value at " + x, function.applyAsDouble(x), table.getValue(x), tolerance);
+			}
+		}
+	}
+	
+	@Test
+	public void testFailedWindstormLookupTableIsNotRebuilt() throws IOException {
+		readTreesOriginalModel();
+		
+		MathildeMortalityPredictor referencePredictor = new MathildeMortalityPredictor(false);
+		MathildeMortalityPredictor predictor = new MathildeMortalityPredictor(false);
+		predictor.setWindstormLookupTableEnabled(true, 1E-300);		// this tolerance cannot be met
+		int nbTreesUnderWindstorm = 0;
+		for (MathildeTree tree : treesOriginalModel) {
+			MathildeMortalityStand stand = ((MathildeMortalityTreeImpl) tree).getStand();
+			if (stand.isAWindstormGoingToOccur()) {
+				assertEquals(referencePredictor.predictEventProbability(stand, tree), predictor.predictEventProbability(stand, tree), 1E-12);
+				nbTreesUnderWindstorm++;
+			}
+		}
+		assertTrue("There should be several trees under windstorm", nbTreesUnderWindstorm > 1);
+		long maxNumberOfQuadraturesForATabulation = 65 + 64 + 128 * ((1 << 7) - 1);	// the initial nodes and midpoints plus the quarter points of the seven grids
+		assertTrue("The failed tabulation should not be attempted again", 
+				predictor.getNumberOfQuadratures() <= maxNumberOfQuadraturesForATabulation + nbTreesUnderWindstorm);
+	}
+	
+	@Test
+	public void testJointProbabilitiesAgainstSeparatePredictions() throws IOException {
+		readTreesOriginalModel();
+		
+		MathildeMortalityPredictor predictor = new MathildeMortalityPredictor(false);
+		predictor.ghq = new GaussHermiteQuadrature(NumberOfPoints.N5);
+		
+		for (MathildeTree tree : treesOriginalModel) {
+			MathildeMortalityStand stand = ((MathildeMortalityTreeImpl) tree).getStand();
+			double[] actual = predictor.predictEventProbabilities(stand, tree, null);
+			assertEquals(predictor.predictEventProbability(stand, tree), actual[0], 1E-12);
+			assertEquals(predictor.predictEventProbability(stand, tree, MathildeMortalityPredictor.ParmsToDisableWindstorm), actual[1], 1E-12);
+		}
+		System.out.println(treesOriginalModel.size() + " trees have been successfully tested!");
+	}
+	
+	@Test
+	public void testDeadAndWindfallSplitUnderWindstorm() throws IOException {
+		readTreesOriginalModel();
+		
+		MathildeMortalityPredictor deterministicPredictor = new MathildeMortalityPredictor(false);
+		MathildeTree selectedTree = null;
+		double[] probabilities = null;
+		int nbTreesUnderWindstorm = 0;
+		long nbQuadraturesBefore = deterministicPredictor.getNumberOfQuadratures();
+		for (MathildeTree tree : treesOriginalModel) {
+			MathildeMortalityStand stand = ((MathildeMortalityTreeImpl) tree).getStand();
+			if (stand.isAWindstormGoingToOccur()) {
+				deterministicPredictor.predictEvent(stand, tree, null);
+				nbTreesUnderWindstorm++;
+				double[] prob = deterministicPredictor.predictEventProbabilities(stand, tree, null);
+				if (probabilities == null || prob[0] > probabilities[0]) {
+					probabilities = prob;
+					selectedTree = tree;
+				}
+			}
+		}
+		assertTrue("Testing there are trees under windstorm", nbTreesUnderWindstorm > 0);
+		assertEquals("Testing the number of quadratures in deterministic mode", 
+				2 * nbTreesUnderWindstorm,		// one through predictEvent and one through predictEventProbabilities 
+				deterministicPredictor.getNumberOfQuadratures() - nbQuadraturesBefore);
+		
+		MathildeMortalityPredictor stochasticPredictor = new MathildeMortalityPredictor(false, false, true);	// only residual variability
+		MathildeMortalityStand stand = ((MathildeMortalityTreeImpl) selectedTree).getStand();
+		int nbRealizations = 100000;
+		int nbDead = 0;
+		int nbWindfall = 0;
+		nbQuadraturesBefore = stochasticPredictor.getNumberOfQuadratures();
+		for (int k = 0; k < nbRealizations; k++) {
+			Object status = stochasticPredictor.predictEvent(stand, selectedTree, null);
+			if (status == StatusClass.dead) {
+				nbDead++;
+			} else if (status == StatusClass.windfall) {
+				nbWindfall++;
+			}
+		}
+		assertEquals("Testing the number of quadratures in stochastic mode", 
+				nbRealizations, 
+				stochasticPredictor.getNumberOfQuadratures() - nbQuadraturesBefore);
+		
+		double expectedDead = probabilities[1];
+		double expectedWindfall = probabilities[0] - probabilities[1];
+		double actualDead = (double) nbDead / nbRealizations;
+		double actualWindfall = (double) nbWindfall / nbRealizations;
+		assertEquals("Testing the proportion of dead trees", expectedDead, actualDead, 5 * Math.sqrt(expectedDead * (1 - expectedDead) / nbRealizations) + 1E-4);
+		assertEquals("Testing the proportion of windfall trees", expectedWindfall, actualWindfall, 5 * Math.sqrt(expectedWindfall * (1 - expectedWindfall) / nbRealizations) + 1E-4);
+		System.out.println("Dead/windfall split under windstorm: expected " + expectedDead + "/" + expectedWindfall + " vs actual " + actualDead + "/" + actualWindfall);
+	}
+
 }
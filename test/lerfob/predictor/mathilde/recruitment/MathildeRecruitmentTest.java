@@ -1,16 +1,21 @@
 package lerfob.predictor.mathilde.recruitment;
 
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import lerfob.predictor.PredictorParameterCache;
 import lerfob.predictor.mathilde.MathildeTreeSpeciesProvider.MathildeTreeSpecies;
 import repicea.io.javacsv.CSVReader;
 import repicea.math.Matrix;
+import repicea.math.utility.GaussianUtility;
+import repicea.stats.StatisticalUtility;
 import repicea.stats.estimates.MonteCarloEstimate;
 import repicea.util.ObjectUtility;
 
@@ -258,4 +263,297 @@ public class MathildeRecruitmentTest {
 	}
 
 
+	private static List<MathildeRecruitmentStandImpl> createRandomStands(int nbStands) {
+		Random random = new Random(20261018L);
+		List<MathildeRecruitmentStandImpl> stands = new ArrayList<MathildeRecruitmentStandImpl>();
+		for (int i = 0; i < nbStands; i++) {
+			double basalAreaM2Ha = 5d + random.nextDouble() * 40d;
+			MathildeRecruitmentStandImpl stand = new MathildeRecruitmentStandImpl("" + i, basalAreaM2Ha);
+			double remainingBasalAreaM2Ha = basalAreaM2Ha;
+			for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
+				double basalAreaM2HaOfThisSpecies = remainingBasalAreaM2Ha * random.nextDouble();
+				stand.setBasalAreaM2HaOfThisSpecies(species, basalAreaM2HaOfThisSpecies);
+				remainingBasalAreaM2Ha -= basalAreaM2HaOfThisSpecies;
+			}
+			stands.add(stand);
+		}
+		return stands;
+	}
+
+	@Test
+	public void recruitmentProbabilitiesKernelTest() throws Exception {
+		MathildeRecruitmentNumberPredictor pred = new MathildeRecruitmentNumberPredictor(false);
+		List<MathildeRecruitmentStandImpl> stands = createRandomStands(500);
+		int resolution = 30;
+		double[][] probabilities = new double[MathildeTreeSpecies.values().length][resolution];
+		for (MathildeRecruitmentStandImpl stand : stands) {
+			pred.predictRecruitmentProbabilitiesForThisStand(stand, probabilities);
+			Matrix means = pred.predictNumberOfRecruits(stand);
+			for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
+				Matrix expectedProbabilities = pred.getMarginalPredictionsForThisStandAndSpecies(stand, species, resolution, true);
+				double[] actualProbabilities = probabilities[species.ordinal()];
+				for (int j = 0; j < resolution; j++) {
+					double expected = expectedProbabilities.getValueAt(0, j);
+					Assert.assertEquals("Testing probability of " + j + " recruits for species " + species.name() + " in stand " + stand.getSubjectId(),
+							expected, actualProbabilities[j], Math.max(1E-12, Math.abs(expected) * 1E-10));
+				}
+				double expectedMean = pred.getMarginalPredictionsForThisStandAndSpecies(stand, species, resolution, false).getValueAt(0, 0);
+				Assert.assertEquals("Testing mean number of recruits for species " + species.name() + " in stand " + stand.getSubjectId(),
+						expectedMean, means.getValueAt(species.ordinal(), 0), expectedMean * 1E-10);
+			}
+		}
+		System.out.println("Recurrence-based probabilities of recruitment successfully tested on " + stands.size() + " stands.");
+	}
+
+	@Test
+	public void recruitmentProbabilitiesKernelBenchmark() throws Exception {
+		MathildeRecruitmentNumberPredictor pred = new MathildeRecruitmentNumberPredictor(false);
+		List<MathildeRecruitmentStandImpl> stands = createRandomStands(1000);
+		int nbLoops = 20;
+		double[][] probabilities = new double[MathildeTreeSpecies.values().length][15];
+		double checkSum = 0d;
+		long start = System.nanoTime();
+		for (int k = 0; k < nbLoops; k++) {
+			for (MathildeRecruitmentStandImpl stand : stands) {
+				for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
+					checkSum += pred.getMarginalPredictionsForThisStandAndSpecies(stand, species, 15, true).getValueAt(0, 1);
+				}
+			}
+		}
+		double matrixNanoSecPerStand = (double) (System.nanoTime() - start) / (nbLoops * stands.size());
+		start = System.nanoTime();
+		for (int k = 0; k < nbLoops; k++) {
+			for (MathildeRecruitmentStandImpl stand : stands) {
+				pred.predictRecruitmentProbabilitiesForThisStand(stand, probabilities);
+				checkSum -= probabilities[0][1] + probabilities[1][1] + probabilities[2][1] + probabilities[3][1];
+			}
+		}
+		double kernelNanoSecPerStand = (double) (System.nanoTime() - start) / (nbLoops * stands.size());
+		System.out.println("Recruitment probabilities per stand: " + matrixNanoSecPerStand + " ns with matrices vs " 
+				+ kernelNanoSecPerStand + " ns with the recurrence (check sum = " + checkSum + ")");
+		Assert.assertEquals("Testing the check sum", 0d, checkSum, 1E-6);
+	}
+
+	/*
+	 * This test makes sure that the batch sampling is on average equivalent to the margins and that the 
+	 * numbers of recruits of the different species are correlated as in the copula.
+	 */
+	@Test
+	public void batchNumbersOfRecruitsTest() throws Exception {
+		StatisticalUtility.getRandom().setSeed(20261018L);
+		MathildeRecruitmentNumberPredictor pred = new MathildeRecruitmentNumberPredictor(false, true);	// only residual variability enabled
+		MathildeRecruitmentStandImpl stand = createRandomStands(1).get(0);
+		int nbRealizations = 100000;
+		List<MathildeRecruitmentStandImpl> stands = new ArrayList<MathildeRecruitmentStandImpl>();
+		for (int k = 0; k < nbRealizations; k++) {
+			stands.add(stand);
+		}
+		int[][] recruits = pred.predictNumberOfRecruits(stands);
+		Assert.assertEquals("Testing the number of rows", nbRealizations, recruits.length);
+		
+		int nbSpecies = MathildeTreeSpecies.values().length;
+		double[][] expectedProbabilities = new double[nbSpecies][15];
+		pred.predictRecruitmentProbabilitiesForThisStand(stand, expectedProbabilities);
+		double[][] actualFrequencies = new double[nbSpecies][16];	// the last column is for the numbers beyond the resolution 
+		for (int k = 0; k < nbRealizations; k++) {
+			for (int s = 0; s < nbSpecies; s++) {
+				actualFrequencies[s][recruits[k][s]] += 1d / nbRealizations;
+			}
+		}
+		for (int s = 0; s < nbSpecies; s++) {
+			for (int j = 0; j < 15; j++) {
+				Assert.assertEquals(expectedProbabilities[s][j], actualFrequencies[s][j], 5E-3);
+			}
+		}
+		
+		Matrix copula = PredictorParameterCache.loadMatrixFromFile(ObjectUtility.getRelativePackagePath(MathildeRecruitmentNumberPredictor.class) + "0_zinb_copula.csv");
+		double[][] cutPoints = new double[nbSpecies][];
+		double[][] normalScores = new double[nbSpecies][];
+		double[] normalScoreVariances = new double[nbSpecies];
+		for (int s = 0; s < nbSpecies; s++) {
+			double[] probabilities = new double[16];	// the last element is for the numbers beyond the resolution
+			double cumulativeProbability = 0d;
+			for (int j = 0; j < 15; j++) {
+				probabilities[j] = expectedProbabilities[s][j];
+				cumulativeProbability += probabilities[j];
+			}
+			probabilities[15] = Math.max(0d, 1d - cumulativeProbability);
+			cutPoints[s] = getLatentCutPoints(probabilities);
+			normalScores[s] = getNormalScores(cutPoints[s], probabilities);
+			for (int j = 0; j < probabilities.length; j++) {
+				normalScoreVariances[s] += probabilities[j] * normalScores[s][j] * normalScores[s][j];
+			}
+		}
+		int nbPairs = 0;
+		for (int s = 0; s < nbSpecies; s++) {
+			for (int t = s + 1; t < nbSpecies; t++) {
+				double rho = copula.getValueAt(getCopulaIndex(MathildeTreeSpecies.values()[s]), getCopulaIndex(MathildeTreeSpecies.values()[t]));
+				double expectedCorrelation = getExpectedNormalScoreCovariance(cutPoints[s], normalScores[s], cutPoints[t], normalScores[t], rho) 
+						/ Math.sqrt(normalScoreVariances[s] * normalScoreVariances[t]);
+				double sumS = 0d;
+				double sumT = 0d;
+				double sumSS = 0d;
+				double sumTT = 0d;
+				double sumST = 0d;
+				for (int k = 0; k < nbRealizations; k++) {
+					double scoreS = normalScores[s][recruits[k][s]];
+					double scoreT = normalScores[t][recruits[k][t]];
+					sumS += scoreS;
+					sumT += scoreT;
+					sumSS += scoreS * scoreS;
+					sumTT += scoreT * scoreT;
+					sumST += scoreS * scoreT;
+				}
+				double covariance = sumST / nbRealizations - sumS * sumT / nbRealizations / nbRealizations;
+				double varianceS = sumSS / nbRealizations - sumS * sumS / nbRealizations / nbRealizations;
+				double varianceT = sumTT / nbRealizations - sumT * sumT / nbRealizations / nbRealizations;
+				double actualCorrelation = covariance / Math.sqrt(varianceS * varianceT);
+				Assert.assertEquals("Testing the normal-score correlation between species " + MathildeTreeSpecies.values()[s].name() + " and " + MathildeTreeSpecies.values()[t].name(),
+						expectedCorrelation, actualCorrelation, 1E-2);
+				nbPairs++;
+			}
+		}
+		System.out.println("Batch sampling of recruits successfully tested on " + nbRealizations + " realizations and " + nbPairs + " pairs of species.");
+	}
+
+	/*
+	 * The copula was fitted with the species in this order : beech, hornbeam, oak, others.
+	 */
+	private static int getCopulaIndex(MathildeTreeSpecies species) {
+		switch(species) {
+		case FAGUS:
+			return 0;
+		case CARPINUS:
+			return 1;
+		case QUERCUS:
+			return 2;
+		default:
+			return 3;
+		}
+	}
+	
+	/*
+	 * Returns the bounds of the standard Gaussian deviate for each number of recruits. The number j is
+	 * drawn if the deviate lies between the elements j and j + 1.
+	 */
+	private static double[] getLatentCutPoints(double[] probabilities) {
+		double[] cutPoints = new double[probabilities.length + 1];
+		cutPoints[0] = Double.NEGATIVE_INFINITY;
+		double cumulativeProbability = 0d;
+		for (int j = 0; j < probabilities.length - 1; j++) {
+			cumulativeProbability += probabilities[j];
+			cutPoints[j + 1] = getGaussianQuantile(cumulativeProbability);
+		}
+		cutPoints[probabilities.length] = Double.POSITIVE_INFINITY;
+		return cutPoints;
+	}
+	
+	private static double getGaussianQuantile(double probability) {
+		double lower = -40d;
+		double upper = 40d;
+		for (int i = 0; i < 100; i++) {
+			double mid = (lower + upper) * .5;
+			if (GaussianUtility.getCumulativeProbability(mid) < probability) {
+				lower = mid;
+			} else {
+				upper = mid;
+			}
+		}
+		return (lower + upper) * .5;
+	}
+	
+	private static double getGaussianDensity(double x) {
+		return Double.isInfinite(x) ? 0d : Math.exp(-x * x * .5) / Math.sqrt(2 * Math.PI);
+	}
+	
+	/*
+	 * Returns the expected value of the standard Gaussian deviate given the number of recruits.
+	 */
+	private static double[] getNormalScores(double[] cutPoints, double[] probabilities) {
+		double[] normalScores = new double[probabilities.length];
+		for (int j = 0; j < normalScores.length; j++) {
+			if (probabilities[j] > 0d) {
+				normalScores[j] = (getGaussianDensity(cutPoints[j]) - getGaussianDensity(cutPoints[j + 1])) / probabilities[j];
+			}
+		}
+		return normalScores;
+	}
+	
+	/*
+	 * Integrates the product of the normal scores over the bivariate standard Gaussian distribution with 
+	 * correlation rho. The deviate of the second species is integrated analytically given the deviate of 
+	 * the first species, which is integrated numerically through the midpoint rule.
+	 */
+	private static double getExpectedNormalScoreCovariance(double[] cutPointsS, double[] normalScoresS, double[] cutPointsT, double[] normalScoresT, double rho) {
+		double conditionalStd = Math.sqrt(1 - rho * rho);
+		double step = 1E-3;
+		double covariance = 0d;
+		int j = 0;
+		for (double x = -8d + step * .5; x < 8d; x += step) {
+			while (x > cutPointsS[j + 1]) {
+				j++;
+			}
+			double conditionalExpectation = normalScoresT[normalScoresT.length - 1];
+			for (int l = 1; l < normalScoresT.length; l++) {
+				conditionalExpectation += GaussianUtility.getCumulativeProbability((cutPointsT[l] - rho * x) / conditionalStd) * (normalScoresT[l - 1] - normalScoresT[l]);
+			}
+			covariance += getGaussianDensity(x) * normalScoresS[j] * conditionalExpectation * step;
+		}
+		return covariance;
+	}
+
+	@Test(expected = InvalidParameterException.class)
+	public void batchNumbersOfRecruitsInDeterministicModeTest() throws Exception {
+		MathildeRecruitmentNumberPredictor pred = new MathildeRecruitmentNumberPredictor(false);
+		pred.predictNumberOfRecruits(createRandomStands(10));
+	}
+
+	@Test
+	public void recruitDiametersOfAStandTest() throws Exception {
+		MathildeRecruitDbhPredictor pred = new MathildeRecruitDbhPredictor(false);
+		MathildeRecruitmentStandImpl stand = createRandomStands(1).get(0);
+		MathildeTreeSpecies[] species = MathildeTreeSpecies.values();
+		int[] recruitsPerSpecies = new int[] {2, 0, 3, 1};
+		double[] diameters = new double[6];
+		pred.predictRecruitDiameters(stand, recruitsPerSpecies, diameters);
+		int index = 0;
+		for (int s = 0; s < species.length; s++) {
+			double expected = pred.predictRecruitDiameter(stand, new MathildeTreeImpl(stand, species[s], null));
+			for (int j = 0; j < recruitsPerSpecies[s]; j++) {
+				Assert.assertEquals("Testing the dbh of recruit " + index, expected, diameters[index], 1E-12);
+				index++;
+			}
+		}
+		System.out.println("Prediction of the recruit diameters of a stand successfully tested.");
+	}
+
+	@Test
+	public void recruitDiametersOfAStandStochasticTest() throws Exception {
+		MathildeRecruitDbhPredictor deterministicPred = new MathildeRecruitDbhPredictor(false);
+		MathildeRecruitDbhPredictor pred = new MathildeRecruitDbhPredictor(false, true);	// only residual variability enabled
+		MathildeRecruitmentStandImpl stand = createRandomStands(1).get(0);
+		int nbRecruits = 100000;
+		for (MathildeTreeSpecies species : MathildeTreeSpecies.values()) {
+			int[] recruitsPerSpecies = new int[MathildeTreeSpecies.values().length];
+			recruitsPerSpecies[species.ordinal()] = nbRecruits;
+			double[] diameters = new double[nbRecruits];
+			pred.predictRecruitDiameters(stand, recruitsPerSpecies, diameters);
+			double expectedMean = deterministicPred.predictRecruitDiameterWithOffset(stand, new MathildeTreeImpl(stand, species, null));
+			double offset = deterministicPred.predictRecruitDiameter(stand, new MathildeTreeImpl(stand, species, null)) - expectedMean;
+			double sum = 0d;
+			double sumSquares = 0d;
+			for (double dbhCm : diameters) {
+				double value = dbhCm - offset;
+				sum += value;
+				sumSquares += value * value;
+			}
+			double actualMean = sum / nbRecruits;
+			double actualVariance = sumSquares / nbRecruits - actualMean * actualMean;
+			double expectedVariance = expectedMean * expectedMean / MathildeRecruitDbhPredictor.Dispersion;
+			Assert.assertEquals("Testing the mean dbh of species " + species.name(), expectedMean, actualMean, expectedMean * .01);
+			Assert.assertEquals("Testing the dbh variance of species " + species.name(), expectedVariance, actualVariance, expectedVariance * .03);
+		}
+		System.out.println("Stochastic prediction of the recruit diameters of a stand successfully tested.");
+	}
+
 }
@@ -124,6 +124,47 @@ public class MathildeThinningPredictorTest {
 		System.out.println("Number of tree predictions successfully tested: " + nbTested);
 	}
 	
+	@Test
+	public void subModulesCreatedOnDemandTest() {
+		ReadTrees();
+		MathildeThinningTreeImpl tree = Trees.get(0);
+		Map<String, Object> parms = new HashMap<String, Object>();
+		parms.put(MathildeStandThinningPredictor.ParmSubModuleID, 3);
+
+		MathildeTreeThinningPredictor treePredictor = new MathildeTreeThinningPredictor(false);
+		Assert.assertEquals("Only the submodule of group 0 should be created at startup", 1, treePredictor.subModules.size());
+		treePredictor.predictEventProbability(tree.getStand(), tree, parms);
+		Assert.assertEquals("Only the requested submodule should have been created", 2, treePredictor.subModules.size());
+		Assert.assertTrue("The submodule of group 3 should have been created", treePredictor.subModules.containsKey(3));
+		
+		MathildeStandThinningPredictor standPredictor = new MathildeStandThinningPredictor(false);
+		Assert.assertEquals("Only the submodule of group 0 should be created at startup", 1, standPredictor.subModules.size());
+		standPredictor.predictEventProbability(tree.getStand(), null, parms);
+		Assert.assertEquals("Only the requested submodule should have been created", 2, standPredictor.subModules.size());
+		Assert.assertTrue("The submodule of group 3 should have been created", standPredictor.subModules.containsKey(3));
+	}
+	
+	@Test
+	public void allSubModulesAgainstSingleSubModulePredictionsTest() {
+		ReadTrees();
+		MathildeTreeThinningPredictor treePredictor = new MathildeTreeThinningPredictor(false);
+		List<MathildeThinningStandImpl> stands = new ArrayList<MathildeThinningStandImpl>();
+		for (MathildeThinningTreeImpl tree : Trees) {
+			stands.add(tree.getStand());
+		}
+		double[][] actual = treePredictor.predictEventProbabilityForAllSubModules(stands, Trees);
+		
+		Map<String, Object> parms = new HashMap<String, Object>();
+		for (int j = 0; j < actual[0].length; j++) {
+			parms.put(MathildeStandThinningPredictor.ParmSubModuleID, j);
+			for (int i = 0; i < Trees.size(); i++) {
+				double expected = treePredictor.predictEventProbability(stands.get(i), Trees.get(i), parms);
+				Assert.assertEquals("Testing obs " + i + " with submodule " + j, expected, actual[i][j], 1E-12);
+			}
+		}
+		System.out.println(Trees.size() + " trees have been successfully tested with " + actual[0].length + " submodules!");
+	}
+	
 	
 	
 
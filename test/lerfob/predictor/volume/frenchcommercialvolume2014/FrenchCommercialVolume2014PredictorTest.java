@@ -7,6 +7,7 @@ import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
 
+import lerfob.predictor.volume.CommercialVolumeLookupTable;
 import repicea.io.javacsv.CSVReader;
 import repicea.util.ObjectUtility;
 
@@ -26,6 +27,50 @@ public class FrenchCommercialVolume2014PredictorTest {
 		System.out.println("Nb of trees successfully tested " + nbTrees);
 	}
 	
+	@Test
+	public void testLookupTablesAgainstEquation() throws IOException {
+		FrenchCommercialVolume2014Predictor exactPredictor = new FrenchCommercialVolume2014Predictor();
+		FrenchCommercialVolume2014Predictor tablePredictor = new FrenchCommercialVolume2014Predictor();
+		Assert.assertEquals("Testing the error bound of disabled lookup tables", 0d, tablePredictor.getLookupTableErrorBoundDm3(), 0d);
+		tablePredictor.setLookupTableGrid(new CommercialVolumeLookupTable.Grid(7, 150, .5, 1, 50, 1));
+		double errorBoundDm3 = tablePredictor.getLookupTableErrorBoundDm3();
+		Assert.assertTrue("Testing the error bound is positive", errorBoundDm3 > 0d);
+		List<FrenchCommercialVolume2014TreeImpl> trees = readTrees();
+		double maxError = 0d;
+		for (FrenchCommercialVolume2014TreeImpl tree : trees) {
+			double expected = exactPredictor.predictTreeCommercialOverbarkVolumeDm3(tree);
+			double actual = tablePredictor.predictTreeCommercialOverbarkVolumeDm3(tree);
+			Assert.assertEquals("Testing interpolated volume for tree " + tree.getSubjectId(), expected, actual, errorBoundDm3 + 1E-8);
+			maxError = Math.max(maxError, Math.abs(expected - actual));
+		}
+		System.out.println("Maximum interpolation error " + maxError + " dm3 for a bound of " + errorBoundDm3 + " dm3");
+		tablePredictor.setLookupTableGrid(null);
+		for (FrenchCommercialVolume2014TreeImpl tree : trees) {
+			Assert.assertEquals("Testing disabled lookup tables for tree " + tree.getSubjectId(), 
+					exactPredictor.predictTreeCommercialOverbarkVolumeDm3(tree), 
+					tablePredictor.predictTreeCommercialOverbarkVolumeDm3(tree), 
+					0d);
+		}
+	}
+
+	@Test
+	public void testStochasticResidualErrorsAgainstResidualVariance() {
+		FrenchCommercialVolume2014Predictor predictor = new FrenchCommercialVolume2014Predictor(true);
+		FrenchCommercialVolume2014TreeImpl tree = new FrenchCommercialVolume2014TreeImpl(0, 30d, 20d, "Abies alba");
+		int nbRealizations = 100000;
+		double sum = 0d;
+		double sumSquares = 0d;
+		for (int i = 0; i < nbRealizations; i++) {
+			double volume = predictor.predictTreeCommercialOverbarkVolumeDm3(tree);
+			sum += volume;
+			sumSquares += volume * volume;
+		}
+		double mean = sum / nbRealizations;
+		double actualVariance = sumSquares / nbRealizations - mean * mean;
+		double expectedVariance = 13.7088469671959 * 30d * 30d;	// residual variance of Abies alba times the squared dbh
+		Assert.assertEquals("Testing residual variance", expectedVariance, actualVariance, expectedVariance * .03);
+	}
+
 	private List<FrenchCommercialVolume2014TreeImpl> readTrees() throws IOException {
 		List<FrenchCommercialVolume2014TreeImpl> trees = new ArrayList<FrenchCommercialVolume2014TreeImpl>();
 		String filename = ObjectUtility.getRelativePackagePath(getClass()) + "0_refTest.csv";
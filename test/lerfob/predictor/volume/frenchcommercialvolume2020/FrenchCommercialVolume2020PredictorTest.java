@@ -28,6 +28,7 @@ import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
 
+import lerfob.predictor.volume.CommercialVolumeLookupTable;
 import repicea.io.javacsv.CSVReader;
 import repicea.util.ObjectUtility;
 
@@ -78,6 +79,57 @@ public class FrenchCommercialVolume2020PredictorTest {
 		System.out.println("Nb of trees successfully tested for prediction variance " + nbTrees);
 	}
 
+	@Test
+	public void testBatchPredictionsAgainstRPredictions() throws IOException {
+		FrenchCommercialVolume2020Predictor predictor = new FrenchCommercialVolume2020Predictor();
+		List<FrenchCommercialVolume2020TreeImpl> trees = getTrees();
+		int nbTrees = trees.size();
+		double[] dbhCm = new double[nbTrees];
+		double[] heightM = new double[nbTrees];
+		int[] speciesOrdinal = new int[nbTrees];
+		for (int i = 0; i < nbTrees; i++) {
+			FrenchCommercialVolume2020TreeImpl tree = trees.get(i);
+			dbhCm[i] = tree.getDbhCm();
+			heightM[i] = tree.getHeightM();
+			speciesOrdinal[i] = tree.getFrenchCommercialVolume2020TreeSpecies().ordinal();
+		}
+		double[] volumesDm3 = new double[nbTrees];
+		predictor.predictTreeCommercialOverbarkVolumesDm3(dbhCm, heightM, speciesOrdinal, volumesDm3);
+		for (int i = 0; i < nbTrees; i++) {
+			FrenchCommercialVolume2020TreeImpl tree = trees.get(i);
+			Assert.assertEquals("Testing batch prediction for tree " + tree.getSubjectId(), tree.pred, volumesDm3[i], 1E-8);
+			Assert.assertEquals("Comparing batch and single-tree predictions for tree " + tree.getSubjectId(), 
+					predictor.predictTreeCommercialOverbarkVolumeDm3(tree), volumesDm3[i], 1E-8);
+		}
+		System.out.println("Nb of trees successfully tested for batch prediction " + nbTrees);
+	}
+
+	@Test
+	public void testLookupTablesAgainstEquation() throws IOException {
+		FrenchCommercialVolume2020Predictor exactPredictor = new FrenchCommercialVolume2020Predictor();
+		FrenchCommercialVolume2020Predictor tablePredictor = new FrenchCommercialVolume2020Predictor();
+		Assert.assertEquals("Testing the error bound of disabled lookup tables", 0d, tablePredictor.getLookupTableErrorBoundDm3(), 0d);
+		tablePredictor.setLookupTableGrid(new CommercialVolumeLookupTable.Grid(7.5, 150, .5, 1, 50, 1));
+		double errorBoundDm3 = tablePredictor.getLookupTableErrorBoundDm3();
+		Assert.assertTrue("Testing the error bound is positive", errorBoundDm3 > 0d);
+		List<FrenchCommercialVolume2020TreeImpl> trees = getTrees();
+		double maxError = 0d;
+		for (FrenchCommercialVolume2020TreeImpl tree : trees) {
+			double expected = exactPredictor.predictTreeCommercialOverbarkVolumeDm3(tree);
+			double actual = tablePredictor.predictTreeCommercialOverbarkVolumeDm3(tree);
+			Assert.assertEquals("Testing interpolated volume for tree " + tree.getSubjectId(), expected, actual, errorBoundDm3 + 1E-8);
+			maxError = Math.max(maxError, Math.abs(expected - actual));
+		}
+		System.out.println("Maximum interpolation error " + maxError + " dm3 for a bound of " + errorBoundDm3 + " dm3");
+		tablePredictor.setLookupTableGrid(null);
+		for (FrenchCommercialVolume2020TreeImpl tree : trees) {
+			Assert.assertEquals("Testing disabled lookup tables for tree " + tree.getSubjectId(), 
+					exactPredictor.predictTreeCommercialOverbarkVolumeDm3(tree), 
+					tablePredictor.predictTreeCommercialOverbarkVolumeDm3(tree), 
+					0d);
+		}
+	}
+
 	private List<FrenchCommercialVolume2020TreeImpl> getTrees() throws IOException {
 		if (Trees == null) {
 			Trees = new ArrayList<FrenchCommercialVolume2020TreeImpl>();